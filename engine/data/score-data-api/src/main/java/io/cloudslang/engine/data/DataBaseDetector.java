@@ -30,6 +30,8 @@ public class DataBaseDetector {
 
 	private final static String MSSQL_PRODUCT_NAME = "Microsoft SQL Server";
 	private final static String ORACLE_PRODUCT_NAME = "Oracle";
+	private final static String POSTGRESQL_PRODUCT_NAME = "PostgreSQL";
+	private final static String MYSQL_PRODUCT_NAME = "MySQL";
 
 	@Autowired
 	private DataSource dataSource;
@@ -42,6 +44,34 @@ public class DataBaseDetector {
 		return isDataBaseMatch(ORACLE_PRODUCT_NAME);
 	}
 
+	public boolean isPostgreSql() {
+		return isDataBaseMatch(POSTGRESQL_PRODUCT_NAME);
+	}
+
+	public boolean isMySql() {
+		return isDataBaseMatch(MYSQL_PRODUCT_NAME);
+	}
+
+	/**
+	 * @return true if the database can skip rows that are locked by other transactions in a SELECT ... FOR UPDATE
+	 */
+	public boolean isSkipLockedSupported() {
+		return isOracle() ||
+				(isPostgreSql() && isVersionAtLeast(9, 5)) ||
+				(isMySql() && isVersionAtLeast(8, 0));
+	}
+
+	private boolean isVersionAtLeast(int major, int minor) {
+		try (Connection conn = dataSource.getConnection()) {
+			int databaseMajorVersion = conn.getMetaData().getDatabaseMajorVersion();
+			int databaseMinorVersion = conn.getMetaData().getDatabaseMinorVersion();
+			return databaseMajorVersion > major || (databaseMajorVersion == major && databaseMinorVersion >= minor);
+		} catch (SQLException e) {
+			logger.error("Couldn't get database connection!", e);
+			throw new RuntimeException("Couldn't get database connection!", e);
+		}
+	}
+
 	private boolean isDataBaseMatch(String databaseName){
 		boolean match = false;
 		try (Connection conn = dataSource.getConnection()) {
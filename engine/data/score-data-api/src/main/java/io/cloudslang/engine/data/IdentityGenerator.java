@@ -23,6 +23,11 @@ import java.util.List;
  */
 public interface IdentityGenerator {
 
+    /**
+     * the largest range that can be reserved at once, see {@link #range(int)}
+     */
+    int MAX_RANGE_SIZE = 100000;
+
     /**
      * returns the next id available.
      *
@@ -30,6 +35,14 @@ public interface IdentityGenerator {
      */
     Long next();
 
+    /**
+     * reserves a range of consecutive ids
+     *
+     * @param size the amount of ids to reserve, up to {@link #MAX_RANGE_SIZE}
+     * @return the first id of the range, the range is [first, first + size)
+     */
+    long range(int size);
+
     /**
      * return a bulk of a given size of ids
      *
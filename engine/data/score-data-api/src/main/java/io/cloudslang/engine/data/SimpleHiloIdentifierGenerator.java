@@ -23,33 +23,53 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by IntelliJ IDEA.
  * User: froelica
  * Date: 4/25/13
  * Time: 11:03 AM
+ *
+ * Hands out the ids of a chunk reserved in OO_HILO without locking: a range of ids is one atomic add on the chunk.
+ * Once half of the chunk is used, the next chunk is reserved in the background, so the thread that exhausts
+ * the chunk usually finds the next one ready instead of waiting for the DB.
  */
 public class SimpleHiloIdentifierGenerator implements IdentifierGenerator, IdentityGenerator {
 
-	private final Logger logger = Logger.getLogger(getClass());
+	private static final Logger logger = Logger.getLogger(SimpleHiloIdentifierGenerator.class);
 
 	static final String TABLE_NAME = "OO_HILO";
 	static final String SQL_SELECT = "SELECT NEXT_HI FROM " + TABLE_NAME;
 	static final String SQL_UPDATE = "UPDATE " + TABLE_NAME + " SET NEXT_HI = NEXT_HI+1";
     static final String SQL_LOCK = "UPDATE " + TABLE_NAME + " SET NEXT_HI = NEXT_HI";
-	static final long CHUNK_SIZE = 100000L;
+	static final long CHUNK_SIZE = MAX_RANGE_SIZE;
 
 	private static DataSource dataSource;
-    private int currentChunk;
-    private long currentId;
-    private Lock lock = new ReentrantLock();
+    private static final Executor prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "HiloChunkPrefetch");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private volatile Chunk currentChunk;
+    private final AtomicReference<Future<Chunk>> nextChunk = new AtomicReference<>();
+    private final Object chunkSwitchLock = new Object();
 
     // been initialized by Hibernate
     public SimpleHiloIdentifierGenerator() {
-        updateCurrentChunk();
+        currentChunk = reserveChunk();
     }
 
     public static void setDataSource(DataSource injectedDataSource) {
@@ -58,35 +78,82 @@ public class SimpleHiloIdentifierGenerator implements IdentifierGenerator, Ident
 
     @Override
     public Long next() {
-        return (Long) generate(null, null);
+        return range(1);
+    }
+
+    @Override
+    public long range(int size) {
+        if (size <= 0 || size > CHUNK_SIZE) {
+            throw new IllegalArgumentException("Range size must be between 1 and " + CHUNK_SIZE + ", got " + size);
+        }
+        while (true) {
+            Chunk chunk = currentChunk;
+            long first = chunk.next.getAndAdd(size);
+            if (first + size <= chunk.end) {
+                if (first <= chunk.prefetchMark && chunk.prefetchMark < first + size) {
+                    prefetchNextChunk(); // only the range that covers the mark gets here
+                }
+                return first;
+            }
+            // the rest of the chunk is too short for the range and is skipped
+            switchChunk(chunk);
+        }
     }
 
     @Override
     public List<Long> bulk(int bulkSize) {
-        List <Long> idsList = new ArrayList<>();
-        for (int i = 0; i < bulkSize; i++) {
-            idsList.add(next());
+        List <Long> idsList = new ArrayList<>(bulkSize);
+        while (idsList.size() < bulkSize) {
+            int size = (int) Math.min(bulkSize - idsList.size(), CHUNK_SIZE);
+            long first = range(size);
+            for (int i = 0; i < size; i++) {
+                idsList.add(first + i);
+            }
         }
         return idsList;
     }
 
     @Override
     public Serializable generate(SessionImplementor session, Object object) throws HibernateException {
-        lock.lock();
-        try {
-            long id = ++currentId;
-            if (id > CHUNK_SIZE) {
+        return next();
+    }
+
+    private void switchChunk(Chunk exhausted) {
+        synchronized (chunkSwitchLock) {
+            if (currentChunk == exhausted) {
                 if (logger.isDebugEnabled()) logger.debug("ID has reached chunk size");
-                updateCurrentChunk();
-                id = ++currentId;
+                currentChunk = takeNextChunk();
             }
-            return currentChunk * CHUNK_SIZE + id;
-        } finally {
-            lock.unlock();
         }
     }
 
-    private void updateCurrentChunk() {
+    private Chunk takeNextChunk() {
+        Future<Chunk> prefetched = nextChunk.getAndSet(null);
+        if (prefetched != null) {
+            try {
+                return prefetched.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                logger.warn("Failed to prefetch the next HILO chunk, reserving it now", ex.getCause());
+            }
+        }
+        return reserveChunk();
+    }
+
+    private void prefetchNextChunk() {
+        FutureTask<Chunk> task = new FutureTask<>(new Callable<Chunk>() {
+            @Override
+            public Chunk call() {
+                return reserveChunk();
+            }
+        });
+        if (nextChunk.compareAndSet(null, task)) {
+            prefetchExecutor.execute(task);
+        }
+    }
+
+    private static Chunk reserveChunk() {
         if (logger.isDebugEnabled()) {
             logger.debug("Updating HILO chunk...");
         }
@@ -97,19 +164,31 @@ public class SimpleHiloIdentifierGenerator implements IdentifierGenerator, Ident
             JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(conn, true));
 
             jdbcTemplate.update(SQL_LOCK);
-            currentChunk = jdbcTemplate.queryForObject(SQL_SELECT, Integer.class);
+            int chunk = jdbcTemplate.queryForObject(SQL_SELECT, Integer.class);
             if (logger.isDebugEnabled())
-                logger.debug("Current chunk: " + currentChunk);
+                logger.debug("Current chunk: " + chunk);
             jdbcTemplate.execute(SQL_UPDATE);
             jdbcTemplate.execute("commit");
 
             if (logger.isDebugEnabled()) {
                 logger.debug("Updating HILO chunk done in " + (System.currentTimeMillis() - t) + " ms");
             }
-            currentId = 0;
+            return new Chunk(chunk);
         } catch (SQLException e) {
             logger.error("Unable to update current chunk", e);
             throw new IllegalStateException("Unable to update current chunk");
         }
     }
+
+    private static class Chunk {
+        private final AtomicLong next; // the first id that was not handed out yet
+        private final long end; // exclusive
+        private final long prefetchMark;
+
+        private Chunk(int chunk) {
+            next = new AtomicLong(chunk * CHUNK_SIZE + 1);
+            end = next.get() + CHUNK_SIZE;
+            prefetchMark = next.get() + CHUNK_SIZE / 2;
+        }
+    }
 }
@@ -0,0 +1,44 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.engine.partitions.services;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by a {@link PartitionTemplate} after it rolled its group to the next partition.
+ *
+ * Other nodes learn about the roll when their template refreshes its active partition.
+ */
+public class PartitionRolledEvent extends ApplicationEvent {
+
+	private final String groupName;
+	private final String previousTable;
+	private final String activeTable;
+
+	public PartitionRolledEvent(Object source, String groupName, String previousTable, String activeTable) {
+		super(source);
+		this.groupName = groupName;
+		this.previousTable = previousTable;
+		this.activeTable = activeTable;
+	}
+
+	public String getGroupName() {
+		return groupName;
+	}
+
+	public String getPreviousTable() {
+		return previousTable;
+	}
+
+	public String getActiveTable() {
+		return activeTable;
+	}
+}
@@ -60,4 +60,16 @@ public interface PartitionService {
      * @return true if roll was successful
      */
 	boolean rollPartitions(String groupName);
+
+    /**
+     *
+     * Rolls a partition together with the partitions of attached groups.
+     * An attached group has no row in OO_PARTITION_GROUPS, its tables follow the active partition of the rolled group
+     * and are truncated in the same transaction.
+     *
+     * @param groupName the group name to roll
+     * @param attachedGroups the names of groups that are rolled together with this group
+     * @return true if roll was successful
+     */
+	boolean rollPartitions(String groupName, String... attachedGroups);
 }
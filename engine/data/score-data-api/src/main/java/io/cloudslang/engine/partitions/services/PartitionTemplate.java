@@ -25,11 +25,21 @@ public interface PartitionTemplate {
     /**
      *
      * return the currently active table
+     * the active partition is kept in memory, a roll made by another node is seen after a short refresh interval
      *
      * @return a String of the table name
      */
 	String activeTable();
 
+    /**
+     *
+     * return the currently active table as it is in the database right now
+     * for writes that must not go to a partition that another node has just rolled
+     *
+     * @return a String of the table name
+     */
+	String readActiveTable();
+
     /**
      *
      * return the previous active table
@@ -81,6 +81,12 @@ public final class PartitionServiceImpl implements PartitionService {
 	@Override
 	@Transactional(propagation = Propagation.REQUIRES_NEW)
 	public boolean rollPartitions(String groupName) {
+		return rollPartitions(groupName, new String[0]);
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public boolean rollPartitions(String groupName, String... attachedGroups) {
 		Validate.notEmpty(groupName, "Group name is empty or null");
 
 		Validate.isTrue(repository.lock(groupName)==1, "Unknown partition group [" + groupName + "]");
@@ -101,6 +107,9 @@ public final class PartitionServiceImpl implements PartitionService {
 
 		// truncate next partition
 		jdbcTemplate.execute(SQL("truncate table " + table(partitionGroup)));
+		for (String attachedGroup : attachedGroups) {
+			jdbcTemplate.execute(SQL("truncate table " + partitionUtils.tableName(attachedGroup, partitionGroup.getActivePartition())));
+		}
 
 		if (logger.isDebugEnabled()){
 			logger.debug("Group [" + groupName + "]: active partition is " + partitionGroup.getActivePartition() + " (rolled in " + (System.currentTimeMillis()-t) + " ms)");
@@ -45,8 +45,15 @@ public class PartitionTemplateImpl implements PartitionTemplate, BeanNameAware {
 	private long timeThreshold = 4 * 60 * 60 * 1000L; // by default: 4 hours
 	private long sizeThreshold = 1000000L; // by default: a million
 
+	// the active partition is kept in memory - a roll made by another node is seen after at most this interval
+	private long refreshInterval = Long.getLong("partition.active.refresh.millis", 1000L);
+
 	private String groupName;
 
+	private String[] attachedGroups = new String[0];
+
+	private volatile ActivePartition activePartition;
+
 	private PartitionCallback[] callbacks = new PartitionCallback[0];
 
 	private ThreadLocal<String> origThreadName = new ThreadLocal<>();
@@ -69,17 +76,40 @@ public class PartitionTemplateImpl implements PartitionTemplate, BeanNameAware {
 
 	@Override
 	public String activeTable() {
-		PartitionGroup group = service.readPartitionGroup(groupName);
-		return group == null ? null :
-				partitionUtils.tableName(groupName, group.getActivePartition());
+		ActivePartition active = readActivePartition();
+		return active == null ? null :
+				partitionUtils.tableName(groupName, active.partition);
+	}
+
+	@Override
+	public String readActiveTable() {
+		ActivePartition active = refreshActivePartition();
+		return active == null ? null :
+				partitionUtils.tableName(groupName, active.partition);
 	}
 
 	@Override
 	public String previousTable() {
-		PartitionGroup group = service.readPartitionGroup(groupName);
-		return group == null ? null :
+		ActivePartition active = readActivePartition();
+		return active == null ? null :
 				partitionUtils.tableName(groupName,
-						partitionUtils.partitionBefore(group.getActivePartition(), group.getGroupSize()));
+						partitionUtils.partitionBefore(active.partition, active.groupSize));
+	}
+
+	private ActivePartition readActivePartition() {
+		ActivePartition active = activePartition;
+		if (active == null || System.currentTimeMillis() - active.readTime > refreshInterval) {
+			active = refreshActivePartition();
+		}
+		return active;
+	}
+
+	private ActivePartition refreshActivePartition() {
+		PartitionGroup group = service.readPartitionGroup(groupName);
+		ActivePartition active = group == null ? null :
+				new ActivePartition(group.getActivePartition(), group.getGroupSize(), System.currentTimeMillis());
+		activePartition = active;
+		return active;
 	}
 
 	@Override
@@ -100,16 +130,20 @@ public class PartitionTemplateImpl implements PartitionTemplate, BeanNameAware {
 	// this method is being called by scheduler
 	@Override
 	public void onRolling() {
+        refreshActivePartition();
+
         // For case that during last rolling a transaction wrote to previous table,
         // copy left over records.
         runCallbackOnRollingPartitions();
 
         // change active table pointer
-		boolean wasRolled = service.rollPartitions(groupName);
+		boolean wasRolled = service.rollPartitions(groupName, attachedGroups);
 
         // Copy record from previous table to new table.
 		if ( wasRolled ){
+            refreshActivePartition();
             runCallbackOnRollingPartitions();
+            applicationContext.publishEvent(new PartitionRolledEvent(this, groupName, previousTable(), activeTable()));
 		}
 	}
 
@@ -145,6 +179,14 @@ public class PartitionTemplateImpl implements PartitionTemplate, BeanNameAware {
 		this.sizeThreshold = sizeThreshold;
 	}
 
+	public void setRefreshInterval(long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	public void setAttachedGroups(String... attachedGroups) {
+		this.attachedGroups = attachedGroups;
+	}
+
 	public void setCallbacks(PartitionCallback... callbacks) {
 		this.callbacks = (PartitionCallback[])ArrayUtils.addAll(this.callbacks, callbacks);
 	}
@@ -166,4 +208,16 @@ public class PartitionTemplateImpl implements PartitionTemplate, BeanNameAware {
 	public String toString() {
 		return "Partition-" + groupName;
 	}
+
+	private static class ActivePartition {
+		private final int partition;
+		private final int groupSize;
+		private final long readTime;
+
+		private ActivePartition(int partition, int groupSize, long readTime) {
+			this.partition = partition;
+			this.groupSize = groupSize;
+			this.readTime = readTime;
+		}
+	}
 }
@@ -0,0 +1,89 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.engine.data;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SimpleHiloIdentifierGeneratorTest {
+
+    @BeforeClass
+    public static void createHiloTable() {
+        // the database is kept open, other tests in this JVM may still refill their chunks from it
+        BasicDataSource dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:hilo;DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("sa");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE " + SimpleHiloIdentifierGenerator.TABLE_NAME + " (NEXT_HI INT)");
+        jdbcTemplate.update("INSERT INTO " + SimpleHiloIdentifierGenerator.TABLE_NAME + " VALUES (5000)");
+        SimpleHiloIdentifierGenerator.setDataSource(dataSource);
+    }
+
+    @Test
+    public void rangesAreContiguousAndDoNotOverlap() {
+        SimpleHiloIdentifierGenerator generator = new SimpleHiloIdentifierGenerator();
+        long first = generator.range(10);
+        assertThat(generator.next()).isEqualTo(first + 10);
+        assertThat(generator.range(5)).isEqualTo(first + 11);
+
+        List<Long> bulk = generator.bulk(3);
+        assertThat(bulk).containsExactly(first + 16, first + 17, first + 18);
+    }
+
+    @Test
+    public void idsAreUniqueAcrossChunks() throws Exception {
+        final SimpleHiloIdentifierGenerator generator = new SimpleHiloIdentifierGenerator();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Set<Long>>> results = executor.invokeAll(Collections.nCopies(4, new Callable<Set<Long>>() {
+                @Override
+                public Set<Long> call() {
+                    Set<Long> ids = new HashSet<>();
+                    for (int i = 0; i < 1000; i++) {
+                        long first = generator.range(70);
+                        for (int j = 0; j < 70; j++) {
+                            ids.add(first + j);
+                        }
+                    }
+                    return ids;
+                }
+            }));
+            Set<Long> all = new HashSet<>();
+            for (Future<Set<Long>> result : results) {
+                all.addAll(result.get());
+            }
+            // 280,000 ids span at least three chunks
+            assertThat(all).hasSize(4 * 1000 * 70);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rangeLargerThanAChunkIsRejected() {
+        new SimpleHiloIdentifierGenerator().range((int) SimpleHiloIdentifierGenerator.CHUNK_SIZE + 1);
+    }
+}
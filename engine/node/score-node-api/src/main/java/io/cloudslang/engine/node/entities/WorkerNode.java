@@ -111,6 +111,12 @@ public class WorkerNode extends AbstractIdentifiable implements Worker {
 	@Column(name = "VERSION_ID", length = 48, nullable = false)
 	private String versionId = "";
 
+	@Column(name = "CAPACITY", nullable = false)
+	private int capacity;
+
+	@Column(name = "WORKER_LOAD", nullable = false)
+	private int load;
+
     @Override
 	public String getUuid() {
 		return uuid;
@@ -268,6 +274,28 @@ public class WorkerNode extends AbstractIdentifiable implements Worker {
 		this.versionId = versionId;
 	}
 
+	/**
+	 * @return the number of execution threads the worker reported with its last keep alive, 0 if it did not report it
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return the number of steps the worker held (buffered and running) when it sent its last keep alive
+	 */
+	public int getLoad() {
+		return load;
+	}
+
+	public void setLoad(int load) {
+		this.load = load;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
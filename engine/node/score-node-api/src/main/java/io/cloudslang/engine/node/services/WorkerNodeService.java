@@ -33,6 +33,15 @@ public interface WorkerNodeService {
      */
 	String keepAlive(String uuid);
 
+    /**
+     * Same as {@link #keepAlive(String)}, and also records the worker's current capacity and load
+     * @param uuid worker's unique identifier
+     * @param capacity the number of execution threads of the worker
+     * @param load the number of steps the worker holds - buffered and running
+     * @return the worker's recovery version (WRV)
+     */
+	String keepAlive(String uuid, int capacity, int load);
+
     /**
      * Create a new worker
      * @param uuid  worker's unique identifier
@@ -199,7 +208,8 @@ public interface WorkerNodeService {
      * Reads all of the worker that are active and running and their groups
      * @param versionId - the version of workers
      * @return A {@link com.google.common.collect.Multimap} of the
-     * active and running workers in specific version and their groups
+     * active and running workers in specific version and their groups.
+     * The map is an immutable snapshot that is reused until the workers, their groups or their versions change
      */
 	Multimap<String, String> readGroupWorkersMapActiveAndRunningAndVersion(String versionId);
 
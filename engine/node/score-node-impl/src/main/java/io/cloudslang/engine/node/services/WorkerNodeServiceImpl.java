@@ -11,6 +11,7 @@
 package io.cloudslang.engine.node.services;
 
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.Multimap;
 import io.cloudslang.engine.node.entities.WorkerNode;
 import io.cloudslang.engine.node.repositories.WorkerNodeRepository;
@@ -20,13 +21,17 @@ import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author
@@ -39,6 +44,9 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 	private static final long maxVersionGapAllowed = Long.getLong("max.allowed.version.gap.worker.recovery", 2);
 	private static final String MSG_RECOVERY_VERSION_NAME = "MSG_RECOVERY_VERSION";
 	private static final Logger logger = Logger.getLogger(WorkerNodeServiceImpl.class);
+	// changes made by other engine nodes, such as a worker recovered by one of them, do not invalidate the topology of this one,
+	// so it is kept only for about a poll interval of the workers
+	private static final long topologyRefreshInterval = Long.getLong("worker.topology.refresh.interval", 1000);
 
 	@Autowired
 	private WorkerNodeRepository workerNodeRepository;
@@ -49,18 +57,34 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 	@Autowired(required = false)
 	private List<LoginListener> loginListeners;
 
+	private final AtomicLong topologyVersion = new AtomicLong();
+	private volatile Topology topology;
+
 	@Override
 	@Transactional
 	public String keepAlive(String uuid) {
+		return keepAlive(readByUUID(uuid));
+	}
+
+	@Override
+	@Transactional
+	public String keepAlive(String uuid, int capacity, int load) {
 		WorkerNode worker = readByUUID(uuid);
+		worker.setCapacity(capacity);
+		worker.setLoad(load);
+		return keepAlive(worker);
+	}
+
+	private String keepAlive(WorkerNode worker) {
 		worker.setAckTime(new Date());
 		String wrv = worker.getWorkerRecoveryVersion();
 		long version = versionService.getCurrentVersion(MSG_RECOVERY_VERSION_NAME);
 		worker.setAckVersion(version);
-		if(!worker.getStatus().equals(WorkerStatus.IN_RECOVERY)) {
+		if(!worker.getStatus().equals(WorkerStatus.IN_RECOVERY) && !worker.getStatus().equals(WorkerStatus.RUNNING)) {
 			worker.setStatus(WorkerStatus.RUNNING);
+			invalidateTopology();
 		}
-		logger.debug("Got keepAlive for Worker with uuid=" + uuid + " and update its ackVersion to " + version);
+		logger.debug("Got keepAlive for Worker with uuid=" + worker.getUuid() + " and update its ackVersion to " + version);
 		return wrv;
 	}
 
@@ -78,6 +102,7 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 		worker.setGroups(Arrays.asList(WorkerNode.DEFAULT_WORKER_GROUPS));
 		workerNodeRepository.save(worker);
 		workerLockService.create(uuid);
+		invalidateTopology();
 	}
 
 	@Override
@@ -88,6 +113,7 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 			worker.setActive(false);
 			worker.setDeleted(true);
 			worker.setStatus(WorkerStatus.IN_RECOVERY);
+			invalidateTopology();
 		}
 	}
 
@@ -183,6 +209,7 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 		}
 		worker.setVersion(version);
 		worker.setVersionId(versionId);
+		invalidateTopology();
 	}
 
 	@Override
@@ -204,6 +231,7 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 	public void activate(String uuid) {
 		WorkerNode worker = readByUUID(uuid);
 		worker.setActive(true);
+		invalidateTopology();
 	}
 
 	@Override
@@ -211,6 +239,7 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 	public void deactivate(String uuid) {
 		WorkerNode worker = readByUUID(uuid);
 		worker.setActive(false);
+		invalidateTopology();
 	}
 
 	@Override
@@ -230,6 +259,7 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 			throw new IllegalStateException("no worker was found by the specified UUID:" + uuid);
 		}
 		worker.setStatus(status);
+		invalidateTopology();
 	}
 
 	@Override
@@ -240,6 +270,7 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 			throw new IllegalStateException("no worker was found by the specified UUID:" + uuid);
 		}
 		worker.setStatus(status);
+		invalidateTopology();
 	}
 
 	@Override
@@ -268,12 +299,20 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 		groups.addAll(groupSet);
 
 		worker.setGroups(groups);
+		invalidateTopology();
 	}
 
 	@Override
 	@Transactional(readOnly = true)
 	public Multimap<String, String> readGroupWorkersMapActiveAndRunningAndVersion(String versionId) {
-		Multimap<String, String> result = ArrayListMultimap.create();
+		long version = topologyVersion.get();
+		long now = System.currentTimeMillis();
+		Topology current = topology;
+		if(current != null && current.isValid(versionId, version, now)) {
+			return current.groupWorkers;
+		}
+
+		ArrayListMultimap<String, String> result = ArrayListMultimap.create();
 		List<WorkerNode> workers;
 		workers = workerNodeRepository.findByActiveAndStatusAndDeletedAndVersionId(true, WorkerStatus.RUNNING, false, versionId);
 		for(WorkerNode worker : workers) {
@@ -281,7 +320,9 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 				result.put(groupName, worker.getUuid());
 			}
 		}
-		return result;
+		current = new Topology(versionId, version, now, ImmutableListMultimap.copyOf(result));
+		topology = current;
+		return current.groupWorkers;
 	}
 
 	@Override
@@ -298,6 +339,7 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 			List<String> groups = new ArrayList<>(worker.getGroups());
 			groups.add(group);
 			worker.setGroups(groups);
+			invalidateTopology();
 		}
 	}
 
@@ -309,6 +351,7 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 		groups.remove(group);
 		if(groups.size() == 0) throw new IllegalStateException("Can't leave worker without any group !");
 		worker.setGroups(groups);
+		invalidateTopology();
 	}
 
 	@Override
@@ -324,6 +367,22 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 		worker.setBulkNumber(bulkNumber);
 	}
 
+	/**
+	 * Makes the next topology read go to the database. The version is advanced again once the transaction completes,
+	 * so a topology read concurrently with the change, before it was committed, is not kept either.
+	 */
+	private void invalidateTopology() {
+		topologyVersion.incrementAndGet();
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					topologyVersion.incrementAndGet();
+				}
+			});
+		}
+	}
+
 	@Override
 	@Transactional
 	public void updateWRV(String workerUuid, String wrv) {
@@ -331,4 +390,25 @@ public class WorkerNodeServiceImpl implements WorkerNodeService {
 		worker.setWorkerRecoveryVersion(wrv);
 	}
 
+	/**
+	 * The groups of the active and running workers of one version, as read at a given topology version
+	 */
+	private static class Topology {
+		private final String versionId;
+		private final long version;
+		private final long readTime;
+		private final Multimap<String, String> groupWorkers;
+
+		private Topology(String versionId, long version, long readTime, Multimap<String, String> groupWorkers) {
+			this.versionId = versionId;
+			this.version = version;
+			this.readTime = readTime;
+			this.groupWorkers = groupWorkers;
+		}
+
+		private boolean isValid(String versionId, long version, long now) {
+			return this.version == version && Objects.equals(this.versionId, versionId) && now - readTime < topologyRefreshInterval;
+		}
+	}
+
 }
@@ -10,6 +10,7 @@
 
 package io.cloudslang.engine.node.services;
 
+import com.google.common.collect.Multimap;
 import io.cloudslang.engine.data.SimpleHiloIdentifierGenerator;
 import io.cloudslang.engine.node.entities.WorkerNode;
 import io.cloudslang.engine.node.repositories.WorkerNodeRepository;
@@ -106,6 +107,41 @@ public class WorkerNodeServiceTest {
 
 	}
 
+	@Test
+	public void readGroupWorkersMapIsReusedUntilTheTopologyChanges() throws Exception {
+		workerNodeService.activate("H1");
+		workerNodeService.updateStatus("H1", WorkerStatus.RUNNING);
+		workerNodeService.updateVersion("H1", "version", "123");
+		workerNodeRepository.flush();
+
+		Multimap<String, String> groupWorkers = workerNodeService.readGroupWorkersMapActiveAndRunningAndVersion("123");
+		Assert.assertEquals(Arrays.asList("H1"), groupWorkers.get(WorkerNode.DEFAULT_WORKER_GROUPS[0]));
+		Assert.assertSame(groupWorkers, workerNodeService.readGroupWorkersMapActiveAndRunningAndVersion("123"));
+		Assert.assertTrue(workerNodeService.readGroupWorkersMapActiveAndRunningAndVersion("456").isEmpty());
+
+		workerNodeService.updateWorkerGroups("H1", "group1");
+		workerNodeRepository.flush();
+		groupWorkers = workerNodeService.readGroupWorkersMapActiveAndRunningAndVersion("123");
+		Assert.assertEquals(Arrays.asList("H1"), groupWorkers.get("group1"));
+		Assert.assertTrue(groupWorkers.get(WorkerNode.DEFAULT_WORKER_GROUPS[0]).isEmpty());
+
+		workerNodeService.updateStatus("H1", WorkerStatus.FAILED);
+		workerNodeRepository.flush();
+		Assert.assertTrue(workerNodeService.readGroupWorkersMapActiveAndRunningAndVersion("123").isEmpty());
+	}
+
+	@Test
+	public void keepAliveWithLoad() throws Exception {
+        when(versionService.getCurrentVersion(anyString())).thenReturn(5L);
+
+		workerNodeService.keepAlive("H1", 20, 7);
+		workerNodeRepository.flush();
+		WorkerNode worker = workerNodeService.readByUUID("H1");
+		Assert.assertNotNull(worker.getAckTime());
+		Assert.assertEquals(20, worker.getCapacity());
+		Assert.assertEquals(7, worker.getLoad());
+	}
+
 	@Test
 	public void createNode() throws Exception {
 		workerNodeService.create("H3", "H3", "amit.levin", "c:/dir");
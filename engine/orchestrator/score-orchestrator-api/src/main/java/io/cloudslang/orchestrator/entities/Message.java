@@ -30,7 +30,7 @@ public interface Message extends Serializable{
 
     /**
      *
-     * return the weight of the message
+     * return the weight of the message - about its size in bytes
      * used for thresholds in the buffers
      *
      * @return the weight of the message
@@ -27,7 +27,7 @@ import java.util.Objects;
 public class SplitMessage implements Message {
 	private static final long serialVersionUID = -720851148155732731L;
 
-    private int basicSplitWeight = Integer.getInteger("basic.split.weight",3);
+    private int basicSplitWeight = Integer.getInteger("basic.split.weight",2048); // estimated bytes of a child execution
 
 	private final String splitId;
     private final Execution parent;
@@ -0,0 +1,25 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.orchestrator.services;
+
+/**
+ * Notified when an execution is cancelled, so workers in the same JVM can stop its running steps right away
+ * instead of waiting for their next configuration refresh.
+ */
+public interface CancelExecutionListener {
+
+    /**
+     * Called after the cancellation is committed
+     *
+     * @param executionId the cancelled execution id
+     */
+    void onExecutionCancelled(Long executionId);
+}
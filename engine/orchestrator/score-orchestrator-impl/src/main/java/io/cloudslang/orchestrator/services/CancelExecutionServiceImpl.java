@@ -20,8 +20,11 @@ import io.cloudslang.score.facade.execution.ExecutionStatus;
 import io.cloudslang.orchestrator.entities.ExecutionState;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static io.cloudslang.score.facade.execution.ExecutionSummary.EMPTY_BRANCH;
@@ -48,6 +51,9 @@ public final class CancelExecutionServiceImpl implements CancelExecutionService
     @Autowired
     private ExecutionStateService executionStateService;
 
+    @Autowired(required = false)
+    private List<CancelExecutionListener> listeners = Collections.emptyList();
+
     @Override
     @Transactional
     public ExecutionActionResult requestCancelExecution(Long executionId) {
@@ -85,9 +91,38 @@ public final class CancelExecutionServiceImpl implements CancelExecutionService
             return ExecutionActionResult.getExecutionActionResult(status);
         }
 
+        notifyListeners(executionId);
         return ExecutionActionResult.SUCCESS;
     }
 
+    // the listeners are notified only once the workers can read the cancellation, a paused run may still have running branches
+    private void notifyListeners(final Long executionId) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    onExecutionCancelled(executionId);
+                }
+            });
+        } else {
+            onExecutionCancelled(executionId);
+        }
+    }
+
+    private void onExecutionCancelled(Long executionId) {
+        for (CancelExecutionListener listener : listeners) {
+            try {
+                listener.onExecutionCancelled(executionId);
+            } catch (Exception ex) {
+                // the workers still learn about the cancellation on their next configuration refresh
+                logger.error("Failed to notify about the cancellation of execution " + executionId, ex);
+            }
+        }
+    }
+
     // Cancel paused run according to its branches state
     //      If the run has branches, (it can be branch-paused / user-paused / no-workers-in-group) - then it's a 'virtual' pause, and we should cancel the paused branches. Then, the run itself will be canceled as well.
     //      If it doesn't - just cancel it straight away - extract the Run Object, set its context accordingly and put into the queue.
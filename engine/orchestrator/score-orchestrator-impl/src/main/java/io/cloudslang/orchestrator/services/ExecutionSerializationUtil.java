@@ -10,61 +10,28 @@
 
 package io.cloudslang.orchestrator.services;
 
+import io.cloudslang.engine.queue.entities.ExecutionMessageConverter;
 import io.cloudslang.score.facade.entities.Execution;
-import org.apache.commons.io.IOUtils;
-
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * Created with IntelliJ IDEA.
  * User: kravtsov
  * Date: 24/12/12
  * Time: 11:14
+ *
+ * Executions are written by the codec the ExecutionMessageConverter writes payloads with - see ExecutionMessageConverter#serializeExecution
  */
 public class ExecutionSerializationUtil {
 
-    public Execution objFromBytes(byte[] bytes) {
-    		ObjectInputStream ois = null;
-    		try {
-    			//2 Buffers are added to increase performance
-    			ByteArrayInputStream is = new ByteArrayInputStream(bytes);
-    			BufferedInputStream bis = new BufferedInputStream(is);
-    			ois = new ObjectInputStream(bis);
-    			//noinspection unchecked
-    			return (Execution) ois.readObject();
-    		}
-    		catch(IOException | ClassNotFoundException ex) {
-    			throw new RuntimeException("Failed to read execution from byte[]. Error: ", ex);
-    		}
-    		finally {
-    			IOUtils.closeQuietly(ois);
-    		}
-
-    	}
+    @Autowired(required = false)
+    private ExecutionMessageConverter executionMessageConverter = new ExecutionMessageConverter();
 
-    	public byte[] objToBytes(Execution obj){
-    		ObjectOutputStream oos;
-    		try {
-    			ByteArrayOutputStream bout = new ByteArrayOutputStream();
-    			BufferedOutputStream bos = new BufferedOutputStream(bout);
-    			oos = new ObjectOutputStream(bos);
-
-    			oos.writeObject(obj);
-    			oos.close();
-
-    			@SuppressWarnings({"UnnecessaryLocalVariable"})
-    			byte[] bytes = bout.toByteArray();
-    			return bytes;
-    		}
-    		catch(IOException ex) {
-    			throw new RuntimeException("Failed to serialize execution . Error: ", ex);
-    		}
-    	}
+    public Execution objFromBytes(byte[] bytes) {
+        return executionMessageConverter.deserializeExecution(bytes);
+    }
 
+    public byte[] objToBytes(Execution obj) {
+        return executionMessageConverter.serializeExecution(obj);
+    }
 }
@@ -95,6 +95,6 @@ public class ScoreDeprecatedImpl implements ScoreDeprecated {
                 String.valueOf(execution.getExecutionId()),
                 ExecStatus.PENDING, //start new run also in PENDING
                 payload,
-                0);
+                0).copyHeaders(execution);
     }
 }
@@ -63,6 +63,9 @@ public class ScoreTriggeringImpl implements ScoreTriggering {
         SystemContext scoreSystemContext = new SystemContext(triggeringProperties.getRuntimeValues());
         Long runningExecutionPlanId = saveRunningExecutionPlans(triggeringProperties.getExecutionPlan(), triggeringProperties.getDependencies(), scoreSystemContext);
         scoreSystemContext.setExecutionId(executionId);
+        if (triggeringProperties.getPriority() != 0) {
+            scoreSystemContext.setPriority(triggeringProperties.getPriority());
+        }
         Map<String,Serializable> executionMetadata = createMetadata(triggeringProperties);
         scoreSystemContext.putMetaData(executionMetadata);
         Execution execution = new Execution(executionId, runningExecutionPlanId, triggeringProperties.getStartStep(), triggeringProperties.getContext(), scoreSystemContext);
@@ -127,6 +130,6 @@ public class ScoreTriggeringImpl implements ScoreTriggering {
                 String.valueOf(execution.getExecutionId()),
                 ExecStatus.PENDING, //start new flow also in PENDING
                 payload,
-                0);
+                0).copyHeaders(execution);
     }
 }
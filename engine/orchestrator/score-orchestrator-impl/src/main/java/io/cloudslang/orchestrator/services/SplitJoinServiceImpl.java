@@ -62,7 +62,7 @@ public final class SplitJoinServiceImpl implements SplitJoinService {
         @Override
         public ExecutionMessage convert(Execution execution) {
             return new ExecutionMessage(execution.getExecutionId().toString(),
-                    converter.createPayload(execution));
+                    converter.createPayload(execution)).copyHeaders(execution);
         }
     };
 
@@ -34,8 +34,11 @@ import java.util.Map;
 import static io.cloudslang.score.facade.execution.ExecutionSummary.EMPTY_BRANCH;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @SuppressWarnings({"SpringContextConfigurationInspection"})
@@ -52,9 +55,12 @@ public class CancelExecutionServiceTest {
     @Autowired
     private ExecutionSerializationUtil executionSerializationUtil;
 
+    @Autowired
+    private CancelExecutionListener cancelExecutionListener;
+
     @Before
     public void resetMocks() {
-        reset(executionStateService);
+        reset(executionStateService, cancelExecutionListener);
     }
 
     /////////////// requestCancelExecution ///////////////
@@ -95,6 +101,16 @@ public class CancelExecutionServiceTest {
         assertThat(ex1.getStatus()).as("Wrong status after cancelling the execution").isEqualTo(expStatusAfterCancellation);
     }
 
+    @Test
+    public void testListenersAreNotifiedOnCancel() {
+        checkValidRequestCancel(ExecutionStatus.RUNNING, ExecutionStatus.PENDING_CANCEL, ExecutionActionResult.SUCCESS);
+        verify(cancelExecutionListener).onExecutionCancelled(111L);
+
+        reset(cancelExecutionListener);
+        checkInvalidRequestCancel(ExecutionStatus.COMPLETED, ExecutionActionResult.FAILED_ALREADY_COMPLETED);
+        verify(cancelExecutionListener, never()).onExecutionCancelled(anyLong());
+    }
+
     @Test
     public void testValidRequestCancel_pausedBranches() {
         mockPausedParentAndBranchAndRequestCancel();
@@ -256,5 +272,10 @@ public class CancelExecutionServiceTest {
         QueueDispatcherService queueDispatcherService() {
             return mock(QueueDispatcherService.class);
         }
+
+        @Bean
+        CancelExecutionListener cancelExecutionListener() {
+            return mock(CancelExecutionListener.class);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.engine.queue.entities;
+
+import io.cloudslang.score.facade.entities.Execution;
+import io.cloudslang.score.lang.SystemContext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary format for {@link Execution}.
+ *
+ * The execution fields, the contexts and the system context are written field by field.
+ * Strings, boxed primitives, byte arrays and the common JDK collections are written natively with a one byte tag,
+ * any other value falls back to java serialization within the same stream, so class descriptors of such values
+ * are written only once per payload.
+ * Collections referenced more than once are written once and referenced by handle, so shared collections
+ * stay shared after decoding.
+ *
+ * Only exact {@link Execution} instances are handled, subclasses are left to java serialization.
+ */
+public class CompactExecutionCodec implements ExecutionCodec {
+
+    public static final int ID = 1;
+
+    public static final String NAME = "compact";
+
+    private static final byte FORMAT_VERSION = 1;
+
+    //writeUTF is limited to 64K bytes, a char takes at most 3 bytes
+    private static final int MAX_UTF_CHUNK = 21845;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte LONG_STRING = 2;
+    private static final byte INTEGER = 3;
+    private static final byte LONG = 4;
+    private static final byte TRUE = 5;
+    private static final byte FALSE = 6;
+    private static final byte DOUBLE = 7;
+    private static final byte FLOAT = 8;
+    private static final byte SHORT = 9;
+    private static final byte BYTE = 10;
+    private static final byte CHARACTER = 11;
+    private static final byte BYTE_ARRAY = 12;
+    private static final byte HASH_MAP = 13;
+    private static final byte LINKED_HASH_MAP = 14;
+    private static final byte ARRAY_LIST = 15;
+    private static final byte LINKED_LIST = 16;
+    private static final byte HASH_SET = 17;
+    private static final byte LINKED_HASH_SET = 18;
+    private static final byte ARRAY_DEQUE = 19;
+    private static final byte REFERENCE = 20;
+    private static final byte OBJECT = 21;
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean canEncode(Object obj) {
+        return obj != null && obj.getClass() == Execution.class &&
+                ((Execution) obj).getSystemContext().getClass() == SystemContext.class;
+    }
+
+    @Override
+    public void encode(Object obj, OutputStream out) throws IOException {
+        Execution execution = (Execution) obj;
+        Writer writer = new Writer(new ObjectOutputStream(new BufferedOutputStream(out)));
+        writer.out.writeByte(FORMAT_VERSION);
+        writer.writeValue(execution.getExecutionId());
+        writer.writeValue(execution.getRunningExecutionPlanId());
+        writer.writeValue(execution.getPosition());
+        writer.writeValue(execution.getGroupName());
+        writer.writeValue(execution.getContexts());
+        writer.writeMapEntries(execution.getSystemContext());
+        writer.out.flush();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object decode(InputStream in) throws IOException, ClassNotFoundException {
+        Reader reader = new Reader(new ObjectInputStream(new BufferedInputStream(in)));
+        byte version = reader.in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported compact execution format version: " + version);
+        }
+        Execution execution = new Execution();
+        execution.setExecutionId((Long) reader.readValue());
+        execution.setRunningExecutionPlanId((Long) reader.readValue());
+        execution.setPosition((Long) reader.readValue());
+        execution.setGroupName((String) reader.readValue());
+        execution.setContexts((Map<String, Serializable>) reader.readValue());
+        reader.readMapEntries((Map) execution.getSystemContext());
+        return execution;
+    }
+
+    private static class Writer {
+        private final ObjectOutputStream out;
+        private final Map<Object, Integer> handles = new IdentityHashMap<>();
+
+        private Writer(ObjectOutputStream out) {
+            this.out = out;
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+                return;
+            }
+            Class<?> type = value.getClass();
+            if (type == String.class) {
+                writeString((String) value);
+            } else if (type == Integer.class) {
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) value);
+            } else if (type == Long.class) {
+                out.writeByte(LONG);
+                out.writeLong((Long) value);
+            } else if (type == Boolean.class) {
+                out.writeByte((Boolean) value ? TRUE : FALSE);
+            } else if (type == Double.class) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (type == Float.class) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if (type == Short.class) {
+                out.writeByte(SHORT);
+                out.writeShort((Short) value);
+            } else if (type == Byte.class) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) value);
+            } else if (type == Character.class) {
+                out.writeByte(CHARACTER);
+                out.writeChar((Character) value);
+            } else if (type == byte[].class) {
+                byte[] bytes = (byte[]) value;
+                out.writeByte(BYTE_ARRAY);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } else {
+                byte containerTag = containerTag(type);
+                if (containerTag == OBJECT) {
+                    out.writeByte(OBJECT);
+                    out.writeObject(value);
+                } else {
+                    writeContainer(containerTag, value);
+                }
+            }
+        }
+
+        private void writeContainer(byte tag, Object container) throws IOException {
+            Integer handle = handles.get(container);
+            if (handle != null) {
+                out.writeByte(REFERENCE);
+                out.writeInt(handle);
+                return;
+            }
+            handles.put(container, handles.size());
+            out.writeByte(tag);
+            if (container instanceof Map) {
+                writeMapEntries((Map<?, ?>) container);
+            } else {
+                Collection<?> collection = (Collection<?>) container;
+                out.writeInt(collection.size());
+                for (Object element : collection) {
+                    writeValue(element);
+                }
+            }
+        }
+
+        private void writeMapEntries(Map<?, ?> map) throws IOException {
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            int length = value.length();
+            if (length <= MAX_UTF_CHUNK) {
+                out.writeByte(STRING);
+                out.writeUTF(value);
+                return;
+            }
+            out.writeByte(LONG_STRING);
+            out.writeInt(length);
+            for (int start = 0; start < length; start += MAX_UTF_CHUNK) {
+                out.writeUTF(value.substring(start, Math.min(length, start + MAX_UTF_CHUNK)));
+            }
+        }
+
+        private static byte containerTag(Class<?> type) {
+            if (type == HashMap.class) {
+                return HASH_MAP;
+            } else if (type == LinkedHashMap.class) {
+                return LINKED_HASH_MAP;
+            } else if (type == ArrayList.class) {
+                return ARRAY_LIST;
+            } else if (type == LinkedList.class) {
+                return LINKED_LIST;
+            } else if (type == HashSet.class) {
+                return HASH_SET;
+            } else if (type == LinkedHashSet.class) {
+                return LINKED_HASH_SET;
+            } else if (type == ArrayDeque.class) {
+                return ARRAY_DEQUE;
+            }
+            return OBJECT;
+        }
+    }
+
+    private static class Reader {
+        private final ObjectInputStream in;
+        private final List<Object> handles = new ArrayList<>();
+
+        private Reader(ObjectInputStream in) {
+            this.in = in;
+        }
+
+        private Object readValue() throws IOException, ClassNotFoundException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return in.readUTF();
+                case LONG_STRING:
+                    return readLongString();
+                case INTEGER:
+                    return in.readInt();
+                case LONG:
+                    return in.readLong();
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case DOUBLE:
+                    return in.readDouble();
+                case FLOAT:
+                    return in.readFloat();
+                case SHORT:
+                    return in.readShort();
+                case BYTE:
+                    return in.readByte();
+                case CHARACTER:
+                    return in.readChar();
+                case BYTE_ARRAY:
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    return bytes;
+                case HASH_MAP:
+                    return readMapEntries(register(new HashMap<>()));
+                case LINKED_HASH_MAP:
+                    return readMapEntries(register(new LinkedHashMap<>()));
+                case ARRAY_LIST:
+                    return readElements(register(new ArrayList<>()));
+                case LINKED_LIST:
+                    return readElements(register(new LinkedList<>()));
+                case HASH_SET:
+                    return readElements(register(new HashSet<>()));
+                case LINKED_HASH_SET:
+                    return readElements(register(new LinkedHashSet<>()));
+                case ARRAY_DEQUE:
+                    return readElements(register(new ArrayDeque<>()));
+                case REFERENCE:
+                    return handles.get(in.readInt());
+                case OBJECT:
+                    return in.readObject();
+                default:
+                    throw new IOException("Unknown compact execution value tag: " + tag);
+            }
+        }
+
+        private <T> T register(T container) {
+            handles.add(container);
+            return container;
+        }
+
+        private Map<Object, Object> readMapEntries(Map<Object, Object> map) throws IOException, ClassNotFoundException {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                Object key = readValue();
+                map.put(key, readValue());
+            }
+            return map;
+        }
+
+        private Collection<Object> readElements(Collection<Object> collection) throws IOException, ClassNotFoundException {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                collection.add(readValue());
+            }
+            return collection;
+        }
+
+        private String readLongString() throws IOException {
+            int length = in.readInt();
+            StringBuilder builder = new StringBuilder(length);
+            while (builder.length() < length) {
+                builder.append(in.readUTF());
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.engine.queue.entities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Serializes execution objects into payload bytes.
+ *
+ * Every codec is identified by a small id that is recorded in the payload metadata byte,
+ * so a payload can always be read back by the codec that wrote it, regardless of the codec
+ * currently configured for writing.
+ */
+public interface ExecutionCodec {
+
+    /**
+     * @return the id of the codec, between 0 and {@link ExecutionMessageConverter#MAX_CODEC_ID}
+     */
+    int getId();
+
+    /**
+     * @return the name used to select this codec for writing
+     */
+    String getName();
+
+    /**
+     * @param obj the object to encode
+     * @return true if this codec is able to encode the given object
+     */
+    boolean canEncode(Object obj);
+
+    void encode(Object obj, OutputStream out) throws IOException;
+
+    Object decode(InputStream in) throws IOException, ClassNotFoundException;
+}
@@ -15,6 +15,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import io.cloudslang.engine.node.entities.WorkerNode;
 import io.cloudslang.orchestrator.entities.Message;
 import io.cloudslang.score.facade.entities.Execution;
+import io.cloudslang.score.facade.execution.PauseReason;
 import org.apache.commons.lang.builder.EqualsBuilder;
 
 import java.util.ArrayList;
@@ -32,6 +33,9 @@ public class ExecutionMessage implements Message, Cloneable {
 
 	public static final long EMPTY_EXEC_STATE_ID = -1L;
 	public static final String EMPTY_WORKER = "EMPTY";
+	public static final int MESSAGE_OVERHEAD_WEIGHT = 512; // estimated bytes of a message besides its payload
+	// how long a message waits to pass a message with a priority higher by one - so low priority messages are not starved
+	public static final long PRIORITY_AGING_MILLIS = Long.getLong("execution.priority.aging.millis", 60000);
 
 	private long execStateId;
 	private String workerId;
@@ -45,10 +49,28 @@ public class ExecutionMessage implements Message, Cloneable {
 	private boolean stepPersist;
 	private String stepPersistId;
 
+	//routing headers - they are persisted with the queue row and let the orchestrator route the message without extracting the payload
+	private String branchId;
+	private String splitId;
+	private PauseReason pauseReason;
+	private int priority;
+
 	private transient String workerKey;
 
     private transient Execution executionObject;
 
+	// the execution to serialize into the payload when the message is drained - see materializePayload
+	private transient Execution payloadExecution;
+
+	// bytes the lazy payload is expected to take - the size of the last serialized payload of the execution, see getWeight
+	private transient int payloadSizeEstimate;
+
+	// messages that went to the out buffer with the execution object of this message as their lazy payload
+	private transient ExecutionMessage[] snapshotMessages;
+
+	// the execution of the lazy payload goes on changing in the next step - see setSnapshotMessages
+	private transient volatile boolean snapshot;
+
 	public ExecutionMessage() {
 		execStateId = EMPTY_EXEC_STATE_ID;
 		workerId = ExecutionMessage.EMPTY_WORKER;
@@ -138,6 +160,53 @@ public class ExecutionMessage implements Message, Cloneable {
 		this.stepPersistId = stepPersistId;
 	}
 
+	public String getBranchId() {
+		return branchId;
+	}
+
+	public void setBranchId(String branchId) {
+		this.branchId = branchId;
+	}
+
+	public String getSplitId() {
+		return splitId;
+	}
+
+	public void setSplitId(String splitId) {
+		this.splitId = splitId;
+	}
+
+	public PauseReason getPauseReason() {
+		return pauseReason;
+	}
+
+	public void setPauseReason(PauseReason pauseReason) {
+		this.pauseReason = pauseReason;
+	}
+
+	/**
+	 * @return the priority of the execution - higher runs first
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * Copies the routing headers from the execution that the payload is created from
+	 */
+	public ExecutionMessage copyHeaders(Execution execution) {
+		if (execution != null && execution.getSystemContext() != null) {
+			this.branchId = execution.getSystemContext().getBranchId();
+			this.splitId = execution.getSystemContext().getSplitId();
+			this.priority = execution.getSystemContext().getPriority();
+		}
+		return this;
+	}
+
 	public Execution getExecutionObject() {
         return executionObject;
     }
@@ -195,10 +264,89 @@ public class ExecutionMessage implements Message, Cloneable {
         this.workerGroup = workerGroup;
     }
 
-    public void setPayload(Payload payload) {
+    public synchronized void setPayload(Payload payload) {
         this.payload = payload;
+        this.payloadExecution = null;
     }
 
+	/**
+	 * Sets the execution to send as the payload and copies its routing headers, without serializing it yet - it is serialized by
+	 * {@link #materializePayload(ExecutionMessageConverter)}, usually just before the message is dispatched.
+	 * The execution must not change until then, see {@link #setSnapshotMessages(ExecutionMessage...)}.
+	 */
+	public synchronized void setPayloadExecution(Execution execution) {
+		this.payloadExecution = execution;
+		this.payload = null;
+		copyHeaders(execution);
+	}
+
+	/**
+	 * Sets the execution to send as the payload, see {@link #setPayloadExecution(Execution)}
+	 *
+	 * @param sizeEstimate the bytes the payload is expected to take once it is serialized
+	 */
+	public synchronized void setPayloadExecution(Execution execution, int sizeEstimate) {
+		setPayloadExecution(execution);
+		this.payloadSizeEstimate = sizeEstimate;
+	}
+
+	public int getPayloadSizeEstimate() {
+		return payloadSizeEstimate;
+	}
+
+	public void setPayloadSizeEstimate(int payloadSizeEstimate) {
+		this.payloadSizeEstimate = payloadSizeEstimate;
+	}
+
+	public synchronized boolean hasPayload() {
+		return payload != null || payloadExecution != null;
+	}
+
+	/**
+	 * Serializes the lazy payload, if the message has one. Serializes only once.
+	 */
+	public synchronized void materializePayload(ExecutionMessageConverter converter) {
+		if (payloadExecution != null) {
+			payload = converter.createPayload(payloadExecution);
+			payloadExecution = null;
+		}
+	}
+
+	/**
+	 * Sets the messages whose lazy payload is the execution object of this message. The thread that continues
+	 * running the execution must call {@link #materializeSnapshots(ExecutionMessageConverter)} before changing it.
+	 */
+	public void setSnapshotMessages(ExecutionMessage... snapshotMessages) {
+		for (ExecutionMessage snapshotMessage : snapshotMessages) {
+			snapshotMessage.snapshot = true;
+		}
+		this.snapshotMessages = snapshotMessages;
+	}
+
+	/**
+	 * @return true if the lazy payload of this message is the execution object of a step that is going to run,
+	 * so it is better serialized as soon as possible - before that step has to do it
+	 */
+	public boolean isSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Serializes the lazy payloads of the snapshot messages that were not serialized yet, and keeps their size as the estimate of the next ones
+	 */
+	public void materializeSnapshots(ExecutionMessageConverter converter) {
+		if (snapshotMessages != null) {
+			for (ExecutionMessage snapshotMessage : snapshotMessages) {
+				snapshotMessage.materializePayload(converter);
+				Payload snapshotPayload = snapshotMessage.getPayload();
+				if (snapshotPayload != null && snapshotPayload.getData() != null) {
+					payloadSizeEstimate = snapshotPayload.getData().length;
+				}
+			}
+			snapshotMessages = null;
+		}
+	}
+
     public int getMsgSeqId() {
 		return msgSeqId;
 	}
@@ -217,7 +365,12 @@ public class ExecutionMessage implements Message, Cloneable {
 
 	@Override
 	public int getWeight() {
-		return 1;
+		Payload currentPayload = payload;
+		byte[] data = currentPayload == null ? null : currentPayload.getData();
+		if (data != null) {
+			return MESSAGE_OVERHEAD_WEIGHT + data.length;
+		}
+		return payloadExecution == null ? MESSAGE_OVERHEAD_WEIGHT : MESSAGE_OVERHEAD_WEIGHT + payloadSizeEstimate;
 	}
 
 	@Override
@@ -313,7 +466,9 @@ public class ExecutionMessage implements Message, Cloneable {
 	public Object clone() {
 		try {
 			ExecutionMessage cloned = (ExecutionMessage) super.clone();
-			if (payload != null) cloned.payload = (Payload) (payload.clone());
+			//the payload is immutable - the clone shares it
+			cloned.snapshotMessages = null;
+			cloned.snapshot = false;
 			return cloned;
 		} catch (CloneNotSupportedException ex) {
 			throw new RuntimeException("Failed to clone message", ex);
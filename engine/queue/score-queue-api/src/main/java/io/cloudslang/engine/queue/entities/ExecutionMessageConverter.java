@@ -10,17 +10,13 @@
 
 package io.cloudslang.engine.queue.entities;
 
-import org.apache.commons.io.IOUtils;
 import io.cloudslang.score.facade.entities.Execution;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.util.List;
 
 /**
  * Created with IntelliJ IDEA.
@@ -31,9 +27,53 @@ import java.io.ObjectOutputStream;
 public class ExecutionMessageConverter {
 
 	public static final int SIZE = 1024;
+
+	public static final int MAX_CODEC_ID = 7;
+
+	//name of the codec used for writing payloads and executions, "java" by default - versions without codecs can read only it,
+	//so "compact" is set only once every engine and worker is upgraded
+	public static final String PAYLOAD_CODEC_PROPERTY = "queue.payload.codec";
+
+	//payloads with an encoded body of at least this many bytes are compressed, a negative value disables compression
+	private int compressionThreshold = Integer.getInteger("queue.payload.compression.threshold", 512);
+
 	@Autowired(required = false)
 	private SensitiveDataHandler sensitiveDataHandler;
 
+	private final ExecutionCodec[] codecs = new ExecutionCodec[MAX_CODEC_ID + 1];
+
+	private final ExecutionCodec fallbackCodec = new JavaSerializationExecutionCodec();
+
+	private String writeCodecName = System.getProperty(PAYLOAD_CODEC_PROPERTY, JavaSerializationExecutionCodec.NAME);
+
+	private ExecutionCodec writeCodec;
+
+	public ExecutionMessageConverter() {
+		registerCodec(fallbackCodec);
+		registerCodec(new CompactExecutionCodec());
+		initWriteCodec();
+	}
+
+	/**
+	 * Registers additional codecs, a codec with the id of an already registered codec replaces it
+	 */
+	@Autowired(required = false)
+	public void setCodecs(List<ExecutionCodec> codecs) {
+		for (ExecutionCodec codec : codecs) {
+			registerCodec(codec);
+		}
+		initWriteCodec();
+	}
+
+	public void setWriteCodec(String writeCodecName) {
+		this.writeCodecName = writeCodecName;
+		initWriteCodec();
+	}
+
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
 	public <T> T extractExecution(Payload payload) {
 		return objFromBytes(payload.getData());
 	}
@@ -43,11 +83,11 @@ public class ExecutionMessageConverter {
 	}
 
 	public Payload createPayload(Execution execution, boolean setContainsSensitiveData) {
-		Payload payload = new Payload(objToBytes(execution));
+		byte[] bytes = objToBytes(execution);
 		if(setContainsSensitiveData || checkContainsSensitiveData(execution)) {
-			setSensitive(payload);
+			setSensitive(bytes); //before the payload holds the bytes - they do not change afterwards
 		}
-		return payload;
+		return new Payload(bytes);
 	}
 
 	private boolean checkContainsSensitiveData(Execution execution) {
@@ -59,75 +99,147 @@ public class ExecutionMessageConverter {
 		return isSensitive(payload);
 	}
 
-	private <T> T objFromBytes(byte[] bytes) {
-		ObjectInputStream ois = null;
+	private void registerCodec(ExecutionCodec codec) {
+		int id = codec.getId();
+		if (id < 0 || id > MAX_CODEC_ID) {
+			throw new IllegalArgumentException("Codec id must be between 0 and " + MAX_CODEC_ID + ", got " + id);
+		}
+		codecs[id] = codec;
+	}
+
+	private void initWriteCodec() {
+		for (ExecutionCodec codec : codecs) {
+			if (codec != null && codec.getName().equals(writeCodecName)) {
+				writeCodec = codec;
+				return;
+			}
+		}
+		throw new IllegalStateException("No payload codec is registered with the name " + writeCodecName);
+	}
+
+	/**
+	 * Serializes an execution that is stored outside of a payload, without the payload metadata byte.
+	 * Java serialization is written as is, as before codecs were introduced, other codecs prefix the bytes with their id.
+	 */
+	public byte[] serializeExecution(Execution execution) {
+		ExecutionCodec codec = writeCodec.canEncode(execution) ? writeCodec : fallbackCodec;
 		try {
-			//2 Buffers are added to increase performance
-			ByteArrayInputStream is = new ByteArrayInputStream(bytes);
+			ByteArrayOutputStream bout = new ByteArrayOutputStream(SIZE);
+			if (codec.getId() != JavaSerializationExecutionCodec.ID) {
+				bout.write(codec.getId());
+			}
+			codec.encode(execution, bout);
+			return bout.toByteArray();
+		}
+		catch(IOException ex) {
+			throw new RuntimeException("Failed to serialize execution . Error: ", ex);
+		}
+	}
 
-			skipPayloadMetaData(is);
+	/**
+	 * Reads an execution written by {@link #serializeExecution(Execution)}
+	 */
+	public Execution deserializeExecution(byte[] bytes) {
+		try {
+			if (bytes.length > 0 && bytes[0] == JAVA_STREAM_MAGIC_FIRST_BYTE) {
+				return (Execution) fallbackCodec.decode(new ByteArrayInputStream(bytes));
+			}
+			ExecutionCodec codec = bytes.length > 0 && bytes[0] >= 0 && bytes[0] <= MAX_CODEC_ID ? codecs[bytes[0]] : null;
+			if (codec == null) {
+				throw new RuntimeException("Failed to read execution from byte[]. Unknown codec: " + (bytes.length > 0 ? bytes[0] : "empty"));
+			}
+			return (Execution) codec.decode(new ByteArrayInputStream(bytes, 1, bytes.length - 1));
+		}
+		catch(IOException | ClassNotFoundException ex) {
+			throw new RuntimeException("Failed to read execution from byte[]. Error: ", ex);
+		}
+	}
 
-			BufferedInputStream bis = new BufferedInputStream(is);
-			ois = new ObjectInputStream(bis);
+	private <T> T objFromBytes(byte[] bytes) {
+		ExecutionCodec codec = codecs[getCodecId(bytes)];
+		if (codec == null) {
+			throw new RuntimeException("Failed to read execution plan from byte[]. Unknown payload codec: " + getCodecId(bytes));
+		}
+		try {
+			ByteArrayInputStream is;
+			if (isCompressed(bytes)) {
+				byte[] body = PayloadCompressUtil.decompress(bytes, PAYLOAD_META_DATA_LENGTH, bytes.length - PAYLOAD_META_DATA_LENGTH);
+				is = new ByteArrayInputStream(body);
+			} else {
+				is = new ByteArrayInputStream(bytes, PAYLOAD_META_DATA_LENGTH, bytes.length - PAYLOAD_META_DATA_LENGTH);
+			}
 
 			//noinspection unchecked
-			return (T)ois.readObject();
+			return (T)codec.decode(is);
 		}
 		catch(IOException | ClassNotFoundException ex) {
 			throw new RuntimeException("Failed to read execution plan from byte[]. Error: ", ex);
 		}
-		finally {
-			IOUtils.closeQuietly(ois);
-		}
-
 	}
 
 	private byte[] objToBytes(Object obj){
-		ObjectOutputStream oos = null;
+		ExecutionCodec codec = writeCodec.canEncode(obj) ? writeCodec : fallbackCodec;
 		try {
 			ByteArrayOutputStream bout = new ByteArrayOutputStream(SIZE);
 
-			initPayloadMetaData(bout);
-
-			BufferedOutputStream bos = new BufferedOutputStream(bout);
-			oos = new ObjectOutputStream(bos);
+			initPayloadMetaData(bout, codec);
+			codec.encode(obj, bout);
 
-			oos.writeObject(obj);
-			oos.flush();
-
-			return bout.toByteArray();
+			byte[] bytes = bout.toByteArray();
+			return compressionThreshold >= 0 && bytes.length - PAYLOAD_META_DATA_LENGTH >= compressionThreshold ?
+					compress(bytes) : bytes;
 		}
 		catch(IOException ex) {
 			throw new RuntimeException("Failed to serialize execution plan. Error: ", ex);
-		} finally {
-			IOUtils.closeQuietly(oos);
 		}
 	}
 
 	/***************************************************************************************/
-	//we padding payload with clean bytes which then will be used for metadata writing
-	private static final byte[] PAYLOAD_META_DATA_INIT_BYTES = {0};
+	//payload starts with metadata bytes, for now meta data is only one byte:
+	//bit 0 - sensitive flag, bits 1-3 - id of the codec that wrote the rest of the payload,
+	//bit 4 - the rest of the payload is compressed, see PayloadCompressUtil
+	private static final int PAYLOAD_META_DATA_LENGTH = 1;
+
+	//first byte of java serialization, ObjectStreamConstants.STREAM_MAGIC
+	private static final byte JAVA_STREAM_MAGIC_FIRST_BYTE = (byte) 0xAC;
 
-	//for now meta data is only one byte
 	private static final int INFRA_PART_BYTE = 0;
 
 	private static final int IS_SENSITIVE = 1;
 
-	private void setSensitive(Payload payload) {
-		payload.getData()[INFRA_PART_BYTE] = IS_SENSITIVE;
+	private static final int CODEC_SHIFT = 1;
+
+	private static final int IS_COMPRESSED = 1 << 4;
+
+	private void setSensitive(byte[] bytes) {
+		bytes[INFRA_PART_BYTE] |= IS_SENSITIVE;
 	}
 
 	private boolean isSensitive(Payload payload) {
-		return payload.getData()[INFRA_PART_BYTE] == IS_SENSITIVE;
+		return (payload.getData()[INFRA_PART_BYTE] & IS_SENSITIVE) != 0;
+	}
+
+	private int getCodecId(byte[] bytes) {
+		return (bytes[INFRA_PART_BYTE] >> CODEC_SHIFT) & MAX_CODEC_ID;
+	}
+
+	private boolean isCompressed(byte[] bytes) {
+		return (bytes[INFRA_PART_BYTE] & IS_COMPRESSED) != 0;
 	}
 
-	private void skipPayloadMetaData(ByteArrayInputStream is) throws IOException {
-		for(int i = 0; i < PAYLOAD_META_DATA_INIT_BYTES.length; i++) {
-			is.read();
+	//the payload is kept compressed until extractExecution is called, so rows are stored, polled and recovered as is
+	private byte[] compress(byte[] bytes) {
+		byte[] body = PayloadCompressUtil.compress(bytes, PAYLOAD_META_DATA_LENGTH, bytes.length - PAYLOAD_META_DATA_LENGTH);
+		if (body == null) {
+			return bytes;
 		}
+		byte[] compressed = new byte[PAYLOAD_META_DATA_LENGTH + body.length];
+		compressed[INFRA_PART_BYTE] = (byte) (bytes[INFRA_PART_BYTE] | IS_COMPRESSED);
+		System.arraycopy(body, 0, compressed, PAYLOAD_META_DATA_LENGTH, body.length);
+		return compressed;
 	}
 
-	private void initPayloadMetaData(ByteArrayOutputStream baos) throws IOException {
-		baos.write(PAYLOAD_META_DATA_INIT_BYTES);
+	private void initPayloadMetaData(ByteArrayOutputStream baos, ExecutionCodec codec) throws IOException {
+		baos.write(codec.getId() << CODEC_SHIFT);
 	}
 }
@@ -10,7 +10,6 @@
 
 package io.cloudslang.engine.queue.entities;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.builder.EqualsBuilder;
 
 import java.io.Serializable;
@@ -19,28 +18,30 @@ import java.io.Serializable;
  * User:
  * Date: 10/09/12
  * Time: 09:39
+ *
+ * The serialized execution of a message. The bytes are set only by the constructor and are not changed
+ * once the payload holds them, so clones and cloned messages share them instead of copying.
  */
 public class Payload implements Cloneable, Serializable {
 	private static final long serialVersionUID = 1198403948027561284L;
 
-	private byte[] data;
+	private final byte[] data;
 
 	public Payload() {
-		data = null;
+		this(null);
 	}
 
 	public Payload(byte[] data) {
 		this.data = data;
 	}
 
+	/**
+	 * @return the bytes of the payload - they are shared, do not change them
+	 */
 	public byte[] getData() {
 		return data;
 	}
 
-	public void setData(byte[] data) {
-		this.data = data;
-	}
-
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj) return true;
@@ -57,9 +58,7 @@ public class Payload implements Cloneable, Serializable {
 	@Override
 	public Object clone() {
 		try {
-			Payload cloned = (Payload) super.clone();
-			cloned.data = ArrayUtils.clone(data);
-			return cloned;
+			return super.clone(); //the data is immutable - share it
 		} catch (CloneNotSupportedException e) {
 			System.out.println(e);
 			return null;
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.engine.queue.entities;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of payload bodies.
+ *
+ * Compression uses the fastest deflate level and a preset dictionary made of the keys and class names that
+ * appear in almost every serialized execution, so that also small payloads gain from compression.
+ * The dictionary must never change once payloads were written with it, a new dictionary requires a new metadata flag.
+ */
+public class PayloadCompressUtil {
+
+    private static final byte[] DICTIONARY = ("java.util.HashMapjava.util.ArrayListjava.util.ArrayDeque" +
+            "java.lang.Longjava.lang.Integerjava.lang.Booleanjava.lang.Stringjava.lang.Number" +
+            "io.cloudslang.score.events.ScoreEventio.cloudslang.score.lang.SystemContext" +
+            "io.cloudslang.score.lang.ExecutionRuntimeServicesio.cloudslang.score.facade.entities.Execution" +
+            "io.cloudslang.score.api.EndBranchDataContainer" +
+            "NO_WORKERS_IN_GROUPNEW_SPLIT_IDFINISHED_CHILD_BRANCHES_DATABRANCH_DATAEXECUTION_PAUSED" +
+            "EXECUTION_STEP_ERROR_KEYFLOW_TERMINATION_TYPEREQUESTED_EXECUTION_PLAN_IDRUNNING_EXECUTION_PLAN_ID" +
+            "STEP_PERSIST_IDSTEP_PERSISTMETADATALANGUAGE_TYPERUNNING_PLANS_MAPBEGIN_STEPS_MAP" +
+            "BRANCH_IDexecutionIdContextSCORE_EVENTS_QUEUE").getBytes(StandardCharsets.US_ASCII);
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private PayloadCompressUtil() {
+    }
+
+    /**
+     * @return the compressed bytes, or null if compression does not make the data smaller
+     */
+    public static byte[] compress(byte[] bytes, int offset, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(bytes, offset, length);
+            deflater.finish();
+            ByteArrayOutputStream bout = new ByteArrayOutputStream(length / 2);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                bout.write(buffer, 0, deflater.deflate(buffer));
+                if (bout.size() >= length) {
+                    return null;
+                }
+            }
+            return bout.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static byte[] decompress(byte[] bytes, int offset, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, offset, length);
+            ByteArrayOutputStream bout = new ByteArrayOutputStream(length * 3);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        throw new DataFormatException("Unexpected end of compressed payload");
+                    }
+                }
+                bout.write(buffer, 0, inflated);
+            }
+            return bout.toByteArray();
+        } catch (DataFormatException ex) {
+            throw new RuntimeException("Failed to decompress payload. Error: ", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -11,8 +11,29 @@
 
 package io.cloudslang.engine.queue.services;
 
+import java.util.Collection;
+
+/**
+ * Tracks the workers that have ASSIGNED messages, so that the poll of an idle worker does not reach the database.
+ *
+ * A worker is marked busy when messages are assigned to it and idle when its poll comes back empty.
+ * findBusyWorkers reconciles the marks with the queue, for messages that were enqueued by another engine node.
+ */
 public interface BusyWorkersService {
     boolean isWorkerBusy(String workerId);
+
+    /**
+     * marks the workers busy, must be called after the assigned messages were committed
+     */
+    void markWorkersBusy(Collection<String> workerIds);
+
+    /**
+     * marks the worker idle, unless it was marked busy after the given time
+     *
+     * @param pollStartTime the System.nanoTime() before the poll that came back empty
+     */
+    void markWorkerIdle(String workerId, long pollStartTime);
+
     void findBusyWorkers();
     void clearBusyWorkers();
 }
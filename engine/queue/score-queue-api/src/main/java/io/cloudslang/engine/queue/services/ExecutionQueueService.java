@@ -45,6 +45,16 @@ public interface ExecutionQueueService {
      */
     List<ExecutionMessage> poll(String workerId, int maxSize, ExecStatus... statuses);
 
+    /**
+     *
+     * claims the messages that are assigned to the worker and moves them to SENT status
+     *
+     * @param workerId the id of the worker
+     * @param maxSize max size of the poll bulk
+     * @return a List of the claimed {@link io.cloudslang.engine.queue.entities.ExecutionMessage}, already in SENT status
+     */
+    List<ExecutionMessage> claimAssignedMessages(String workerId, int maxSize);
+
     /**
      *
      * polls messages from the queue
@@ -27,4 +27,13 @@ public interface QueueStateIdGeneratorService {
      * @return Long of a unique DB id
      */
     public Long generateStateId();
+
+    /**
+     *
+     * reserves a range of unique DB ids that the caller hands out by itself
+     *
+     * @param size the amount of ids to reserve
+     * @return the first id of the range, the range is [first, first + size)
+     */
+    public long leaseStateIds(int size);
 }
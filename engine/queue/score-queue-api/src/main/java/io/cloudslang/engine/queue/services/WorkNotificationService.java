@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.engine.queue.services;
+
+import java.util.Collection;
+
+/**
+ * Wakes up the workers when messages are assigned to them, so they do not have to wait for their next timed poll.
+ *
+ * The engine implementation signals workers that run in the same JVM. A remote worker can use a long-poll proxy
+ * of this service, the same way it reaches the {@link QueueDispatcherService}.
+ * A worker still polls after every wait, a notification only shortens the wait.
+ */
+public interface WorkNotificationService {
+
+    /**
+     * Notifies the workers that messages were assigned to them
+     *
+     * @param workerIds the workers uuids
+     */
+    void notifyWorkers(Collection<String> workerIds);
+
+    /**
+     * Waits until messages are assigned to the worker or the timeout is over.
+     * A notification that arrived while the worker was not waiting ends the next wait immediately.
+     *
+     * @param workerId the worker uuid
+     * @param timeoutMillis the maximal time to wait
+     * @return true if the worker was notified
+     */
+    boolean awaitWork(String workerId, long timeoutMillis) throws InterruptedException;
+}
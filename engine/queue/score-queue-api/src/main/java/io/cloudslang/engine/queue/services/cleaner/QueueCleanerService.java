@@ -26,9 +26,21 @@ public interface QueueCleanerService {
      * get a set of ids of finished executions
      *
      * @return Set of ids of finished executions
+     * @deprecated the set is not bounded, page over the ids with {@link #getFinishedExecStateIds(long, int)}
      */
+    @Deprecated
     Set<Long> getFinishedExecStateIds();
 
+    /**
+     *
+     * get a page of ids of finished executions, ordered by id
+     *
+     * @param afterId the last id of the previous page
+     * @param maxSize the maximal number of ids to return
+     * @return the ids of finished executions that are greater than afterId
+     */
+    long[] getFinishedExecStateIds(long afterId, int maxSize);
+
     /**
      *
      * clean queues data for the given ids
@@ -36,4 +48,19 @@ public interface QueueCleanerService {
      * @param ids the ids to clean data for
      */
     void cleanFinishedSteps(Set<Long> ids);
+
+    /**
+     *
+     * clean queues data for the given ids
+     *
+     * @param ids the ids to clean data for, e.g. a page of {@link #getFinishedExecStateIds(long, int)}
+     */
+    void cleanFinishedSteps(long[] ids);
+
+    /**
+     *
+     * roll the queue tables to their next partition when the queue is partitioned,
+     * the finished steps are then dropped with their partition instead of being cleaned one by one
+     */
+    void rollPartitions();
 }
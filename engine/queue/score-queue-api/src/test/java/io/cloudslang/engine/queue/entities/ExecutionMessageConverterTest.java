@@ -13,6 +13,7 @@ package io.cloudslang.engine.queue.entities;
 import static org.junit.Assert.*;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import io.cloudslang.score.facade.entities.Execution;
 import io.cloudslang.score.lang.SystemContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
@@ -20,9 +21,16 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import static org.mockito.Mockito.*;
 
@@ -105,15 +113,153 @@ public class ExecutionMessageConverterTest {
 
     @Test
     public void testPayloadForSensitiveData() {
-        Payload p = new Payload();
-        p.setData(new byte[]{0, 1, 2});
+        Payload p = new Payload(new byte[]{0, 1, 2});
         assertFalse(executionMessageConverter.containsSensitiveData(p));
 
-        p = new Payload();
-        p.setData(new byte[]{1, 0, 0});
+        p = new Payload(new byte[]{1, 0, 0});
         assertTrue(executionMessageConverter.containsSensitiveData(p));
     }
 
+    @Test
+    public void testCompactCodecRoundTrip() {
+        ArrayList<String> shared = new ArrayList<>();
+        shared.add("a");
+        TreeMap<String, Integer> unknown = new TreeMap<>();
+        unknown.put("x", 1);
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 30000; i++) {
+            longValue.append('\u05d0');
+        }
+        Map<String, Serializable> contexts = new HashMap<>();
+        contexts.put("string", "value");
+        contexts.put("long", longValue.toString());
+        contexts.put("int", 5);
+        contexts.put("bool", true);
+        contexts.put("null", null);
+        contexts.put("bytes", new byte[]{1, 2});
+        contexts.put("shared1", shared);
+        contexts.put("shared2", shared);
+        contexts.put("unknown", unknown);
+        contexts.put("date", new Date(1000L));
+        Execution execution = new Execution(111L, 999L, 3L, contexts, null);
+        execution.setGroupName("group");
+        execution.getSystemContext().setBranchId("branch");
+
+        ExecutionMessageConverter converter = new ExecutionMessageConverter();
+        converter.setWriteCodec(CompactExecutionCodec.NAME);
+        converter.setCompressionThreshold(-1);
+        Payload payload = converter.createPayload(execution);
+        assertEquals(CompactExecutionCodec.ID << 1, payload.getData()[0] & ~1);
+
+        Execution afterConvert = converter.extractExecution(payload);
+        assertEquals(Execution.class, afterConvert.getClass());
+        assertEquals(execution, afterConvert);
+        assertEquals("group", afterConvert.getGroupName());
+        assertEquals("branch", afterConvert.getSystemContext().getBranchId());
+        Map<String, Serializable> afterContexts = afterConvert.getContexts();
+        assertEquals(contexts.size(), afterContexts.size());
+        assertEquals("value", afterContexts.get("string"));
+        assertEquals(longValue.toString(), afterContexts.get("long"));
+        assertEquals(5, afterContexts.get("int"));
+        assertEquals(true, afterContexts.get("bool"));
+        assertTrue(afterContexts.containsKey("null"));
+        assertArrayEquals(new byte[]{1, 2}, (byte[]) afterContexts.get("bytes"));
+        assertEquals(shared, afterContexts.get("shared1"));
+        assertSame(afterContexts.get("shared1"), afterContexts.get("shared2"));
+        assertEquals(unknown, afterContexts.get("unknown"));
+        assertEquals(new Date(1000L), afterContexts.get("date"));
+    }
+
+    @Test
+    public void testCompactCodecKeepsSensitiveFlag() {
+        Execution execution = new Execution(111L, 999L, 3L, null, null);
+        ExecutionMessageConverter converter = new ExecutionMessageConverter();
+        converter.setWriteCodec(CompactExecutionCodec.NAME);
+
+        Payload payload = converter.createPayload(execution, true);
+        assertTrue(converter.containsSensitiveData(payload));
+        assertEquals(3L, ((Execution) converter.extractExecution(payload)).getPosition().longValue());
+    }
+
+    @Test
+    public void testPayloadsAreJavaSerializedByDefault() {
+        Payload payload = executionMessageConverter.createPayload(new Execution(111L, 999L, 3L, null, null));
+        assertEquals(JavaSerializationExecutionCodec.ID << 1, payload.getData()[0] & ~1);
+    }
+
+    @Test
+    public void testSerializedExecution() {
+        Execution execution = new Execution(111L, 999L, 3L, null, null);
+        execution.getContexts().put("key", "value");
+
+        byte[] bytes = executionMessageConverter.serializeExecution(execution);
+        assertEquals((byte) 0xAC, bytes[0]); // plain java serialization, as versions without codecs write it
+        assertEquals(execution, executionMessageConverter.deserializeExecution(bytes));
+
+        ExecutionMessageConverter converter = new ExecutionMessageConverter();
+        converter.setWriteCodec(CompactExecutionCodec.NAME);
+        bytes = converter.serializeExecution(execution);
+        assertEquals(CompactExecutionCodec.ID, bytes[0]);
+        Execution afterConvert = executionMessageConverter.deserializeExecution(bytes);
+        assertEquals(execution, afterConvert);
+        assertEquals("value", afterConvert.getContexts().get("key"));
+    }
+
+    @Test
+    public void testLegacyPayloadIsReadable() throws IOException {
+        Execution execution = new Execution(111L, 999L, 3L, null, null);
+        execution.getContexts().put("key", "value");
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bout.write(1);
+        ObjectOutputStream oos = new ObjectOutputStream(bout);
+        oos.writeObject(execution);
+        oos.close();
+
+        Payload payload = new Payload(bout.toByteArray());
+        assertTrue(executionMessageConverter.containsSensitiveData(payload));
+        Execution afterConvert = executionMessageConverter.extractExecution(payload);
+        assertEquals(execution, afterConvert);
+        assertEquals("value", afterConvert.getContexts().get("key"));
+    }
+
+    @Test
+    public void testCompressedPayload() {
+        ExecutionMessageConverter converter = new ExecutionMessageConverter();
+        converter.setCompressionThreshold(0);
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            value.append("repeated value ");
+        }
+        Execution execution = new Execution(111L, 999L, 3L, null, null);
+        execution.getContexts().put("key", value.toString());
+
+        Payload uncompressed = executionMessageConverter.createPayload(execution, true);
+        Payload payload = converter.createPayload(execution, true);
+        assertTrue(payload.getData().length < uncompressed.getData().length / 10);
+        assertTrue(converter.containsSensitiveData(payload));
+
+        Execution afterConvert = converter.extractExecution(payload);
+        assertEquals(execution, afterConvert);
+        assertEquals(value.toString(), afterConvert.getContexts().get("key"));
+        //compression is recorded in the payload itself
+        assertEquals(execution, executionMessageConverter.extractExecution(payload));
+    }
+
+    @Test
+    public void testSmallPayloadIsCompressedWithDictionary() {
+        ExecutionMessageConverter converter = new ExecutionMessageConverter();
+        converter.setCompressionThreshold(0);
+        MyExecutionForTest execution = new MyExecutionForTest(111L, 999L, 0L, new ArrayList<String>());
+        execution.getSystemContext().setBranchId("branch");
+
+        Payload uncompressed = executionMessageConverter.createPayload(execution);
+        Payload payload = converter.createPayload(execution);
+        assertTrue(payload.getData().length < uncompressed.getData().length);
+
+        MyExecutionForTest afterConvert = converter.extractExecution(payload);
+        assertEquals("branch", afterConvert.getSystemContext().getBranchId());
+    }
+
 //    @Test
 //    public void testConverterWithSession() throws IOException {
 //        List<String> names = new ArrayList<>();
@@ -140,7 +286,10 @@ public class ExecutionMessageConverterTest {
 
         @Bean
         public ExecutionMessageConverter executionMessageConverter() {
-            return new ExecutionMessageConverter();
+            ExecutionMessageConverter converter = new ExecutionMessageConverter();
+            //metadata byte assertions below expect uncompressed payloads
+            converter.setCompressionThreshold(-1);
+            return converter;
         }
 
         @Bean
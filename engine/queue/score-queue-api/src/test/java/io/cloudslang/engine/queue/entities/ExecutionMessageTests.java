@@ -11,6 +11,7 @@
 package io.cloudslang.engine.queue.entities;
 
 import io.cloudslang.orchestrator.entities.Message;
+import io.cloudslang.score.facade.entities.Execution;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -19,6 +20,11 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 
 /**
@@ -180,4 +186,79 @@ public class ExecutionMessageTests {
 		Assert.assertEquals(1, result.size());
 		Assert.assertEquals("888", result.get(0).getId());
 	}
+
+	@Test
+	public void lazyPayloadIsSerializedOnce(){
+		ExecutionMessageConverter converter = mock(ExecutionMessageConverter.class);
+		Execution execution = new Execution(1L, 1L, 1L, null, null);
+		Payload payload = new Payload(new byte[10]);
+		when(converter.createPayload(execution)).thenReturn(payload);
+
+		ExecutionMessage message = new ExecutionMessage("123", null);
+		message.setPayloadExecution(execution);
+		Assert.assertTrue(message.hasPayload());
+		Assert.assertNull(message.getPayload());
+		Assert.assertEquals(ExecutionMessage.MESSAGE_OVERHEAD_WEIGHT, message.getWeight());
+
+		message.materializePayload(converter);
+		message.materializePayload(converter);
+
+		verify(converter, times(1)).createPayload(execution);
+		Assert.assertSame(payload, message.getPayload());
+		Assert.assertEquals(ExecutionMessage.MESSAGE_OVERHEAD_WEIGHT + 10, message.getWeight());
+	}
+
+	@Test
+	public void snapshotsAreSerializedBeforeTheExecutionChanges(){
+		ExecutionMessageConverter converter = mock(ExecutionMessageConverter.class);
+		Execution execution = new Execution(1L, 1L, 1L, null, null);
+		when(converter.createPayload(execution)).thenReturn(new Payload(new byte[1]));
+
+		ExecutionMessage snapshot = new ExecutionMessage("123", null);
+		snapshot.setPayloadExecution(execution);
+		ExecutionMessage shortcut = new ExecutionMessage("123", null);
+		shortcut.setExecutionObject(execution);
+		shortcut.setSnapshotMessages(snapshot);
+
+		Assert.assertTrue(snapshot.isSnapshot());
+
+		shortcut.materializeSnapshots(converter);
+
+		Assert.assertNotNull(snapshot.getPayload());
+		Assert.assertEquals(1, shortcut.getPayloadSizeEstimate());
+		shortcut.materializeSnapshots(converter);
+		verify(converter, times(1)).createPayload(execution);
+	}
+
+	@Test
+	public void lazyPayloadWeightIncludesTheSizeEstimate(){
+		ExecutionMessage message = new ExecutionMessage("123", null);
+		message.setPayloadExecution(new Execution(1L, 1L, 1L, null, null), 1000);
+
+		Assert.assertEquals(ExecutionMessage.MESSAGE_OVERHEAD_WEIGHT + 1000, message.getWeight());
+		Assert.assertEquals(1000, ((ExecutionMessage) message.clone()).getPayloadSizeEstimate());
+	}
+
+	@Test
+	public void setPayloadDropsTheLazyPayload(){
+		ExecutionMessageConverter converter = mock(ExecutionMessageConverter.class);
+		ExecutionMessage message = new ExecutionMessage("123", null);
+		message.setPayloadExecution(new Execution(1L, 1L, 1L, null, null));
+
+		message.setPayload(null);
+		message.materializePayload(converter);
+
+		Assert.assertFalse(message.hasPayload());
+		verify(converter, times(0)).createPayload(any(Execution.class));
+	}
+
+	@Test
+	public void cloneSharesThePayloadBytes(){
+		ExecutionMessage message = new ExecutionMessage("123", new Payload(new byte[]{1, 2, 3}));
+
+		ExecutionMessage cloned = (ExecutionMessage) message.clone();
+
+		Assert.assertSame(message.getPayload().getData(), cloned.getPayload().getData());
+		Assert.assertEquals(message.getPayload(), ((Payload) message.getPayload().clone()));
+	}
 }
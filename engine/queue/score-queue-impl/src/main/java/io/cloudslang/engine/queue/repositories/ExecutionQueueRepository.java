@@ -16,7 +16,6 @@ import io.cloudslang.engine.queue.entities.Payload;
 
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * User:
@@ -27,8 +26,19 @@ public interface ExecutionQueueRepository {
 
     List<ExecutionMessage> poll(String workerId, int maxSize, ExecStatus... statuses);
 
+	/**
+	 * Moves the latest ASSIGNED messages of the worker to SENT on the database side and returns them with their payloads.
+	 * Rows that are locked by a concurrent claim or recovery are skipped where the database supports it.
+	 */
+	List<ExecutionMessage> claimMessages(String workerId, int maxSize, long version);
+
 	List<ExecutionMessage> pollRecovery(String workerId, int maxSize, ExecStatus... statuses);
 
+	/**
+	 * Checks whether the worker has a latest message in the given status, without reading the message or its payload.
+	 */
+	boolean hasMessages(String workerId, ExecStatus status);
+
 	List<ExecutionMessage> pollMessagesWithoutAck(int maxSize,long minVersionAllowed);
 
     Integer countMessagesWithoutAckForWorker(int maxSize, long minVersionAllowed, String workerUuid);
@@ -41,9 +51,14 @@ public interface ExecutionQueueRepository {
 
 	Map<Long,Payload> findPayloadByExecutionIds(Long ... ids);
 
-    void deleteFinishedSteps(Set<Long> ids);
+    void deleteFinishedSteps(long[] ids);
 
-    Set<Long> getFinishedExecStateIds();
+	/**
+	 * Keyset pagination over the ids of the finished executions.
+	 *
+	 * @return up to maxSize ids that are greater than afterId, in ascending order
+	 */
+	long[] getFinishedExecStateIds(long afterId, int maxSize);
 
 	List<ExecutionMessage> findByStatuses(int maxSize, ExecStatus... statuses);
 	List<String> getBusyWorkers(ExecStatus... statuses);
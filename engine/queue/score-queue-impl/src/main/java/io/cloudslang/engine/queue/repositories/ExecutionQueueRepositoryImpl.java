@@ -10,15 +10,20 @@
 
 package io.cloudslang.engine.queue.repositories;
 
+import io.cloudslang.engine.data.DataBaseDetector;
 import io.cloudslang.engine.data.IdentityGenerator;
+import io.cloudslang.engine.partitions.services.PartitionTemplate;
 import io.cloudslang.engine.queue.entities.ExecStatus;
 import io.cloudslang.engine.queue.entities.ExecutionMessage;
 import io.cloudslang.engine.queue.entities.Payload;
+import io.cloudslang.score.facade.execution.PauseReason;
+import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.SingleColumnRowMapper;
@@ -31,11 +36,13 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * User:
@@ -46,13 +53,17 @@ import java.util.Set;
 @SuppressWarnings("FieldCanBeLocal")
 public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 
+	public static final String QUEUES_PARTITION_GROUP = "OO_EXECUTION_QUEUES";
+
+	public static final String STATES_PARTITION_GROUP = "OO_EXECUTION_STATES";
+
 	private Logger logger = Logger.getLogger(getClass());
 
-	final private String SELECT_FINISHED_STEPS_IDS =  " SELECT DISTINCT EXEC_STATE_ID FROM OO_EXECUTION_QUEUES " +
+	final private String SELECT_FINISHED_STEPS_IDS_PAGE = " SELECT DISTINCT EXEC_STATE_ID FROM OO_EXECUTION_QUEUES " +
 			" WHERE " +
-			"        (STATUS = "+ExecStatus.TERMINATED.getNumber()+") OR " +
-			"        (STATUS = "+ExecStatus.FAILED.getNumber()+") OR " +
-			"        (STATUS = "+ExecStatus.FINISHED.getNumber()+") ";
+			"        (STATUS IN (" + ExecStatus.TERMINATED.getNumber() + "," + ExecStatus.FAILED.getNumber() + "," + ExecStatus.FINISHED.getNumber() + ")) AND " +
+			"        (EXEC_STATE_ID > ?) " +
+			" ORDER BY EXEC_STATE_ID";
 
 	final private String QUERY_DELETE_FINISHED_STEPS_FROM_QUEUES = "DELETE FROM OO_EXECUTION_QUEUES " +
 			" WHERE EXEC_STATE_ID in (:ids)";
@@ -60,22 +71,21 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 	final private String QUERY_DELETE_FINISHED_STEPS_FROM_STATES = "DELETE FROM OO_EXECUTION_STATES " +
 			" WHERE ID in (:ids)";
 
+	//Higher priority first, but a message is passed by higher priority ones only until it waited PRIORITY_AGING_MILLIS for each level between them
+	private static final String PRIORITY_ORDER = "(q.CREATE_TIME - q.PRIORITY * " + ExecutionMessage.PRIORITY_AGING_MILLIS + ")";
+
 	final private String QUERY_MESSAGES_WITHOUT_ACK_SQL =
 			"SELECT EXEC_STATE_ID,      " +
 					"       ASSIGNED_WORKER,      " +
 					"       EXEC_GROUP ,       " +
 					"       STATUS,       " +
 					"       MSG_SEQ_ID,   " +
-					"      CREATE_TIME " +
+					"      CREATE_TIME, " +
+					"      BRANCH_ID, SPLIT_ID, PAUSE_REASON, PRIORITY " +
 					"  FROM  OO_EXECUTION_QUEUES q  " +
 					"  WHERE " +
 					"      (q.STATUS  = ? ) AND " +
-					"     (NOT EXISTS (SELECT qq.MSG_SEQ_ID " +
-					"                  FROM OO_EXECUTION_QUEUES qq " +
-					"                  WHERE (qq.EXEC_STATE_ID = q.EXEC_STATE_ID) AND " +
-					"                        qq.MSG_SEQ_ID > q.MSG_SEQ_ID" +
-					"                 )" +
-					"      ) AND " +
+					"      (q.IS_LATEST = 1) AND " +
 					"      (q.MSG_VERSION < ?) ";
 
 
@@ -85,12 +95,7 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 					"  WHERE " +
 					"      (q.ASSIGNED_WORKER  = ? ) AND " +
 					"      (q.STATUS  = ? ) AND " +
-					"     (NOT EXISTS (SELECT qq.MSG_SEQ_ID " +
-					"                  FROM OO_EXECUTION_QUEUES qq " +
-					"                  WHERE (qq.EXEC_STATE_ID = q.EXEC_STATE_ID) AND " +
-					"                        qq.MSG_SEQ_ID > q.MSG_SEQ_ID " +
-					"                 )" +
-					"      ) AND " +
+					"      (q.IS_LATEST = 1) AND " +
 					"      (q.MSG_VERSION < ?)  ";
 
 
@@ -102,17 +107,16 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 					"       PAYLOAD,       " +
 					"       MSG_SEQ_ID ,      " +
 					"       MSG_ID," +
-					"       q.CREATE_TIME " +
+					"       q.CREATE_TIME, " +
+					"       q.BRANCH_ID, q.SPLIT_ID, q.PAUSE_REASON, q.PRIORITY " +
 					" FROM  OO_EXECUTION_QUEUES q,  " +
 					"      OO_EXECUTION_STATES s   " +
 					" WHERE  " +
 					"      (q.ASSIGNED_WORKER =  ?)  AND " +
 					"      (q.STATUS IN (:status)) AND " +
-					" (q.EXEC_STATE_ID = s.ID) AND " +
-					" (NOT EXISTS (SELECT qq.MSG_SEQ_ID " +
-					"              FROM OO_EXECUTION_QUEUES qq " +
-					"              WHERE (qq.EXEC_STATE_ID = q.EXEC_STATE_ID) AND qq.MSG_SEQ_ID > q.MSG_SEQ_ID)) " +
-					" ORDER BY q.CREATE_TIME  ";
+					"      (q.IS_LATEST = 1) AND " +
+					" (q.EXEC_STATE_ID = s.ID) " +
+					" ORDER BY " + PRIORITY_ORDER;
 
 	final private String QUERY_WORKER_RECOVERY_SQL =
 			"SELECT         EXEC_STATE_ID,      " +
@@ -122,16 +126,15 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 					"       PAYLOAD,       " +
 					"       MSG_SEQ_ID,      " +
 					"       MSG_ID," +
-					"       q.CREATE_TIME " +
+					"       q.CREATE_TIME, " +
+					"       q.BRANCH_ID, q.SPLIT_ID, q.PAUSE_REASON, q.PRIORITY " +
 					" FROM  OO_EXECUTION_QUEUES q,  " +
 					"       OO_EXECUTION_STATES s1   " +
 					" WHERE  " +
 					"      (q.ASSIGNED_WORKER =  ?)  AND " +
 					"      (q.STATUS IN (:status)) AND " +
-					" q.EXEC_STATE_ID = s1.ID AND" +
-					" (NOT EXISTS (SELECT qq.MSG_SEQ_ID " +
-					"              FROM OO_EXECUTION_QUEUES qq " +
-					"              WHERE (qq.EXEC_STATE_ID = q.EXEC_STATE_ID) AND qq.MSG_SEQ_ID > q.MSG_SEQ_ID)) ";
+					"      (q.IS_LATEST = 1) AND " +
+					" q.EXEC_STATE_ID = s1.ID ";
 
 	final private String QUERY_MESSAGES_BY_STATUSES =
 			"SELECT EXEC_STATE_ID, " +
@@ -139,32 +142,79 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 					"  EXEC_GROUP , " +
 					"  STATUS, " +
 					"  MSG_SEQ_ID, " +
-					"  CREATE_TIME " +
+					"  CREATE_TIME, " +
+					"  BRANCH_ID, SPLIT_ID, PAUSE_REASON, PRIORITY " +
 					"FROM  OO_EXECUTION_QUEUES q  " +
 					"WHERE STATUS IN (:status) AND " +
-					"  NOT EXISTS (" +
-					"     SELECT qq.MSG_SEQ_ID " +
-					"     FROM OO_EXECUTION_QUEUES qq " +
-					"     WHERE" +
-					"         qq.EXEC_STATE_ID = q.EXEC_STATE_ID" +
-					"         AND qq.MSG_SEQ_ID > q.MSG_SEQ_ID" +
-					"  )";
+					"  IS_LATEST = 1";
 	final private String BUSY_WORKERS_SQL =
 			"SELECT ASSIGNED_WORKER      " +
 					" FROM  OO_EXECUTION_QUEUES q  " +
 					" WHERE  " +
 					"      (q.STATUS IN (:status)) AND " +
-					" (NOT EXISTS (SELECT qq.MSG_SEQ_ID " +
-					"              FROM OO_EXECUTION_QUEUES qq " +
-					"              WHERE (qq.EXEC_STATE_ID = q.EXEC_STATE_ID) AND qq.MSG_SEQ_ID > q.MSG_SEQ_ID)) " +
+					"      (q.IS_LATEST = 1) " +
 					" GROUP BY ASSIGNED_WORKER";
 
+	//reads only the index of OO_EXECUTION_QUEUES, without joining OO_EXECUTION_STATES for the payload
+	final private String QUERY_HAS_MESSAGES_SQL =
+			"SELECT q.ID " +
+					" FROM  OO_EXECUTION_QUEUES q  " +
+					" WHERE  " +
+					"      (q.ASSIGNED_WORKER = ?) AND " +
+					"      (q.STATUS = ?) AND " +
+					"      (q.IS_LATEST = 1) ";
+
 
 	final private String INSERT_EXEC_STATE = "INSERT INTO OO_EXECUTION_STATES  (ID, MSG_ID,  PAYLOAD, CREATE_TIME) VALUES (?, ?, ?, CURRENT_TIMESTAMP)";
 
-	final private String INSERT_QUEUE = "INSERT INTO OO_EXECUTION_QUEUES (ID, EXEC_STATE_ID, ASSIGNED_WORKER, EXEC_GROUP, STATUS,MSG_SEQ_ID, CREATE_TIME,MSG_VERSION) VALUES (?, ?, ?, ?, ?, ?,?,?)";
+	final private String INSERT_QUEUE = "INSERT INTO OO_EXECUTION_QUEUES (ID, EXEC_STATE_ID, ASSIGNED_WORKER, EXEC_GROUP, STATUS,MSG_SEQ_ID, CREATE_TIME,MSG_VERSION,IS_LATEST,BRANCH_ID,SPLIT_ID,PAUSE_REASON,PRIORITY) VALUES (?, ?, ?, ?, ?, ?,?,?,1,?,?,?,?)";
+
+	//The IS_LATEST flag marks the newest row of each EXEC_STATE_ID, so the poll and recovery queries can read the current
+	//state of a message with an indexed lookup instead of a correlated sub query over the whole history of the queue
+	final private String UPDATE_QUEUE_PREVIOUS_LATEST = "UPDATE OO_EXECUTION_QUEUES SET IS_LATEST = 0 WHERE EXEC_STATE_ID = ? AND MSG_SEQ_ID < ? AND IS_LATEST = 1";
+
+	//Two transactions that insert rows of the same EXEC_STATE_ID do not see each other's rows, so both could leave theirs
+	//as the latest. The state rows are locked before the insert, so the rows of an EXEC_STATE_ID are flagged one transaction after the other.
+	//:lockHint and :lock are replaced on init according to the database - see initLockExecStatesSql()
+	final private String LOCK_EXEC_STATES = "SELECT ID FROM OO_EXECUTION_STATES :lockHint WHERE ID IN (:ids) ORDER BY ID :lock";
+
+	//A row that is inserted late (recovery or a retried batch) after a row with a higher MSG_SEQ_ID is not the latest.
+	//The sub query is wrapped in a derived table since some databases do not allow reading the updated table directly.
+	final private String UPDATE_QUEUE_INSERTED_NOT_LATEST = "UPDATE OO_EXECUTION_QUEUES SET IS_LATEST = 0 WHERE EXEC_STATE_ID = ? AND MSG_SEQ_ID = ? AND IS_LATEST = 1 " +
+			" AND EXISTS (SELECT 1 FROM (SELECT ID FROM :higherQueues WHERE EXEC_STATE_ID = ? AND MSG_SEQ_ID > ?) h)";
+
+	//The tables of the read queries must have an alias, on a partitioned queue they are replaced by a derived table - see readSql()
+	private static final String QUERY_PAYLOAD_BY_EXECUTION_IDS = "SELECT s.ID, s.PAYLOAD FROM OO_EXECUTION_STATES s WHERE s.ID IN (:IDS)";
+
+	private static final String QUERY_MSG_ID_AND_PAYLOAD_BY_EXECUTION_IDS = "SELECT s.ID, s.MSG_ID, s.PAYLOAD FROM OO_EXECUTION_STATES s WHERE s.ID IN (:IDS)";
+
+	//:hint and :lock are replaced on init according to the database - see initClaimMessagesSql()
+	final private String QUERY_CLAIM_WORKER_SQL =
+			"SELECT ID,      " +
+					"       EXEC_STATE_ID,      " +
+					"       ASSIGNED_WORKER,      " +
+					"       EXEC_GROUP,       " +
+					"       STATUS,       " +
+					"       MSG_SEQ_ID,      " +
+					"       CREATE_TIME, " +
+					"       BRANCH_ID, SPLIT_ID, PAUSE_REASON, PRIORITY " +
+					" FROM  OO_EXECUTION_QUEUES q :hint " +
+					" WHERE  " +
+					"      (q.ASSIGNED_WORKER =  ?)  AND " +
+					"      (q.STATUS = ?) AND " +
+					"      (q.IS_LATEST = 1) " +
+					" ORDER BY " + PRIORITY_ORDER + " :lock";
+
+	final private String UPDATE_CLAIMED_MESSAGES = "UPDATE OO_EXECUTION_QUEUES SET STATUS = ?, MSG_SEQ_ID = MSG_SEQ_ID + 1, CREATE_TIME = ?, MSG_VERSION = ? " +
+			" WHERE ID IN (:ids) AND STATUS = ?";
+
+	private String claimMessagesSql;
 
-	private static final String QUERY_PAYLOAD_BY_EXECUTION_IDS = "SELECT ID, PAYLOAD FROM OO_EXECUTION_STATES WHERE ID IN (:IDS)";
+	private String lockExecStatesSql;
+
+	private static final int FINISHED_STEPS_FETCH_SIZE = 1000;
+
+	private static final int LOCK_EXEC_STATES_BULK_SIZE = 1000; // the in clause limit of the databases
 
 
 	//We use dedicated JDBCTemplates for each query since JDBCTemplate is state-full object and we have different settings for each query.
@@ -178,6 +228,10 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 	private JdbcTemplate findPayloadByExecutionIdsJDBCTemplate;
 	private JdbcTemplate findByStatusesJDBCTemplate;
 	private JdbcTemplate getBusyWorkersTemplate;
+	private JdbcTemplate hasMessagesJDBCTemplate;
+	private JdbcTemplate claimMessagesJDBCTemplate;
+	private JdbcTemplate updateClaimedMessagesJDBCTemplate;
+	private JdbcTemplate lockExecStatesJDBCTemplate;
 
 
 	@Autowired
@@ -186,6 +240,14 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 	@Autowired
 	private DataSource dataSource;
 
+	@Autowired
+	private DataBaseDetector dataBaseDetector;
+
+	//When the queue is partitioned, the queries run over the partitions of OO_EXECUTION_QUEUES and OO_EXECUTION_STATES -
+	//writes go to the active partition, reads go over the active and the previous partitions, and finished steps are
+	//not deleted but dropped with their partition when it is rolled. See ExecutionQueuesCallback.
+	private PartitionTemplate partitionTemplate;
+
 	@PostConstruct
 	public void init() {
 		//We use dedicated JDBCTemplates for each query since JDBCTemplate is state-full object and we have different settings for each query.
@@ -199,6 +261,99 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 		this.findPayloadByExecutionIdsJDBCTemplate = new JdbcTemplate(dataSource);
 		this.findByStatusesJDBCTemplate = new JdbcTemplate(dataSource);
 		this.getBusyWorkersTemplate = new JdbcTemplate(dataSource);
+		this.hasMessagesJDBCTemplate = new JdbcTemplate(dataSource);
+		this.hasMessagesJDBCTemplate.setMaxRows(1);
+		this.hasMessagesJDBCTemplate.setFetchSize(1);
+		this.claimMessagesJDBCTemplate = new JdbcTemplate(dataSource);
+		this.updateClaimedMessagesJDBCTemplate = new JdbcTemplate(dataSource);
+		this.lockExecStatesJDBCTemplate = new JdbcTemplate(dataSource);
+
+		initClaimMessagesSql();
+		initLockExecStatesSql();
+	}
+
+	private void initLockExecStatesSql() {
+		if (dataBaseDetector.isMssql()) {
+			lockExecStatesSql = LOCK_EXEC_STATES.replace(":lockHint", "WITH (UPDLOCK, ROWLOCK)").replace(":lock", "");
+		} else {
+			lockExecStatesSql = LOCK_EXEC_STATES.replace(":lockHint", "").replace(":lock", "FOR UPDATE");
+		}
+	}
+
+	private void initClaimMessagesSql() {
+		String hint = "";
+		String lock;
+		if (dataBaseDetector.isMssql()) {
+			hint = "WITH (UPDLOCK, ROWLOCK, READPAST)";
+			lock = "";
+		} else if (dataBaseDetector.isSkipLockedSupported()) {
+			lock = "FOR UPDATE SKIP LOCKED";
+		} else {
+			//H2 and older databases - a concurrent claim of the same rows waits for the lock
+			lock = "FOR UPDATE";
+		}
+		claimMessagesSql = QUERY_CLAIM_WORKER_SQL.replace(":hint", hint).replace(":lock", lock);
+		logger.info("Claim messages query: " + claimMessagesSql);
+	}
+
+	public void setPartitionTemplate(PartitionTemplate partitionTemplate) {
+		this.partitionTemplate = partitionTemplate;
+	}
+
+	private boolean isPartitioned() {
+		return partitionTemplate != null;
+	}
+
+	/**
+	 * @return the queue tables that hold live messages, the active one first
+	 */
+	private List<String> queueTables() {
+		return queueTables(false);
+	}
+
+	/**
+	 * The writes read the active partition from the database in their transaction, so an enqueue does not write to a partition
+	 * that another node has rolled during the refresh interval of the in-memory one. A roll that commits while the enqueue runs
+	 * is still missed and the enqueue writes to the previous partition. The callback that runs after the roll waits for the locks
+	 * the enqueue holds on its state rows and carries the message forward, and the callback before the next roll fixes what is left.
+	 *
+	 * @return the queue tables that hold live messages, the active one first
+	 */
+	private List<String> writeQueueTables() {
+		return queueTables(true);
+	}
+
+	private List<String> queueTables(boolean forWrite) {
+		if (!isPartitioned()) {
+			return Collections.singletonList(QUEUES_PARTITION_GROUP);
+		}
+		String active = forWrite ? partitionTemplate.readActiveTable() : partitionTemplate.activeTable();
+		String previous = partitionTemplate.previousTable();
+		if (active.equals(previous)) {
+			// a roll between the two reads - the previous partition is the active partition that was read before it
+			active = partitionTemplate.activeTable();
+		}
+		return Arrays.asList(active, previous);
+	}
+
+	private String statesTable(String queuesTable) {
+		return queuesTable.replace(QUEUES_PARTITION_GROUP, STATES_PARTITION_GROUP);
+	}
+
+	private String readSql(String sql) {
+		if (!isPartitioned()) {
+			return sql;
+		}
+		List<String> tables = queueTables();
+		String active = tables.get(0);
+		String previous = tables.get(1);
+		String states = "(SELECT * FROM " + statesTable(active) + " UNION ALL SELECT * FROM " + statesTable(previous) + ")";
+		String queues = "(SELECT * FROM " + active + " UNION ALL SELECT * FROM " + previous + ")";
+		return sql.replace(STATES_PARTITION_GROUP, states).replace(QUEUES_PARTITION_GROUP, queues);
+	}
+
+	private String writeSql(String sql, String queuesTable) {
+		return sql.replace(STATES_PARTITION_GROUP, statesTable(queuesTable)).replace(QUEUES_PARTITION_GROUP, queuesTable);
 	}
 
 	@Override
@@ -208,7 +363,7 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 
 	@Override
 	public void insertExecutionStates(final List<ExecutionMessage> stateMessages) {
-		String insertExecStateSQL = INSERT_EXEC_STATE;
+		String insertExecStateSQL = writeSql(INSERT_EXEC_STATE, writeQueueTables().get(0));
 		insertExecutionJDBCTemplate.batchUpdate(insertExecStateSQL, new BatchPreparedStatementSetter() {
 
 			@Override
@@ -226,18 +381,37 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 		});
 	}
 
+	// one reservation per chunk of the batch
+	private long[] reserveIds(int size) {
+		long[] ids = new long[size];
+		for (int start = 0; start < size; start += IdentityGenerator.MAX_RANGE_SIZE) {
+			int chunkSize = Math.min(size - start, IdentityGenerator.MAX_RANGE_SIZE);
+			long firstId = idGen.range(chunkSize);
+			for (int i = 0; i < chunkSize; i++) {
+				ids[start + i] = firstId + i;
+			}
+		}
+		return ids;
+	}
+
 	@Override
 	public void insertExecutionQueue(final List<ExecutionMessage> messages, final long version) {
 		// insert execution queue table
 		// id, exec_state_id, assigned_worker, status, create_time
-		String insertQueueSQL = INSERT_QUEUE;
+		if (messages.isEmpty()) {
+			return;
+		}
+		List<String> queueTables = writeQueueTables();
+		String insertQueueSQL = writeSql(INSERT_QUEUE, queueTables.get(0));
 
 		long t = System.currentTimeMillis();
+		lockExecStates(messages, queueTables);
+		final long[] ids = reserveIds(messages.size());
 		insertExecutionJDBCTemplate.batchUpdate(insertQueueSQL, new BatchPreparedStatementSetter() {
 			@Override
 			public void setValues(PreparedStatement ps, int i) throws SQLException {
 				ExecutionMessage msg = messages.get(i);
-				ps.setLong(1, idGen.next());
+				ps.setLong(1, ids[i]);
 				ps.setLong(2, msg.getExecStateId());
 				ps.setString(3, msg.getWorkerId());
 				ps.setString(4, msg.getWorkerGroup());
@@ -245,6 +419,10 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 				ps.setInt(6, msg.getMsgSeqId());
 				ps.setLong(7, Calendar.getInstance().getTimeInMillis());
 				ps.setLong(8, version);
+				ps.setString(9, msg.getBranchId());
+				ps.setString(10, msg.getSplitId());
+				ps.setString(11, msg.getPauseReason() == null ? null : msg.getPauseReason().name());
+				ps.setInt(12, msg.getPriority());
 			}
 
 			@Override
@@ -252,10 +430,66 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 				return messages.size();
 			}
 		});
+
+		// must run after the insert of the whole batch - a batch may hold several messages of the same EXEC_STATE_ID
+		for (String queueTable : queueTables) {
+			insertExecutionJDBCTemplate.batchUpdate(writeSql(UPDATE_QUEUE_PREVIOUS_LATEST, queueTable), new BatchPreparedStatementSetter() {
+				@Override
+				public void setValues(PreparedStatement ps, int i) throws SQLException {
+					ExecutionMessage msg = messages.get(i);
+					ps.setLong(1, msg.getExecStateId());
+					ps.setInt(2, msg.getMsgSeqId());
+				}
+
+				@Override
+				public int getBatchSize() {
+					return messages.size();
+				}
+			});
+			String notLatestSQL = writeSql(UPDATE_QUEUE_INSERTED_NOT_LATEST, queueTables.get(0)).replace(":higherQueues", queueTable);
+			insertExecutionJDBCTemplate.batchUpdate(notLatestSQL, new BatchPreparedStatementSetter() {
+				@Override
+				public void setValues(PreparedStatement ps, int i) throws SQLException {
+					ExecutionMessage msg = messages.get(i);
+					ps.setLong(1, msg.getExecStateId());
+					ps.setInt(2, msg.getMsgSeqId());
+					ps.setLong(3, msg.getExecStateId());
+					ps.setInt(4, msg.getMsgSeqId());
+				}
+
+				@Override
+				public int getBatchSize() {
+					return messages.size();
+				}
+			});
+		}
 		t = System.currentTimeMillis() - t;
 		if (logger.isDebugEnabled()) logger.debug("Insert to queue: " + messages.size() + "/" + t + " messages/ms");
 	}
 
+	// the ids are locked in ascending order, so two batches that share states do not deadlock
+	private void lockExecStates(List<ExecutionMessage> messages, List<String> queueTables) {
+		Set<Long> execStateIds = new TreeSet<>();
+		for (ExecutionMessage msg : messages) {
+			execStateIds.add(msg.getExecStateId());
+		}
+		List<Long> sortedIds = new ArrayList<>(execStateIds);
+		for (String queueTable : queueTables) {
+			for (int start = 0; start < sortedIds.size(); start += LOCK_EXEC_STATES_BULK_SIZE) {
+				List<Long> bulk = sortedIds.subList(start, Math.min(sortedIds.size(), start + LOCK_EXEC_STATES_BULK_SIZE));
+				String lockSql = writeSql(lockExecStatesSql, queueTable).replace(":ids", StringUtils.repeat("?", ",", bulk.size()));
+				Object[] args = bulk.toArray();
+				logSQL(lockSql, args);
+				lockExecStatesJDBCTemplate.query(lockSql, args, new RowCallbackHandler() {
+					@Override
+					public void processRow(ResultSet rs) throws SQLException {
+						// the rows are only locked
+					}
+				});
+			}
+		}
+	}
+
 	@Override
 	public List<ExecutionMessage> pollRecovery(String workerId, int maxSize, ExecStatus... statuses) {
 
@@ -263,7 +497,7 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 		pollForRecoveryJDBCTemplate.setFetchSize(maxSize);
 
 		// prepare the sql statement
-		String sqlStatPrvTable = QUERY_WORKER_RECOVERY_SQL
+		String sqlStatPrvTable = readSql(QUERY_WORKER_RECOVERY_SQL)
 				.replaceAll(":status", StringUtils.repeat("?", ",", statuses.length));
 
 		// prepare the argument
@@ -287,7 +521,7 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 		pollJDBCTemplate.setFetchSize(maxSize);
 
 		// prepare the sql statement
-		String sqlStat = QUERY_WORKER_SQL
+		String sqlStat = readSql(QUERY_WORKER_SQL)
 				.replaceAll(":status", StringUtils.repeat("?", ",", statuses.length));
 
 		// prepare the argument
@@ -304,15 +538,105 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 	}
 
 	@Override
-	public void deleteFinishedSteps(Set<Long> ids) {
-		if (ids == null || ids.size() == 0)
+	public List<ExecutionMessage> claimMessages(String workerId, int maxSize, long version) {
+		final Map<Long, ExecutionMessage> claimed = new LinkedHashMap<>();
+		long createTime = Calendar.getInstance().getTimeInMillis();
+		// a locking read can not run over a union, so each partition is claimed on its own
+		List<String> queueTables = queueTables();
+		for (int i = 0; i < queueTables.size(); i++) {
+			if (claimed.size() >= maxSize) {
+				break;
+			}
+			claimMessages(queueTables.get(i), workerId, maxSize - claimed.size(), version, createTime, claimed);
+		}
+		if (claimed.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		// phase 2 - fetch the payloads of all the claimed messages in one query
+		Long[] execStateIds = claimed.keySet().toArray(new Long[claimed.size()]);
+		String payloadSql = readSql(QUERY_MSG_ID_AND_PAYLOAD_BY_EXECUTION_IDS).replace(":IDS", StringUtils.repeat("?", ",", execStateIds.length));
+		findPayloadByExecutionIdsJDBCTemplate.query(payloadSql, execStateIds, new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				ExecutionMessage msg = claimed.get(rs.getLong("ID"));
+				msg.setMsgId(rs.getString("MSG_ID"));
+				msg.setPayload(new Payload(rs.getBytes("PAYLOAD")));
+			}
+		});
+
+		List<ExecutionMessage> result = new ArrayList<>(claimed.size());
+		for (ExecutionMessage msg : claimed.values()) {
+			if (msg.getPayload() == null) {
+				logger.warn("Execution state " + msg.getExecStateId() + " was not found for claimed message, it will be recovered");
+				continue;
+			}
+			msg.setStatus(ExecStatus.SENT);
+			msg.incMsgSeqId();
+			msg.setCreateDate(createTime);
+			result.add(msg);
+		}
+		return result;
+	}
+
+	private void claimMessages(String queueTable, String workerId, int maxSize, long version, long createTime,
+							   final Map<Long, ExecutionMessage> claimed) {
+		claimMessagesJDBCTemplate.setMaxRows(maxSize);
+		claimMessagesJDBCTemplate.setFetchSize(maxSize);
+
+		// phase 1 - lock and read the ids of the assigned messages, without their payloads
+		final List<Long> queueIds = new ArrayList<>();
+		final RowMapper<ExecutionMessage> rowMapper = new ExecutionMessageWithoutPayloadRowMapper();
+		String claimSql = writeSql(claimMessagesSql, queueTable);
+		logSQL(claimSql, workerId, ExecStatus.ASSIGNED.getNumber());
+		claimMessagesJDBCTemplate.query(claimSql, new Object[]{workerId, ExecStatus.ASSIGNED.getNumber()}, new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				queueIds.add(rs.getLong("ID"));
+				claimed.put(rs.getLong("EXEC_STATE_ID"), rowMapper.mapRow(rs, queueIds.size()));
+			}
+		});
+		if (queueIds.isEmpty()) {
 			return;
+		}
+
+		// move them to SENT in place, the unique constraint on (EXEC_STATE_ID, MSG_SEQ_ID) still protects from a concurrent recovery
+		String updateSql = writeSql(UPDATE_CLAIMED_MESSAGES, queueTable).replaceAll(":ids", StringUtils.repeat("?", ",", queueIds.size()));
+		List<Object> updateArgs = new ArrayList<>(queueIds.size() + 4);
+		updateArgs.add(ExecStatus.SENT.getNumber());
+		updateArgs.add(createTime);
+		updateArgs.add(version);
+		updateArgs.addAll(queueIds);
+		updateArgs.add(ExecStatus.ASSIGNED.getNumber());
+		logSQL(updateSql, updateArgs.toArray());
+		int updatedRows = updateClaimedMessagesJDBCTemplate.update(updateSql, updateArgs.toArray());
+		if (updatedRows != queueIds.size()) {
+			throw new IllegalStateException("Claimed " + queueIds.size() + " messages for worker " + workerId + " but only " + updatedRows + " were moved to SENT");
+		}
+	}
+
+	@Override
+	public void deleteFinishedSteps(final long[] ids) {
+		if (ids == null || ids.length == 0)
+			return;
+		if (isPartitioned()) {
+			// finished steps are dropped with their partition
+			return;
+		}
 
 		// Access STATES first and then QUEUES - same order as ExecutionQueueService#enqueue (prevents deadlocks on MSSQL)
-		String query = QUERY_DELETE_FINISHED_STEPS_FROM_STATES.replaceAll(":ids", StringUtils.repeat("?", ",", ids.size()));
+		String query = QUERY_DELETE_FINISHED_STEPS_FROM_STATES.replaceAll(":ids", StringUtils.repeat("?", ",", ids.length));
 
-		Object[] args = ids.toArray(new Object[ids.size()]);
-		logSQL(query,args);
+		// the ids are bound as primitives, the page of the cleaner is not copied into boxed longs
+		PreparedStatementSetter args = new PreparedStatementSetter() {
+			@Override
+			public void setValues(PreparedStatement ps) throws SQLException {
+				for (int i = 0; i < ids.length; i++) {
+					ps.setLong(i + 1, ids[i]);
+				}
+			}
+		};
+		if (logger.isDebugEnabled()) logSQL(query, ArrayUtils.toObject(ids));
 
 		int deletedRows = deleteFinishedStepsJDBCTemplate.update(query, args); //MUST NOT set here maxRows!!!! It must delete all without limit!!!
 
@@ -320,8 +644,8 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 			logger.debug("Deleted " + deletedRows + " rows of finished steps from OO_EXECUTION_STATES table.");
 		}
 
-		query = QUERY_DELETE_FINISHED_STEPS_FROM_QUEUES.replaceAll(":ids", StringUtils.repeat("?", ",", ids.size()));
-		logSQL(query,args);
+		query = QUERY_DELETE_FINISHED_STEPS_FROM_QUEUES.replaceAll(":ids", StringUtils.repeat("?", ",", ids.length));
+		if (logger.isDebugEnabled()) logSQL(query, ArrayUtils.toObject(ids));
 
 		deletedRows = deleteFinishedStepsJDBCTemplate.update(query, args); //MUST NOT set here maxRows!!!! It must delete all without limit!!!
 
@@ -331,19 +655,30 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 	}
 
 	@Override
-	public Set<Long> getFinishedExecStateIds() {
-		getFinishedExecStateIdsJDBCTemplate.setMaxRows(1000000);
-		getFinishedExecStateIdsJDBCTemplate.setFetchSize(1000000);
-
-		List<Long> result = doSelectWithTemplate(getFinishedExecStateIdsJDBCTemplate, SELECT_FINISHED_STEPS_IDS, new SingleColumnRowMapper<>(Long.class));
-
-		return new HashSet<>(result);
+	public long[] getFinishedExecStateIds(long afterId, int maxSize) {
+		if (isPartitioned()) {
+			return new long[0];
+		}
+		getFinishedExecStateIdsJDBCTemplate.setMaxRows(maxSize);
+		getFinishedExecStateIdsJDBCTemplate.setFetchSize(Math.min(maxSize, FINISHED_STEPS_FETCH_SIZE));
+
+		// the ids are streamed into a primitive buffer instead of a list of boxed longs
+		final long[] buffer = new long[maxSize];
+		final int[] size = new int[1];
+		logSQL(SELECT_FINISHED_STEPS_IDS_PAGE, afterId);
+		getFinishedExecStateIdsJDBCTemplate.query(SELECT_FINISHED_STEPS_IDS_PAGE, new Object[]{afterId}, new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				buffer[size[0]++] = rs.getLong(1);
+			}
+		});
+		return size[0] == maxSize ? buffer : Arrays.copyOf(buffer, size[0]);
 	}
 
 
 	public List<ExecutionMessage> pollMessagesWithoutAck(int maxSize, long minVersionAllowed) {
 
-		String sqlStat = QUERY_MESSAGES_WITHOUT_ACK_SQL;
+		String sqlStat = readSql(QUERY_MESSAGES_WITHOUT_ACK_SQL);
 
 		pollMessagesWithoutAckJDBCTemplate.setMaxRows(maxSize);
 		pollMessagesWithoutAckJDBCTemplate.setFetchSize(maxSize);
@@ -385,10 +720,11 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 		};
 
 		long time = System.currentTimeMillis();
-		Integer result = countMessagesWithoutAckForWorkerJDBCTemplate.queryForObject(QUERY_COUNT_MESSAGES_WITHOUT_ACK_FOR_WORKER_SQL, values,Integer.class);
+		String sqlStat = readSql(QUERY_COUNT_MESSAGES_WITHOUT_ACK_FOR_WORKER_SQL);
+		Integer result = countMessagesWithoutAckForWorkerJDBCTemplate.queryForObject(sqlStat, values,Integer.class);
 
 		if (logger.isTraceEnabled())
-			logger.trace("Query [" + QUERY_COUNT_MESSAGES_WITHOUT_ACK_FOR_WORKER_SQL + "] took " + (System.currentTimeMillis() - time) + " ms");
+			logger.trace("Query [" + sqlStat + "] took " + (System.currentTimeMillis() - time) + " ms");
 
 		if (logger.isDebugEnabled()) {
 			logger.debug("Got msg without ack :" + result + ",for version:" + minVersionAllowed + ",for worker:" + workerUuid);
@@ -399,7 +735,7 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 	@Override
 	public Map<Long, Payload> findPayloadByExecutionIds(Long... ids) {
 		String qMarks = StringUtils.repeat("?", ",", ids.length);
-		String sqlStat = QUERY_PAYLOAD_BY_EXECUTION_IDS.replace(":IDS", qMarks);
+		String sqlStat = readSql(QUERY_PAYLOAD_BY_EXECUTION_IDS).replace(":IDS", qMarks);
 
 		final Map<Long, Payload> result = new HashMap<>();
 		findPayloadByExecutionIdsJDBCTemplate.query(sqlStat, ids, new RowCallbackHandler() {
@@ -421,7 +757,7 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 		findByStatusesJDBCTemplate.setFetchSize(maxSize);
 
 		// prepare the sql statement
-		String sqlStat = QUERY_MESSAGES_BY_STATUSES
+		String sqlStat = readSql(QUERY_MESSAGES_BY_STATUSES)
 				.replaceAll(":status", StringUtils.repeat("?", ",", statuses.length)); // set ? according to the number of parameters
 
 		Object[] values = new Object[statuses.length];
@@ -442,7 +778,7 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 	public List<String> getBusyWorkers(ExecStatus... statuses) {
 		//todo Change to stream when score is upgraded to java 8
 		// prepare the sql statement
-		String sqlStat = BUSY_WORKERS_SQL
+		String sqlStat = readSql(BUSY_WORKERS_SQL)
 				.replaceAll(":status", StringUtils.repeat("?", ",", statuses.length));
 		// prepare the argument
 		Object[] values = new Object[statuses.length];
@@ -453,6 +789,12 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 		return doSelectWithTemplate(getBusyWorkersTemplate, sqlStat, new BusyWorkerRowMapper(), values);
 	}
 
+	@Override
+	public boolean hasMessages(String workerId, ExecStatus status) {
+		String sqlStat = readSql(QUERY_HAS_MESSAGES_SQL);
+		return !doSelectWithTemplate(hasMessagesJDBCTemplate, sqlStat, new SingleColumnRowMapper<>(Long.class), workerId, status.getNumber()).isEmpty();
+	}
+
 	private class BusyWorkerRowMapper implements RowMapper<String> {
 		@Override
 		public String mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -465,31 +807,40 @@ public class ExecutionQueueRepositoryImpl implements ExecutionQueueRepository {
 	private class ExecutionMessageRowMapper implements RowMapper<ExecutionMessage> {
 		@Override
 		public ExecutionMessage mapRow(ResultSet rs, int rowNum) throws SQLException {
-			return new ExecutionMessage(rs.getLong("EXEC_STATE_ID"),
+			return mapHeaders(rs, new ExecutionMessage(rs.getLong("EXEC_STATE_ID"),
 					rs.getString("ASSIGNED_WORKER"),
 					rs.getString("EXEC_GROUP"),
 					rs.getString("MSG_ID"),
 					ExecStatus.find(rs.getInt("STATUS")),
 					new Payload(rs.getBytes("PAYLOAD")),
 					rs.getInt("MSG_SEQ_ID"),
-					rs.getLong("CREATE_TIME"));
+					rs.getLong("CREATE_TIME")));
 		}
 	}
 
 	private class ExecutionMessageWithoutPayloadRowMapper implements RowMapper<ExecutionMessage> {
 		@Override
 		public ExecutionMessage mapRow(ResultSet rs, int rowNum) throws SQLException {
-			return new ExecutionMessage(rs.getLong("EXEC_STATE_ID"),
+			return mapHeaders(rs, new ExecutionMessage(rs.getLong("EXEC_STATE_ID"),
 					rs.getString("ASSIGNED_WORKER"),
 					rs.getString("EXEC_GROUP"),
 					"-1",
 					ExecStatus.find(rs.getInt("STATUS")),
 					null,
 					rs.getInt("MSG_SEQ_ID"),
-					rs.getLong("CREATE_TIME"));
+					rs.getLong("CREATE_TIME")));
 		}
 	}
 
+	private static ExecutionMessage mapHeaders(ResultSet rs, ExecutionMessage msg) throws SQLException {
+		msg.setBranchId(rs.getString("BRANCH_ID"));
+		msg.setSplitId(rs.getString("SPLIT_ID"));
+		String pauseReason = rs.getString("PAUSE_REASON");
+		msg.setPauseReason(pauseReason == null ? null : PauseReason.valueOf(pauseReason));
+		msg.setPriority(rs.getInt("PRIORITY"));
+		return msg;
+	}
+
 	private <T> List<T> doSelectWithTemplate(JdbcTemplate jdbcTemplate, String sql, RowMapper<T> rowMapper, Object... params) {
 		logSQL(sql,params);
 		try {
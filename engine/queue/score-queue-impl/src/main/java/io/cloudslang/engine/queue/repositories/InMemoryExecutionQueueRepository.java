@@ -0,0 +1,488 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.engine.queue.repositories;
+
+import io.cloudslang.engine.data.IdentityGenerator;
+import io.cloudslang.engine.queue.entities.ExecStatus;
+import io.cloudslang.engine.queue.entities.ExecutionMessage;
+import io.cloudslang.engine.queue.entities.Payload;
+import io.cloudslang.score.facade.execution.PauseReason;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * In-memory implementation of the execution queue, for embedded and test deployments
+ * where the engine and the worker run in the same JVM and the queue does not need to survive a restart.
+ *
+ * Only the latest state of every message is kept, indexed by status and assigned worker and by status and worker group,
+ * and ordered by create time, so the poll, recovery and cleaner queries touch only the live messages they return.
+ * Payloads are shared with the caller instead of being copied.
+ *
+ * The indexes are concurrent sets, the queries read them without locking. The changes of an execution state are
+ * serialized by a lock striped by its id, so workers that claim and report their own messages do not wait for each other.
+ * A reader may see an entry that is being replaced for a moment - it checks the entry is still the latest one before using it.
+ *
+ * The repository does not take part in database transactions - a failed transaction does not roll back its changes.
+ * The unique constraint on (EXEC_STATE_ID, MSG_SEQ_ID) is kept, an insert of an existing sequence throws
+ * {@link DuplicateKeyException} like the database would.
+ */
+public class InMemoryExecutionQueueRepository implements ExecutionQueueRepository {
+
+	private Logger logger = Logger.getLogger(getClass());
+
+	private static final Set<ExecStatus> FINISHED_STATUSES = EnumSet.of(ExecStatus.FINISHED, ExecStatus.TERMINATED, ExecStatus.FAILED);
+
+	@Autowired
+	private IdentityGenerator idGen;
+
+	//exec state id -> state (msg id and payload)
+	private final Map<Long, ExecutionState> states = new ConcurrentHashMap<>();
+
+	private static final int STATE_LOCKS = 256;
+
+	//exec state id -> latest queue entry
+	private final ConcurrentMap<Long, QueueEntry> latest = new ConcurrentHashMap<>();
+
+	//status -> worker -> latest queue entries ordered by create time
+	private final Map<ExecStatus, ConcurrentMap<String, NavigableSet<QueueEntry>>> workerIndex = new EnumMap<>(ExecStatus.class);
+
+	//status -> worker group -> latest queue entries ordered by create time
+	private final Map<ExecStatus, ConcurrentMap<String, NavigableSet<QueueEntry>>> groupIndex = new EnumMap<>(ExecStatus.class);
+
+	//exec state ids that have a FINISHED, TERMINATED or FAILED entry
+	private final NavigableSet<Long> finished = new ConcurrentSkipListSet<>();
+
+	private final Object[] stateLocks = new Object[STATE_LOCKS];
+
+	public InMemoryExecutionQueueRepository() {
+		for (ExecStatus status : ExecStatus.values()) {
+			workerIndex.put(status, new ConcurrentHashMap<String, NavigableSet<QueueEntry>>());
+			groupIndex.put(status, new ConcurrentHashMap<String, NavigableSet<QueueEntry>>());
+		}
+		for (int i = 0; i < STATE_LOCKS; i++) {
+			stateLocks[i] = new Object();
+		}
+	}
+
+	@Override
+	public long generateExecStateId() {
+		return idGen.next();
+	}
+
+	@Override
+	public void insertExecutionStates(List<ExecutionMessage> stateMessages) {
+		for (ExecutionMessage msg : stateMessages) {
+			ExecutionState previous = states.put(msg.getExecStateId(), new ExecutionState(msg.getMsgId(), msg.getPayload()));
+			if (previous != null) {
+				states.put(msg.getExecStateId(), previous);
+				throw new DuplicateKeyException("Execution state " + msg.getExecStateId() + " already exists");
+			}
+		}
+	}
+
+	@Override
+	public void insertExecutionQueue(List<ExecutionMessage> messages, long version) {
+		insertExecutionQueue(messages, version, Calendar.getInstance().getTimeInMillis());
+	}
+
+	void insertExecutionQueue(List<ExecutionMessage> messages, long version, long createTime) {
+		for (ExecutionMessage msg : messages) {
+			QueueEntry entry = new QueueEntry(msg.getExecStateId(), msg.getWorkerId(), msg.getWorkerGroup(),
+					msg.getStatus(), msg.getMsgSeqId(), createTime, version, msg.getBranchId(), msg.getSplitId(), msg.getPauseReason(), msg.getPriority());
+			synchronized (stateLock(entry.execStateId)) {
+				QueueEntry current = latest.get(entry.execStateId);
+				if (current != null && current.msgSeqId == entry.msgSeqId) {
+					throw new DuplicateKeyException("Queue entry " + entry.execStateId + "/" + entry.msgSeqId + " already exists");
+				}
+				if (FINISHED_STATUSES.contains(entry.status)) {
+					finished.add(entry.execStateId);
+				}
+				//an older sequence is only history - it does not change the latest state
+				if (current == null || current.msgSeqId < entry.msgSeqId) {
+					replace(current, entry);
+				}
+			}
+		}
+	}
+
+	@Override
+	public List<ExecutionMessage> poll(String workerId, int maxSize, ExecStatus... statuses) {
+		List<QueueEntry> entries = new ArrayList<>();
+		for (ExecStatus status : statuses) {
+			NavigableSet<QueueEntry> workerEntries = workerIndex.get(status).get(workerId);
+			if (workerEntries != null) {
+				collect(workerEntries, entries, maxSize);
+			}
+		}
+		if (statuses.length > 1) {
+			Collections.sort(entries, QueueEntry.BY_PRIORITY);
+		}
+		return toMessagesWithPayload(entries, maxSize);
+	}
+
+	@Override
+	public List<ExecutionMessage> pollRecovery(String workerId, int maxSize, ExecStatus... statuses) {
+		return poll(workerId, maxSize, statuses);
+	}
+
+	@Override
+	public boolean hasMessages(String workerId, ExecStatus status) {
+		NavigableSet<QueueEntry> workerEntries = workerIndex.get(status).get(workerId);
+		if (workerEntries != null) {
+			for (QueueEntry entry : workerEntries) {
+				if (isLatest(entry)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public List<ExecutionMessage> claimMessages(String workerId, int maxSize, long version) {
+		long createTime = Calendar.getInstance().getTimeInMillis();
+		return applyClaim(selectClaim(workerId, maxSize, version, createTime), version);
+	}
+
+	/*
+	 * A claim is split in two so that JournalExecutionQueueRepository can write it ahead:
+	 * selectClaim builds the SENT messages without changing the queue, applyClaim moves the entries to SENT.
+	 */
+
+	List<ExecutionMessage> selectClaim(String workerId, int maxSize, long version, long createTime) {
+		NavigableSet<QueueEntry> assigned = workerIndex.get(ExecStatus.ASSIGNED).get(workerId);
+		if (assigned == null) {
+			return new ArrayList<>();
+		}
+		List<QueueEntry> entries = new ArrayList<>();
+		collect(assigned, entries, maxSize);
+
+		List<ExecutionMessage> result = new ArrayList<>(entries.size());
+		for (QueueEntry entry : entries) {
+			QueueEntry sent = new QueueEntry(entry.execStateId, entry.workerId, entry.workerGroup,
+					ExecStatus.SENT, entry.msgSeqId + 1, createTime, version, entry.branchId, entry.splitId, entry.pauseReason, entry.priority);
+			ExecutionState state = states.get(entry.execStateId);
+			result.add(state == null ? sent.toMessage() : sent.toMessage(state.msgId, state.payload));
+		}
+		return result;
+	}
+
+	//returns the claimed messages that have an execution state, an entry that changed since the select is skipped
+	List<ExecutionMessage> applyClaim(List<ExecutionMessage> sentMessages, long version) {
+		List<ExecutionMessage> result = new ArrayList<>(sentMessages.size());
+		for (ExecutionMessage msg : sentMessages) {
+			synchronized (stateLock(msg.getExecStateId())) {
+				QueueEntry current = latest.get(msg.getExecStateId());
+				if (current == null || current.status != ExecStatus.ASSIGNED || current.msgSeqId != msg.getMsgSeqId() - 1) {
+					continue;
+				}
+				replace(current, new QueueEntry(current.execStateId, current.workerId, current.workerGroup, ExecStatus.SENT, msg.getMsgSeqId(),
+						msg.getCreateDate(), version, current.branchId, current.splitId, current.pauseReason, current.priority));
+			}
+			if (!states.containsKey(msg.getExecStateId())) {
+				logger.warn("Execution state " + msg.getExecStateId() + " was not found for claimed message, it will be recovered");
+				continue;
+			}
+			result.add(msg);
+		}
+		return result;
+	}
+
+	@Override
+	public List<ExecutionMessage> pollMessagesWithoutAck(int maxSize, long minVersionAllowed) {
+		List<ExecutionMessage> result = new ArrayList<>();
+		for (NavigableSet<QueueEntry> groupEntries : groupIndex.get(ExecStatus.SENT).values()) {
+			for (QueueEntry entry : groupEntries) {
+				if (result.size() >= maxSize) {
+					return result;
+				}
+				if (entry.version < minVersionAllowed && isLatest(entry)) {
+					result.add(entry.toMessage());
+				}
+			}
+		}
+		if (result.size() > 0) {
+			logger.warn("Pool " + result.size() + " messages without ack, version = " + minVersionAllowed);
+		}
+		return result;
+	}
+
+	@Override
+	public Integer countMessagesWithoutAckForWorker(int maxSize, long minVersionAllowed, String workerUuid) {
+		int count = 0;
+		NavigableSet<QueueEntry> workerEntries = workerIndex.get(ExecStatus.SENT).get(workerUuid);
+		if (workerEntries != null) {
+			for (QueueEntry entry : workerEntries) {
+				if (entry.version < minVersionAllowed && isLatest(entry)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public Map<Long, Payload> findPayloadByExecutionIds(Long... ids) {
+		Map<Long, Payload> result = new HashMap<>();
+		for (Long id : ids) {
+			ExecutionState state = states.get(id);
+			if (state != null) {
+				result.put(id, state.payload);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public void deleteFinishedSteps(long[] ids) {
+		if (ids == null || ids.length == 0)
+			return;
+
+		delete(ids);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Deleted " + ids.length + " finished steps from the in-memory queue");
+		}
+	}
+
+	@Override
+	public long[] getFinishedExecStateIds(long afterId, int maxSize) {
+		List<Long> page = new ArrayList<>();
+		Iterator<Long> iterator = finished.tailSet(afterId, false).iterator();
+		while (page.size() < maxSize && iterator.hasNext()) {
+			page.add(iterator.next());
+		}
+		long[] result = new long[page.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = page.get(i);
+		}
+		return result;
+	}
+
+	@Override
+	public List<ExecutionMessage> findByStatuses(int maxSize, ExecStatus... statuses) {
+		List<ExecutionMessage> result = new ArrayList<>();
+		for (ExecStatus status : statuses) {
+			for (NavigableSet<QueueEntry> groupEntries : groupIndex.get(status).values()) {
+				for (QueueEntry entry : groupEntries) {
+					if (result.size() >= maxSize) {
+						return result;
+					}
+					if (isLatest(entry)) {
+						result.add(entry.toMessage());
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public List<String> getBusyWorkers(ExecStatus... statuses) {
+		Set<String> busyWorkers = new HashSet<>();
+		for (ExecStatus status : statuses) {
+			for (Map.Entry<String, NavigableSet<QueueEntry>> workerEntries : workerIndex.get(status).entrySet()) {
+				if (!workerEntries.getValue().isEmpty()) {
+					busyWorkers.add(workerEntries.getKey());
+				}
+			}
+		}
+		return new ArrayList<>(busyWorkers);
+	}
+
+	/*
+	 * Restore methods rebuild the queue from a durable copy, see JournalExecutionQueueRepository.
+	 * They are idempotent - applying the same change twice has no effect.
+	 */
+
+	void restoreState(long execStateId, String msgId, Payload payload) {
+		states.put(execStateId, new ExecutionState(msgId, payload));
+	}
+
+	void restoreQueueEntry(long execStateId, String workerId, String workerGroup, ExecStatus status, int msgSeqId, long createTime, long version,
+						   String branchId, String splitId, PauseReason pauseReason, int priority) {
+		synchronized (stateLock(execStateId)) {
+			QueueEntry current = latest.get(execStateId);
+			if (FINISHED_STATUSES.contains(status)) {
+				finished.add(execStateId);
+			}
+			if (current == null || current.msgSeqId <= msgSeqId) {
+				replace(current, new QueueEntry(execStateId, workerId, workerGroup, status, msgSeqId, createTime, version, branchId, splitId, pauseReason, priority));
+			}
+		}
+	}
+
+	void restoreDeletion(long execStateId) {
+		delete(new long[]{execStateId});
+	}
+
+	private void delete(long[] ids) {
+		for (long id : ids) {
+			synchronized (stateLock(id)) {
+				states.remove(id);
+				finished.remove(id);
+				replace(latest.get(id), null);
+			}
+		}
+	}
+
+	private Object stateLock(long execStateId) {
+		int hash = (int) (execStateId ^ (execStateId >>> 32));
+		return stateLocks[(hash ^ (hash >>> 16)) & (STATE_LOCKS - 1)];
+	}
+
+	//must be called under the lock of the exec state, a null entry removes the current one
+	private void replace(QueueEntry current, QueueEntry entry) {
+		if (current != null) {
+			entries(workerIndex, current.status, current.workerId).remove(current);
+			entries(groupIndex, current.status, groupKey(current.workerGroup)).remove(current);
+			latest.remove(current.execStateId);
+		}
+		if (entry != null) {
+			latest.put(entry.execStateId, entry);
+			entries(workerIndex, entry.status, entry.workerId).add(entry);
+			entries(groupIndex, entry.status, groupKey(entry.workerGroup)).add(entry);
+		}
+	}
+
+	//the sets are not removed when they empty out, a reader or a writer of another exec state may hold them
+	private NavigableSet<QueueEntry> entries(Map<ExecStatus, ConcurrentMap<String, NavigableSet<QueueEntry>>> index, ExecStatus status, String key) {
+		ConcurrentMap<String, NavigableSet<QueueEntry>> byKey = index.get(status);
+		NavigableSet<QueueEntry> entries = byKey.get(key);
+		if (entries == null) {
+			NavigableSet<QueueEntry> created = new ConcurrentSkipListSet<>(QueueEntry.BY_PRIORITY);
+			entries = byKey.putIfAbsent(key, created);
+			if (entries == null) {
+				entries = created;
+			}
+		}
+		return entries;
+	}
+
+	private String groupKey(String workerGroup) {
+		return workerGroup == null ? "" : workerGroup;
+	}
+
+	private boolean isLatest(QueueEntry entry) {
+		return latest.get(entry.execStateId) == entry;
+	}
+
+	private void collect(NavigableSet<QueueEntry> source, List<QueueEntry> target, int maxSize) {
+		Iterator<QueueEntry> iterator = source.iterator();
+		int added = 0;
+		while (added < maxSize && iterator.hasNext()) {
+			QueueEntry entry = iterator.next();
+			if (isLatest(entry)) {
+				target.add(entry);
+				added++;
+			}
+		}
+	}
+
+	private List<ExecutionMessage> toMessagesWithPayload(List<QueueEntry> entries, int maxSize) {
+		List<ExecutionMessage> result = new ArrayList<>(Math.min(entries.size(), maxSize));
+		for (QueueEntry entry : entries) {
+			if (result.size() >= maxSize) {
+				break;
+			}
+			ExecutionState state = states.get(entry.execStateId);
+			if (state != null) {
+				result.add(entry.toMessage(state.msgId, state.payload));
+			}
+		}
+		return result;
+	}
+
+	private static class ExecutionState {
+		private final String msgId;
+		private final Payload payload;
+
+		private ExecutionState(String msgId, Payload payload) {
+			this.msgId = msgId;
+			this.payload = payload;
+		}
+	}
+
+	private static class QueueEntry {
+		// same order as the poll of the database queue - see ExecutionQueueRepositoryImpl
+		private static final Comparator<QueueEntry> BY_PRIORITY = new Comparator<QueueEntry>() {
+			@Override
+			public int compare(QueueEntry o1, QueueEntry o2) {
+				int result = Long.compare(o1.priorityTime(), o2.priorityTime());
+				if (result == 0) {
+					result = Long.compare(o1.execStateId, o2.execStateId);
+				}
+				return result != 0 ? result : Integer.compare(o1.msgSeqId, o2.msgSeqId);
+			}
+		};
+
+		private final long execStateId;
+		private final String workerId;
+		private final String workerGroup;
+		private final ExecStatus status;
+		private final int msgSeqId;
+		private final long createTime;
+		private final long version;
+		private final String branchId;
+		private final String splitId;
+		private final PauseReason pauseReason;
+		private final int priority;
+
+		private QueueEntry(long execStateId, String workerId, String workerGroup, ExecStatus status, int msgSeqId, long createTime, long version,
+						   String branchId, String splitId, PauseReason pauseReason, int priority) {
+			this.execStateId = execStateId;
+			this.workerId = workerId;
+			this.workerGroup = workerGroup;
+			this.status = status;
+			this.msgSeqId = msgSeqId;
+			this.createTime = createTime;
+			this.version = version;
+			this.branchId = branchId;
+			this.splitId = splitId;
+			this.pauseReason = pauseReason;
+			this.priority = priority;
+		}
+
+		private long priorityTime() {
+			return createTime - priority * ExecutionMessage.PRIORITY_AGING_MILLIS;
+		}
+
+		private ExecutionMessage toMessage() {
+			return toMessage("-1", null);
+		}
+
+		private ExecutionMessage toMessage(String msgId, Payload payload) {
+			ExecutionMessage msg = new ExecutionMessage(execStateId, workerId, workerGroup, msgId, status, payload, msgSeqId, createTime);
+			msg.setBranchId(branchId);
+			msg.setSplitId(splitId);
+			msg.setPauseReason(pauseReason);
+			msg.setPriority(priority);
+			return msg;
+		}
+	}
+}
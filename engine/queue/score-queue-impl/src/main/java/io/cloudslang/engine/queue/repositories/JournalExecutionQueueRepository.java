@@ -0,0 +1,648 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.engine.queue.repositories;
+
+import io.cloudslang.engine.queue.entities.ExecStatus;
+import io.cloudslang.engine.queue.entities.ExecutionMessage;
+import io.cloudslang.engine.queue.entities.Payload;
+import io.cloudslang.score.facade.execution.PauseReason;
+import org.apache.log4j.Logger;
+import org.springframework.dao.DuplicateKeyException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+/**
+ * Durable execution queue for a single engine node, backed by append-only journal files.
+ *
+ * Every change - a new execution state, a new queue entry or a deletion - is appended as a record to the active
+ * memory-mapped segment file and applied to the in-memory queue, which serves all the queries, only once the record is on disk,
+ * so a poller never sees a change that a crash would lose.
+ * Concurrent writers share the fsync of the segment (group commit): a writer returns once a sync that started
+ * after its append has completed.
+ *
+ * On startup the segments are replayed in order to rebuild the queue, a torn record at the end of a segment ends its replay.
+ * The cleaner does not delete records: the oldest segment is dropped as a whole once it holds no live record,
+ * or once its live records are small enough to be carried forward to the active segment.
+ */
+public class JournalExecutionQueueRepository extends InMemoryExecutionQueueRepository {
+
+	private Logger logger = Logger.getLogger(getClass());
+
+	private static final String SEGMENT_PREFIX = "queue-";
+	private static final String SEGMENT_SUFFIX = ".journal";
+
+	private static final byte STATE_RECORD = 1;
+	private static final byte QUEUE_RECORD = 2;
+	private static final byte DELETE_RECORD = 3;
+
+	//record length and CRC of the record body
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	//a segment whose live records take less than this part of it is carried forward and dropped
+	private static final double CARRY_FORWARD_RATIO = 0.25;
+
+	private String directory = System.getProperty("queue.journal.dir");
+
+	private int segmentSize = Integer.getInteger("queue.journal.segment.size", 64 * 1024 * 1024);
+
+	private final Object writeLock = new Object();
+
+	private final LinkedList<Segment> segments = new LinkedList<>();
+
+	private Segment active;
+
+	private long nextSegmentId;
+
+	//total bytes appended and total bytes known to be on disk, used for the group commit
+	private long appendedBytes;
+	private long syncedBytes;
+	private boolean syncing;
+	private final Object syncMonitor = new Object();
+
+	//exec state id -> the record holding its state / its latest queue entry
+	private final Map<Long, RecordRef> stateRefs = new HashMap<>();
+	private final Map<Long, RecordRef> queueRefs = new HashMap<>();
+
+	private final ConcurrentMap<String, Object> claimLocks = new ConcurrentHashMap<>();
+
+	public void setDirectory(String directory) {
+		this.directory = directory;
+	}
+
+	public void setSegmentSize(int segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	@PostConstruct
+	public void init() throws IOException {
+		if (directory == null) {
+			throw new IllegalStateException("Queue journal directory is not set, use the queue.journal.dir system property");
+		}
+		File dir = new File(directory);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Failed to create queue journal directory " + dir.getAbsolutePath());
+		}
+		synchronized (writeLock) {
+			replay(dir);
+			active = createSegment(segmentSize);
+			reclaimSegments();
+		}
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		synchronized (writeLock) {
+			for (Segment segment : segments) {
+				segment.buffer.force();
+				segment.channel.close();
+			}
+		}
+	}
+
+	@Override
+	public void insertExecutionStates(List<ExecutionMessage> stateMessages) {
+		long appended;
+		synchronized (writeLock) {
+			for (ExecutionMessage msg : stateMessages) {
+				if (stateRefs.containsKey(msg.getExecStateId())) {
+					throw new DuplicateKeyException("Execution state " + msg.getExecStateId() + " already exists");
+				}
+			}
+			for (ExecutionMessage msg : stateMessages) {
+				RecordRef ref = append(stateRecord(msg.getExecStateId(), msg.getMsgId(), msg.getPayload()), 0);
+				release(stateRefs.put(msg.getExecStateId(), ref));
+			}
+			appended = appendedBytes;
+		}
+		sync(appended);
+		super.insertExecutionStates(stateMessages);
+	}
+
+	@Override
+	public void insertExecutionQueue(List<ExecutionMessage> messages, long version) {
+		long createTime = Calendar.getInstance().getTimeInMillis();
+		long appended;
+		synchronized (writeLock) {
+			for (ExecutionMessage msg : messages) {
+				RecordRef current = queueRefs.get(msg.getExecStateId());
+				if (current != null && current.msgSeqId == msg.getMsgSeqId()) {
+					throw new DuplicateKeyException("Queue entry " + msg.getExecStateId() + "/" + msg.getMsgSeqId() + " already exists");
+				}
+			}
+			appended = appendQueueEntries(messages, version, createTime);
+		}
+		sync(appended);
+		super.insertExecutionQueue(messages, version, createTime);
+	}
+
+	@Override
+	public List<ExecutionMessage> claimMessages(String workerId, int maxSize, long version) {
+		//a worker must not select its assigned messages again before the previous claim is applied
+		synchronized (claimLock(workerId)) {
+			long createTime = Calendar.getInstance().getTimeInMillis();
+			List<ExecutionMessage> sent = selectClaim(workerId, maxSize, version, createTime);
+			if (sent.isEmpty()) {
+				return sent;
+			}
+			long appended;
+			synchronized (writeLock) {
+				appended = appendQueueEntries(sent, version, createTime);
+			}
+			sync(appended);
+			return applyClaim(sent, version);
+		}
+	}
+
+	@Override
+	public void deleteFinishedSteps(long[] ids) {
+		if (ids == null || ids.length == 0)
+			return;
+
+		long appended;
+		synchronized (writeLock) {
+			for (long id : ids) {
+				//a deletion is not live, it only has to outlive the older segments, which are reclaimed first
+				release(append(deleteRecord(id), 0));
+				release(stateRefs.remove(id));
+				release(queueRefs.remove(id));
+			}
+			appended = appendedBytes;
+		}
+		sync(appended);
+		super.deleteFinishedSteps(ids);
+		synchronized (writeLock) {
+			reclaimSegments();
+		}
+	}
+
+	private Object claimLock(String workerId) {
+		Object claimLock = claimLocks.get(workerId);
+		if (claimLock == null) {
+			Object newLock = new Object();
+			claimLock = claimLocks.putIfAbsent(workerId, newLock);
+			if (claimLock == null) {
+				claimLock = newLock;
+			}
+		}
+		return claimLock;
+	}
+
+	//must be called under the write lock, returns the appended bytes to sync
+	private long appendQueueEntries(List<ExecutionMessage> messages, long version, long createTime) {
+		for (ExecutionMessage msg : messages) {
+			RecordRef ref = append(queueRecord(msg, version, createTime), msg.getMsgSeqId());
+			trackQueueEntry(msg.getExecStateId(), ref);
+		}
+		return appendedBytes;
+	}
+
+	//a queue entry is live only while it is the latest of its exec state, older sequences are history
+	private void trackQueueEntry(long execStateId, RecordRef ref) {
+		RecordRef current = queueRefs.get(execStateId);
+		if (current == null || current.msgSeqId <= ref.msgSeqId) {
+			queueRefs.put(execStateId, ref);
+			release(current);
+		} else {
+			release(ref);
+		}
+	}
+
+	private void release(RecordRef ref) {
+		if (ref != null) {
+			ref.segment.liveBytes -= ref.length;
+		}
+	}
+
+	/*************************************** segments ***************************************/
+
+	//must be called under the write lock
+	private RecordRef append(byte[] body, int msgSeqId) {
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		int length = RECORD_HEADER_SIZE + body.length;
+		if (active.buffer.remaining() < length) {
+			roll(length);
+		}
+		int offset = active.buffer.position();
+		active.buffer.putInt(body.length);
+		active.buffer.putInt((int) crc.getValue());
+		active.buffer.put(body);
+		return track(offset, length, msgSeqId);
+	}
+
+	//copies a whole record, header included, to the active segment
+	private RecordRef appendRaw(byte[] record, int msgSeqId) {
+		if (active.buffer.remaining() < record.length) {
+			roll(record.length);
+		}
+		int offset = active.buffer.position();
+		active.buffer.put(record);
+		return track(offset, record.length, msgSeqId);
+	}
+
+	private RecordRef track(int offset, int length, int msgSeqId) {
+		appendedBytes += length;
+		active.liveBytes += length;
+		return new RecordRef(active, offset, length, msgSeqId);
+	}
+
+	private void roll(int minSize) {
+		active.buffer.force();
+		try {
+			active = createSegment(Math.max(segmentSize, minSize));
+		} catch (IOException ex) {
+			throw new RuntimeException("Failed to create a new queue journal segment", ex);
+		}
+	}
+
+	private Segment createSegment(int size) throws IOException {
+		File file = new File(directory, String.format("%s%012d%s", SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+		Segment segment = new Segment(file, size);
+		segments.add(segment);
+		return segment;
+	}
+
+	/*
+	 * Group commit - one writer forces the active segment for everybody that appended before the force started,
+	 * the other writers wait for it. A segment is forced when it is rolled, so forcing the active one is enough.
+	 */
+	private void sync(long appended) {
+		while (true) {
+			synchronized (syncMonitor) {
+				while (syncing && syncedBytes < appended) {
+					try {
+						syncMonitor.wait();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new RuntimeException("Interrupted while waiting for the queue journal sync", ex);
+					}
+				}
+				if (syncedBytes >= appended) {
+					return;
+				}
+				syncing = true;
+			}
+			long target;
+			Segment segment;
+			synchronized (writeLock) {
+				target = appendedBytes;
+				segment = active;
+			}
+			boolean synced = false;
+			try {
+				segment.buffer.force();
+				synced = true;
+			} finally {
+				synchronized (syncMonitor) {
+					syncing = false;
+					if (synced) {
+						syncedBytes = Math.max(syncedBytes, target);
+					}
+					syncMonitor.notifyAll();
+				}
+			}
+		}
+	}
+
+	//must be called under the write lock
+	private void reclaimSegments() {
+		while (segments.size() > 1) {
+			Segment oldest = segments.getFirst();
+			if (oldest.liveBytes > oldest.writtenBytes() * CARRY_FORWARD_RATIO) {
+				return;
+			}
+			if (oldest.liveBytes > 0) {
+				carryForward(oldest, stateRefs);
+				carryForward(oldest, queueRefs);
+			}
+			//the carried records must be on disk before the segment is gone
+			active.buffer.force();
+			segments.removeFirst();
+			oldest.delete();
+			if (logger.isDebugEnabled()) {
+				logger.debug("Reclaimed queue journal segment " + oldest.file.getName());
+			}
+		}
+	}
+
+	private void carryForward(Segment segment, Map<Long, RecordRef> refs) {
+		for (Map.Entry<Long, RecordRef> entry : refs.entrySet()) {
+			RecordRef ref = entry.getValue();
+			if (ref.segment == segment) {
+				byte[] record = new byte[ref.length];
+				ByteBufferReader.read(segment.buffer, ref.offset, record);
+				entry.setValue(appendRaw(record, ref.msgSeqId));
+				release(ref);
+			}
+		}
+	}
+
+	/*************************************** replay ***************************************/
+
+	private void replay(File dir) throws IOException {
+		File[] files = dir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		Arrays.sort(files);
+		for (File file : files) {
+			String id = file.getName().substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length());
+			nextSegmentId = Long.parseLong(id) + 1;
+			active = new Segment(file, (int) file.length());
+			segments.add(active);
+			int records = replaySegment(active);
+			logger.info("Replayed " + records + " records of queue journal segment " + file.getName());
+		}
+	}
+
+	private int replaySegment(Segment segment) {
+		MappedByteBuffer buffer = segment.buffer;
+		int records = 0;
+		int end = 0;
+		while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+			int offset = buffer.position();
+			int bodyLength = buffer.getInt();
+			int crcValue = buffer.getInt();
+			//the unwritten part of a segment is zero filled
+			if (bodyLength <= 0 || bodyLength > buffer.remaining()) {
+				break;
+			}
+			byte[] body = new byte[bodyLength];
+			buffer.get(body);
+			CRC32 crc = new CRC32();
+			crc.update(body);
+			if ((int) crc.getValue() != crcValue) {
+				logger.warn("Queue journal segment " + segment.file.getName() + " has a torn record at " + offset + ", ignoring the rest of it");
+				break;
+			}
+			applyRecord(body, offset, RECORD_HEADER_SIZE + bodyLength);
+			records++;
+			end = buffer.position();
+		}
+		//replayed segments are never appended to, the position only marks the end of their data
+		buffer.position(end);
+		return records;
+	}
+
+	private void applyRecord(byte[] body, int offset, int length) {
+		ByteBufferReader reader = new ByteBufferReader(body);
+		byte type = reader.readByte();
+		long execStateId = reader.readLong();
+		switch (type) {
+			case STATE_RECORD:
+				String msgId = reader.readString();
+				byte[] payload = reader.readBytes();
+				restoreState(execStateId, msgId, payload == null ? null : new Payload(payload));
+				active.liveBytes += length;
+				release(stateRefs.put(execStateId, new RecordRef(active, offset, length, 0)));
+				break;
+			case QUEUE_RECORD:
+				String workerId = reader.readString();
+				String workerGroup = reader.readString();
+				ExecStatus status = ExecStatus.find(reader.readInt());
+				int msgSeqId = reader.readInt();
+				long createTime = reader.readLong();
+				long version = reader.readLong();
+				//records written before the routing headers end here
+				String branchId = reader.hasRemaining() ? reader.readString() : null;
+				String splitId = reader.hasRemaining() ? reader.readString() : null;
+				String pauseReason = reader.hasRemaining() ? reader.readString() : null;
+				int priority = reader.hasRemaining() ? reader.readInt() : 0;
+				restoreQueueEntry(execStateId, workerId, workerGroup, status, msgSeqId, createTime, version,
+						branchId, splitId, pauseReason == null ? null : PauseReason.valueOf(pauseReason), priority);
+				active.liveBytes += length;
+				trackQueueEntry(execStateId, new RecordRef(active, offset, length, msgSeqId));
+				break;
+			case DELETE_RECORD:
+				restoreDeletion(execStateId);
+				release(stateRefs.remove(execStateId));
+				release(queueRefs.remove(execStateId));
+				break;
+			default:
+				throw new IllegalStateException("Unknown queue journal record type " + type);
+		}
+	}
+
+	/*************************************** records ***************************************/
+
+	private byte[] stateRecord(long execStateId, String msgId, Payload payload) {
+		try {
+			RecordWriter writer = new RecordWriter(STATE_RECORD, execStateId);
+			writer.writeString(msgId);
+			writer.writeBytes(payload == null ? null : payload.getData());
+			return writer.toByteArray();
+		} catch (IOException ex) {
+			throw new RuntimeException("Failed to write execution state record", ex);
+		}
+	}
+
+	private byte[] queueRecord(ExecutionMessage msg, long version, long createTime) {
+		try {
+			RecordWriter writer = new RecordWriter(QUEUE_RECORD, msg.getExecStateId());
+			writer.writeString(msg.getWorkerId());
+			writer.writeString(msg.getWorkerGroup());
+			writer.out.writeInt(msg.getStatus().getNumber());
+			writer.out.writeInt(msg.getMsgSeqId());
+			writer.out.writeLong(createTime);
+			writer.out.writeLong(version);
+			writer.writeString(msg.getBranchId());
+			writer.writeString(msg.getSplitId());
+			writer.writeString(msg.getPauseReason() == null ? null : msg.getPauseReason().name());
+			writer.out.writeInt(msg.getPriority());
+			return writer.toByteArray();
+		} catch (IOException ex) {
+			throw new RuntimeException("Failed to write queue record", ex);
+		}
+	}
+
+	private byte[] deleteRecord(long execStateId) {
+		try {
+			return new RecordWriter(DELETE_RECORD, execStateId).toByteArray();
+		} catch (IOException ex) {
+			throw new RuntimeException("Failed to write delete record", ex);
+		}
+	}
+
+	private static class RecordWriter {
+		private final ByteArrayOutputStream bout = new ByteArrayOutputStream(64);
+		private final DataOutputStream out = new DataOutputStream(bout);
+
+		private RecordWriter(byte type, long execStateId) throws IOException {
+			out.writeByte(type);
+			out.writeLong(execStateId);
+		}
+
+		private void writeString(String value) throws IOException {
+			writeBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		private void writeBytes(byte[] value) throws IOException {
+			if (value == null) {
+				out.writeInt(-1);
+			} else {
+				out.writeInt(value.length);
+				out.write(value);
+			}
+		}
+
+		private byte[] toByteArray() throws IOException {
+			out.flush();
+			return bout.toByteArray();
+		}
+	}
+
+	private static class ByteBufferReader {
+		private final ByteBuffer buffer;
+
+		private ByteBufferReader(byte[] body) {
+			this.buffer = ByteBuffer.wrap(body);
+		}
+
+		private static void read(MappedByteBuffer source, int offset, byte[] target) {
+			ByteBuffer view = source.duplicate();
+			view.position(offset);
+			view.get(target);
+		}
+
+		private byte readByte() {
+			return buffer.get();
+		}
+
+		private int readInt() {
+			return buffer.getInt();
+		}
+
+		private long readLong() {
+			return buffer.getLong();
+		}
+
+		private boolean hasRemaining() {
+			return buffer.hasRemaining();
+		}
+
+		private String readString() {
+			byte[] bytes = readBytes();
+			return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		private byte[] readBytes() {
+			int length = buffer.getInt();
+			if (length < 0) {
+				return null;
+			}
+			if (length > buffer.remaining()) {
+				throw new BufferUnderflowException();
+			}
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			return bytes;
+		}
+	}
+
+	/*
+	 * Releases the mapping of a reclaimed segment right away - Unsafe.invokeCleaner on Java 9 and later,
+	 * the buffer cleaner before. If neither is accessible the mapping is released when the buffer is collected.
+	 */
+	private void unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		} catch (NoSuchMethodException ex) {
+			//Java 8 and earlier
+		} catch (Exception ex) {
+			logger.debug("Failed to unmap queue journal segment", ex);
+			return;
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception ex) {
+			logger.debug("Failed to unmap queue journal segment", ex);
+		}
+	}
+
+	private static class RecordRef {
+		private final Segment segment;
+		private final int offset;
+		private final int length;
+		private final int msgSeqId;
+
+		private RecordRef(Segment segment, int offset, int length, int msgSeqId) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.msgSeqId = msgSeqId;
+		}
+	}
+
+	private class Segment {
+		private final File file;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		private long liveBytes;
+
+		private Segment(File file, int size) throws IOException {
+			this.file = file;
+			this.channel = new RandomAccessFile(file, "rw").getChannel();
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		private int writtenBytes() {
+			return buffer.position();
+		}
+
+		private void delete() {
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				logger.warn("Failed to close queue journal segment " + file.getName(), ex);
+			}
+			//the mapping outlives the channel until the buffer is collected, which keeps the deleted file on disk
+			unmap(buffer);
+			if (!file.delete()) {
+				logger.warn("Failed to delete queue journal segment " + file.getName());
+			}
+		}
+	}
+}
@@ -19,6 +19,7 @@ import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -39,22 +40,29 @@ abstract class AbstractCallback implements PartitionCallback {
 	public void doCallback(String previousTable, String activeTable) {
 		if (logger.isDebugEnabled()) logger.debug(getClass().getSimpleName() + ": process from " + previousTable + " to " + activeTable);
 
-		final String sql = getSql(previousTable, activeTable);
-		if (logger.isDebugEnabled()) logger.debug(getClass().getSimpleName() + " Execute SQL: " + sql);
+		final String[] sqls = getSql(previousTable, activeTable);
+		if (logger.isDebugEnabled()) logger.debug(getClass().getSimpleName() + " Execute SQL: " + Arrays.toString(sqls));
 		try{
 			long t = System.currentTimeMillis();
 			int numOfRows = transactionTemplate.execute(new TransactionCallback<Integer>() {
 				@Override
 				public Integer doInTransaction(TransactionStatus status) {
-					return jdbcTemplate.update(sql);
+					int rows = 0;
+					for (String sql : sqls) {
+						rows += jdbcTemplate.update(sql);
+					}
+					return rows;
 				}});
 			t = System.currentTimeMillis()-t;
 			if (logger.isDebugEnabled()) logger.debug(getClass().getSimpleName() + ": " + numOfRows  + " rows where processed in " + t + " ms");
             else if(t > TimeUnit.MINUTES.toMillis(1)) logger.warn("Rolling between table "+previousTable+" to table "+activeTable+", took :"+ t + " ms");
 		} catch (DataAccessException ex){
-			logger.error(getClass().getSimpleName() + " failed to execute: " + sql, ex);
+			logger.error(getClass().getSimpleName() + " failed to execute: " + Arrays.toString(sqls), ex);
 		}
 	}
 
-	protected abstract String getSql(String previousTable, String activeTable);
+	/**
+	 * @return the statements to run on rolling, they all run in one transaction
+	 */
+	protected abstract String[] getSql(String previousTable, String activeTable);
 }
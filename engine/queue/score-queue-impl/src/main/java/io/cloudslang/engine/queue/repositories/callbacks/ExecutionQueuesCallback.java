@@ -0,0 +1,70 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.engine.queue.repositories.callbacks;
+
+import io.cloudslang.engine.queue.entities.ExecStatus;
+
+import static io.cloudslang.engine.queue.repositories.ExecutionQueueRepositoryImpl.QUEUES_PARTITION_GROUP;
+import static io.cloudslang.engine.queue.repositories.ExecutionQueueRepositoryImpl.STATES_PARTITION_GROUP;
+
+/**
+ * Carries the live messages of a partitioned queue forward from the previous partition to the active one, so that
+ * the previous partition holds only finished steps by the time it is truncated.
+ *
+ * A message is live when its latest row, in either partition, is not in a final status. The statements are idempotent, since the callback
+ * runs both before and after every roll.
+ */
+public class ExecutionQueuesCallback extends AbstractCallback {
+
+	private static final String FINAL_STATUSES = ExecStatus.TERMINATED.getNumber() + "," + ExecStatus.FAILED.getNumber() + "," + ExecStatus.FINISHED.getNumber();
+
+	private static final String COPY_STATES =
+			"INSERT INTO :activeStates (ID, MSG_ID, PAYLOAD, CREATE_TIME) " +
+					" SELECT s.ID, s.MSG_ID, s.PAYLOAD, s.CREATE_TIME FROM :previousStates s " +
+					" WHERE (EXISTS (SELECT 1 FROM :previousQueues q WHERE q.EXEC_STATE_ID = s.ID AND q.IS_LATEST = 1 AND q.STATUS NOT IN (" + FINAL_STATUSES + ")) " +
+					"     OR EXISTS (SELECT 1 FROM :activeQueues q WHERE q.EXEC_STATE_ID = s.ID AND q.IS_LATEST = 1 AND q.STATUS NOT IN (" + FINAL_STATUSES + "))) " +
+					" AND NOT EXISTS (SELECT 1 FROM :activeStates a WHERE a.ID = s.ID)";
+
+	// a copied state is removed from the previous partition, otherwise the queries over both partitions would read it twice
+	private static final String DELETE_COPIED_STATES =
+			"DELETE FROM :previousStates WHERE EXISTS (SELECT 1 FROM :activeStates a WHERE a.ID = :previousStates.ID)";
+
+	// an enqueue that read the active partition before the roll can still write a newer row of a carried message to the previous one
+	private static final String UPDATE_ACTIVE_LATEST =
+			"UPDATE :activeQueues SET IS_LATEST = 0 WHERE IS_LATEST = 1 " +
+					" AND EXISTS (SELECT 1 FROM :previousQueues p WHERE p.EXEC_STATE_ID = :activeQueues.EXEC_STATE_ID AND p.MSG_SEQ_ID > :activeQueues.MSG_SEQ_ID)";
+
+	private static final String COPY_QUEUES =
+			"INSERT INTO :activeQueues (ID, EXEC_STATE_ID, ASSIGNED_WORKER, EXEC_GROUP, STATUS, MSG_SEQ_ID, CREATE_TIME, MSG_VERSION, IS_LATEST, " +
+					" BRANCH_ID, SPLIT_ID, PAUSE_REASON, PRIORITY) " +
+					" SELECT q.ID, q.EXEC_STATE_ID, q.ASSIGNED_WORKER, q.EXEC_GROUP, q.STATUS, q.MSG_SEQ_ID, q.CREATE_TIME, q.MSG_VERSION, 1, " +
+					" q.BRANCH_ID, q.SPLIT_ID, q.PAUSE_REASON, q.PRIORITY FROM :previousQueues q " +
+					" WHERE q.IS_LATEST = 1 AND q.STATUS NOT IN (" + FINAL_STATUSES + ") " +
+					" AND NOT EXISTS (SELECT 1 FROM :activeQueues a WHERE a.EXEC_STATE_ID = q.EXEC_STATE_ID AND a.MSG_SEQ_ID >= q.MSG_SEQ_ID)";
+
+	private static final String UPDATE_PREVIOUS_LATEST =
+			"UPDATE :previousQueues SET IS_LATEST = 0 WHERE IS_LATEST = 1 " +
+					" AND EXISTS (SELECT 1 FROM :activeQueues a WHERE a.EXEC_STATE_ID = :previousQueues.EXEC_STATE_ID AND a.MSG_SEQ_ID >= :previousQueues.MSG_SEQ_ID)";
+
+	@Override
+	protected String[] getSql(String previousTable, String activeTable) {
+		// same order as ExecutionQueueService#enqueue - STATES first and then QUEUES
+		String[] sqls = {COPY_STATES, DELETE_COPIED_STATES, UPDATE_ACTIVE_LATEST, COPY_QUEUES, UPDATE_PREVIOUS_LATEST};
+		for (int i = 0; i < sqls.length; i++) {
+			sqls[i] = sqls[i]
+					.replace(":activeStates", activeTable.replace(QUEUES_PARTITION_GROUP, STATES_PARTITION_GROUP))
+					.replace(":previousStates", previousTable.replace(QUEUES_PARTITION_GROUP, STATES_PARTITION_GROUP))
+					.replace(":activeQueues", activeTable)
+					.replace(":previousQueues", previousTable);
+		}
+		return sqls;
+	}
+}
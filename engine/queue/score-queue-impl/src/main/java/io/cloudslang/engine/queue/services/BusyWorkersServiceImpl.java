@@ -15,23 +15,42 @@ import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.List;
-import java.util.Map;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class BusyWorkersServiceImpl implements BusyWorkersService {
 
     private final Logger logger = Logger.getLogger(BusyWorkersServiceImpl.class);
-    private Map<String, String> busyWorkersMap = new ConcurrentHashMap<>();
+
+    // worker id -> System.nanoTime() of the last time the worker was marked busy
+    private ConcurrentMap<String, Long> busyWorkersMap = new ConcurrentHashMap<>();
 
     @Autowired
     private ExecutionQueueRepository executionQueueRepository;
 
     @Override
-    @Transactional(readOnly = true)
     public boolean isWorkerBusy(String workerId) {
-        boolean busyWorkerContained = busyWorkersMap.containsKey(workerId);
-        return busyWorkerContained;
+        return busyWorkersMap.containsKey(workerId);
+    }
+
+    @Override
+    public void markWorkersBusy(Collection<String> workerIds) {
+        long now = System.nanoTime();
+        for (String workerId : workerIds) {
+            busyWorkersMap.put(workerId, now);
+        }
+    }
+
+    @Override
+    public void markWorkerIdle(String workerId, long pollStartTime) {
+        Long busySince = busyWorkersMap.get(workerId);
+        // a worker that was marked busy during the poll keeps its mark - its new messages may not have been seen by the poll
+        if (busySince != null && busySince - pollStartTime < 0) {
+            busyWorkersMap.remove(workerId, busySince);
+        }
     }
 
     @Override
@@ -42,21 +61,26 @@ public class BusyWorkersServiceImpl implements BusyWorkersService {
             startTime = System.currentTimeMillis();
         }
 
-        List<String> busyWorkers = executionQueueRepository.getBusyWorkers(ExecStatus.ASSIGNED);
+        long queryStartTime = System.nanoTime();
+        Set<String> busyWorkers = new HashSet<>(executionQueueRepository.getBusyWorkers(ExecStatus.ASSIGNED));
+        // a worker that has no assigned messages is idle, unless it was marked busy after the query started
+        for (String workerId : busyWorkersMap.keySet()) {
+            if (!busyWorkers.contains(workerId)) {
+                markWorkerIdle(workerId, queryStartTime);
+            }
+        }
+        long now = System.nanoTime();
         for (String bw : busyWorkers) {
-            this.busyWorkersMap.put(bw, bw);
+            this.busyWorkersMap.putIfAbsent(bw, now);
         }
         if (logger.isDebugEnabled()) {
             long endTime = System.currentTimeMillis();
-            logger.debug("Queried for busy workers, the following workers are busy: " + this.busyWorkersMap + ". Query took: " + (endTime - startTime) + " ms to complete");
+            logger.debug("Queried for busy workers, the following workers are busy: " + this.busyWorkersMap.keySet() + ". Query took: " + (endTime - startTime) + " ms to complete");
         }
     }
 
     @Override
-    @Transactional(readOnly = true)
     public void clearBusyWorkers() {
         busyWorkersMap.clear();
     }
-
-
 }
@@ -22,11 +22,15 @@ import org.apache.commons.lang.time.StopWatch;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * User:
@@ -49,6 +53,9 @@ final public class ExecutionQueueServiceImpl implements ExecutionQueueService {
 	@Autowired(required = false)
 	private List<QueueListener> listeners = Collections.emptyList();
 
+	@Autowired(required = false)
+	private WorkNotificationService workNotificationService;
+
 	@Autowired
 	private VersionService versionService;
 
@@ -94,6 +101,8 @@ final public class ExecutionQueueServiceImpl implements ExecutionQueueService {
 		executionQueueRepository.insertExecutionQueue(messages, msgVersion);
 		if (logger.isDebugEnabled()) logger.debug("Persistency done in " + (stopWatch.getSplitTime()) + " ms");
 
+		markBusyWorkers(messages);
+
 		if (CollectionUtils.isNotEmpty(listeners)) {
 			stopWatch.split();
 			List<ExecutionMessage> failedMessages = filter(messages, ExecStatus.FAILED);
@@ -116,6 +125,36 @@ final public class ExecutionQueueServiceImpl implements ExecutionQueueService {
 		if (logger.isDebugEnabled()) logger.debug("Enqueue done in " + (stopWatch.getTime()) + " ms");
 	}
 
+	private void markBusyWorkers(List<ExecutionMessage> messages) {
+		final Set<String> workers = new HashSet<>();
+		for (ExecutionMessage msg : messages) {
+			if (msg.getStatus() == ExecStatus.ASSIGNED) {
+				workers.add(msg.getWorkerId());
+			}
+		}
+		if (workers.isEmpty()) {
+			return;
+		}
+		// the workers are marked only once their messages can be polled, otherwise an empty poll could mark them idle again
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					onWorkersAssigned(workers);
+				}
+			});
+		} else {
+			onWorkersAssigned(workers);
+		}
+	}
+
+	private void onWorkersAssigned(Set<String> workers) {
+		busyWorkersService.markWorkersBusy(workers);
+		if (workNotificationService != null) {
+			workNotificationService.notifyWorkers(workers);
+		}
+	}
+
 	private List<ExecutionMessage> filter(List<ExecutionMessage> messages, ExecStatus status) {
 		List<ExecutionMessage> result = new ArrayList<>();
 		for (ExecutionMessage msg : messages) {
@@ -141,8 +180,13 @@ final public class ExecutionQueueServiceImpl implements ExecutionQueueService {
 	public List<ExecutionMessage> poll(String workerId, int maxSize, ExecStatus... statuses) {
 		List<ExecutionMessage> result = new ArrayList<>();
 		//check if the worker has work before actually polling for work
-		if(busyWorkersService.isWorkerBusy(workerId))
-		result = executionQueueRepository.poll(workerId, maxSize, statuses);
+		if(busyWorkersService.isWorkerBusy(workerId)) {
+			long pollStartTime = System.nanoTime();
+			result = executionQueueRepository.poll(workerId, maxSize, statuses);
+			if (result.isEmpty() && statuses.length == 1 && statuses[0] == ExecStatus.ASSIGNED) {
+				busyWorkersService.markWorkerIdle(workerId, pollStartTime);
+			}
+		}
 
 		for (QueueListener listener : listeners) {
 			listener.onPoll(result, result.size());
@@ -152,6 +196,31 @@ final public class ExecutionQueueServiceImpl implements ExecutionQueueService {
 	}
 
 
+	@Override
+	@Transactional
+	public List<ExecutionMessage> claimAssignedMessages(String workerId, int maxSize) {
+		List<ExecutionMessage> result = new ArrayList<>();
+		//check if the worker has work before actually polling for work
+		if (busyWorkersService.isWorkerBusy(workerId)) {
+			long pollStartTime = System.nanoTime();
+			long msgVersion = versionService.getCurrentVersion(VersionService.MSG_RECOVERY_VERSION_COUNTER_NAME);
+			result = executionQueueRepository.claimMessages(workerId, maxSize, msgVersion);
+			//with SKIP LOCKED an empty claim may only mean that a concurrent claim holds the rows, so check with a read that does not lock
+			if (result.isEmpty() && !executionQueueRepository.hasMessages(workerId, ExecStatus.ASSIGNED)) {
+				busyWorkersService.markWorkerIdle(workerId, pollStartTime);
+			}
+		}
+
+		for (QueueListener listener : listeners) {
+			listener.onPoll(result, result.size());
+			if (!result.isEmpty()) {
+				listener.onEnqueue(result, result.size());
+			}
+		}
+
+		return result;
+	}
+
 	@Override
 	@Transactional(readOnly = true)
 	public List<ExecutionMessage> pollRecovery(String workerId, int maxSize, ExecStatus... statuses) {
@@ -53,24 +53,11 @@ public final class QueueDispatcherServiceImpl implements QueueDispatcherService
 	public List<ExecutionMessage> poll(String workerId, int maxSize) {
 		try {
 			if (logger.isDebugEnabled()) logger.debug("Polling messages for worker [" + workerId + "], max size " + maxSize);
-			// poll assigned messages to workerID
+			// claim the messages assigned to workerID - they are moved to SENT status on the database side
 			long t = System.currentTimeMillis();
-			List<ExecutionMessage> result = execQueue.poll(workerId, maxSize, ExecStatus.ASSIGNED);
+			List<ExecutionMessage> result = execQueue.claimAssignedMessages(workerId, maxSize);
 			t = System.currentTimeMillis()-t;
 			if (logger.isDebugEnabled()) logger.debug("Poll: " + result.size() + "/" + t + " messages/ms");
-
-			if (!result.isEmpty()){
-				t = System.currentTimeMillis();
-				// change status to SENT
-				for(ExecutionMessage msg:result){
-					msg.setStatus(ExecStatus.SENT);
-					msg.incMsgSeqId();
-				}
-				// update the queue
-				execQueue.enqueue(result);
-				t = System.currentTimeMillis()-t;
-				if (logger.isDebugEnabled()) logger.debug("Enqueue: " + result.size() + "/" + t + " messages/ms");
-			}
 			// send the result to the worker
 			if (logger.isDebugEnabled()) logger.debug("Polled " + result.size() + " messages for worker [" + workerId + ']');
 			return result;
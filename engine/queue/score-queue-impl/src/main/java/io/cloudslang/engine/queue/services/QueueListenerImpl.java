@@ -186,7 +186,8 @@ public class QueueListenerImpl implements QueueListener {
         List<ScoreEvent> events = new ArrayList<>(messages.size());
         for (ExecutionMessage executionMessage : messages) {
             execution = extractExecution(executionMessage);
-            if (failedBecauseNoWorker(execution)) {
+            if (failedBecauseNoWorker(executionMessage)) {
+                execution.getSystemContext().setNoWorkerInGroup(executionMessage.getWorkerGroup());
                 Long pauseID = pauseExecution(execution);
                 events.add(scoreEventFactory.createNoWorkerEvent(execution, pauseID));
             } else if (isBranch(execution)) {
@@ -201,14 +202,17 @@ public class QueueListenerImpl implements QueueListener {
 
     private void deleteExecutionStateObjects(List<ExecutionMessage> messages) {
         for (ExecutionMessage executionMessage : messages) {
-            if (!failedBecauseNoWorker(extractExecution(executionMessage))) {
+            if (!failedBecauseNoWorker(executionMessage)) {
                 executionStateService.deleteExecutionState(Long.valueOf(executionMessage.getMsgId()), ExecutionSummary.EMPTY_BRANCH);
             }
         }
     }
 
-    private boolean failedBecauseNoWorker(Execution execution) {
-        return execution != null && !StringUtils.isEmpty(execution.getSystemContext().getNoWorkerInGroupName());
+    /**
+     * Decided by the header that the assigner sets - the payload is not extracted for it
+     */
+    private boolean failedBecauseNoWorker(ExecutionMessage executionMessage) {
+        return PauseReason.NO_WORKERS_IN_GROUP.equals(executionMessage.getPauseReason());
     }
 
 }
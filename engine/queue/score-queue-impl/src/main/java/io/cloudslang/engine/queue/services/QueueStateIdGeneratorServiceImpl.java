@@ -30,4 +30,10 @@ public final class QueueStateIdGeneratorServiceImpl implements QueueStateIdGener
     public Long generateStateId(){
         return (Long)identityGenerator.next();
     }
+
+    @Transactional(propagation = Propagation.SUPPORTS)
+    @Override
+    public long leaseStateIds(int size) {
+        return identityGenerator.range(size);
+    }
 }
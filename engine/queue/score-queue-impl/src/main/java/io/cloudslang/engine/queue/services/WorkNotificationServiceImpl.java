@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.engine.queue.services;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-JVM notification of the workers - a signal per worker that is kept until the worker waits for it.
+ */
+public class WorkNotificationServiceImpl implements WorkNotificationService {
+
+    private final ConcurrentMap<String, WorkSignal> signals = new ConcurrentHashMap<>();
+
+    @Override
+    public void notifyWorkers(Collection<String> workerIds) {
+        for (String workerId : workerIds) {
+            getSignal(workerId).signal();
+        }
+    }
+
+    @Override
+    public boolean awaitWork(String workerId, long timeoutMillis) throws InterruptedException {
+        return getSignal(workerId).await(timeoutMillis);
+    }
+
+    private WorkSignal getSignal(String workerId) {
+        WorkSignal signal = signals.get(workerId);
+        if (signal == null) {
+            WorkSignal newSignal = new WorkSignal();
+            signal = signals.putIfAbsent(workerId, newSignal);
+            if (signal == null) {
+                signal = newSignal;
+            }
+        }
+        return signal;
+    }
+
+    private static class WorkSignal {
+        private boolean signaled;
+
+        synchronized void signal() {
+            signaled = true;
+            notifyAll();
+        }
+
+        synchronized boolean await(long timeoutMillis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            long remaining = timeoutMillis;
+            while (!signaled && remaining > 0) {
+                wait(remaining);
+                remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            }
+            boolean result = signaled;
+            signaled = false;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.engine.queue.services.assigner;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The worker that last ran each execution, for the most recently seen executions.
+ * The assigner learns it from the messages it handles - both the ones it assigns and the ones the workers send.
+ */
+class ExecutionAffinity {
+
+    private final Map<String, String> lastWorkers;
+
+    ExecutionAffinity(final int maxSize) {
+        lastWorkers = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    synchronized String getLastWorker(String executionId) {
+        return lastWorkers.get(executionId);
+    }
+
+    synchronized void setLastWorker(String executionId, String workerUuid) {
+        lastWorkers.put(executionId, workerUuid);
+    }
+}
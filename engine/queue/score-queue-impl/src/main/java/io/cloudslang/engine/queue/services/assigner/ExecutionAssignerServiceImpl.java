@@ -14,16 +14,16 @@ import com.google.common.collect.Multimap;
 import io.cloudslang.engine.node.services.WorkerNodeService;
 import io.cloudslang.engine.queue.entities.ExecStatus;
 import io.cloudslang.engine.queue.entities.ExecutionMessage;
-import io.cloudslang.engine.queue.entities.ExecutionMessageConverter;
 import io.cloudslang.engine.queue.entities.Payload;
 import io.cloudslang.engine.queue.services.ExecutionQueueService;
 import io.cloudslang.orchestrator.services.EngineVersionService;
-import io.cloudslang.score.facade.entities.Execution;
+import io.cloudslang.score.facade.execution.PauseReason;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 
+import javax.annotation.PostConstruct;
 import java.util.*;
 
 /**
@@ -35,29 +35,49 @@ final public class ExecutionAssignerServiceImpl implements ExecutionAssignerServ
 
 	private Logger logger = Logger.getLogger(getClass());
 
+	private static final Comparator<ExecutionMessage> BY_PRIORITY = new Comparator<ExecutionMessage>() {
+		@Override
+		public int compare(ExecutionMessage o1, ExecutionMessage o2) {
+			return Integer.compare(o2.getPriority(), o1.getPriority());
+		}
+	};
+
 	@Autowired
 	private ExecutionQueueService executionQueueService;
 
 	@Autowired
 	private WorkerNodeService workerNodeService;
 
-	@Autowired
-	private ExecutionMessageConverter converter;
-
     @Autowired
     private EngineVersionService engineVersionService;
 
+    @Autowired(required = false)
+    private WorkerAssignmentStrategy assignmentStrategy;
+
+    //the worker that last ran each execution, so its next steps go back to the worker that holds its warm state
+    private final ExecutionAffinity executionAffinity = Boolean.getBoolean("queue.assigner.affinity.disabled") ?
+            null : new ExecutionAffinity(Integer.getInteger("queue.assigner.affinity.size", 10000));
 
-	private void addErrorMessage(ExecutionMessage message) {
-        String group = message.getWorkerGroup();
-        Execution execution = converter.extractExecution(message.getPayload());
-        execution.getSystemContext().setNoWorkerInGroup(group);
 
-        Payload payload = converter.createPayload(execution);
-        message.setPayload(payload);
+	@PostConstruct
+	public void init() {
+		if (assignmentStrategy == null) {
+			assignmentStrategy = new RandomWorkerAssignmentStrategy(workerNodeService);
+		}
+	}
+
+	private void addErrorMessage(ExecutionMessage message) {
+        //the listener sets the group on the execution when it pauses it - no need to extract the payload here
+        message.setPauseReason(PauseReason.NO_WORKERS_IN_GROUP);
 	}
 
 
+	private void rememberWorker(String executionId, String workerId) {
+		if (executionAffinity != null && workerId != null && !workerId.equals(ExecutionMessage.EMPTY_WORKER)) {
+			executionAffinity.setLastWorker(executionId, workerId);
+		}
+	}
+
 	private void fillPayload(ExecutionMessage msg) {
 		if (msg.getPayload() == null){
 			Map<Long, Payload> payloadMap = executionQueueService.readPayloadByExecutionIds(msg.getExecStateId());
@@ -66,7 +86,7 @@ final public class ExecutionAssignerServiceImpl implements ExecutionAssignerServ
 		}
 	}
 
-    private String chooseWorker(String groupName, Multimap<String, String> groupWorkersMap,Random randIntGenerator) {
+    private String chooseWorker(String executionId, String groupName, Multimap<String, String> groupWorkersMap) {
 		Collection<String> workerNames = groupWorkersMap.get(groupName);
 
 		if (workerNames == null || workerNames.size() == 0) {
@@ -78,15 +98,47 @@ final public class ExecutionAssignerServiceImpl implements ExecutionAssignerServ
 			}
 		}
 
-		Object[] workerArr = workerNames.toArray();
+		String preferredWorker = executionAffinity != null ? executionAffinity.getLastWorker(executionId) : null;
+		return assignmentStrategy.chooseWorker(groupName, new ArrayList<>(workerNames), preferredWorker);
+	}
 
-		// we assign the worker using random algorithm
-		int groupIndex = randIntGenerator.nextInt(workerArr.length);
-		groupIndex = groupIndex % workerArr.length;
 
-		return (String) workerArr[groupIndex];
-	}
+    private boolean isPending(ExecutionMessage msg) {
+        return msg.getWorkerId().equals(ExecutionMessage.EMPTY_WORKER) && msg.getStatus() == ExecStatus.PENDING;
+    }
 
+    /**
+     * Chooses the workers of the pending messages, the higher priority ones first - they get the least loaded workers
+     *
+     * @return the chosen worker of each pending message, null if there is no available worker for it
+     */
+    private Map<ExecutionMessage, String> chooseWorkers(List<ExecutionMessage> messages) {
+        Map<ExecutionMessage, String> chosenWorkers = new IdentityHashMap<>();
+        List<ExecutionMessage> pendingMessages = new ArrayList<>();
+        for (ExecutionMessage msg : messages) {
+            if (isPending(msg)) {
+                pendingMessages.add(msg);
+            } else {
+                rememberWorker(msg.getMsgId(), msg.getWorkerId());
+            }
+        }
+        if (pendingMessages.isEmpty()) {
+            return chosenWorkers;
+        }
+        Collections.sort(pendingMessages, BY_PRIORITY);
+
+        String engineVersionId = engineVersionService.getEngineVersionId();
+        //We allow to assign to workers who's version is equal to the engine version
+        Multimap<String, String> groupWorkersMap = workerNodeService.readGroupWorkersMapActiveAndRunningAndVersion(engineVersionId);
+        for (ExecutionMessage msg : pendingMessages) {
+            String workerId = chooseWorker(msg.getMsgId(), msg.getWorkerGroup(), groupWorkersMap);
+            chosenWorkers.put(msg, workerId);
+            if (workerId != null) {
+                rememberWorker(msg.getMsgId(), workerId);
+            }
+        }
+        return chosenWorkers;
+    }
 
     @Override
     @Transactional
@@ -98,18 +150,12 @@ final public class ExecutionAssignerServiceImpl implements ExecutionAssignerServ
 
         }
         List<ExecutionMessage> assignMessages = new ArrayList<>(messages.size());
-        Multimap<String, String> groupWorkersMap  = null;
-        Random randIntGenerator = new Random(System.currentTimeMillis());
+        Map<ExecutionMessage, String> chosenWorkers = chooseWorkers(messages);
 
         for (ExecutionMessage msg : messages) {
 
-            if ( msg.getWorkerId().equals(ExecutionMessage.EMPTY_WORKER) && msg.getStatus() == ExecStatus.PENDING) {
-                if (groupWorkersMap == null) {
-                    String engineVersionId = engineVersionService.getEngineVersionId();
-                    //We allow to assign to workers who's version is equal to the engine version
-                    groupWorkersMap = workerNodeService.readGroupWorkersMapActiveAndRunningAndVersion(engineVersionId);
-                }
-                String workerId = chooseWorker(msg.getWorkerGroup(), groupWorkersMap,randIntGenerator);
+            if (isPending(msg)) {
+                String workerId = chosenWorkers.get(msg);
                 if (workerId == null) {
                     // error on assigning worker, no available worker
                     logger.warn("Can't assign worker for group name: " + msg.getWorkerGroup() + " , because there are no available workers for that group.");
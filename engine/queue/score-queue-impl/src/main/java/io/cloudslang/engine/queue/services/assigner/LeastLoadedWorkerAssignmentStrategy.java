@@ -0,0 +1,85 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.engine.queue.services.assigner;
+
+import io.cloudslang.engine.node.services.WorkerNodeService;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Assigns each step by the power of two choices: two random workers of the group are compared and the step goes
+ * to the one with the lower load relative to its capacity.
+ *
+ * The loads are the reported ones plus the steps assigned since, as kept by {@link WorkerLoads}, so a big batch of
+ * pending steps is spread over the group instead of landing on the worker that was idle at its last report.
+ *
+ * The worker that last ran the execution gets the step as long as it has a free thread.
+ */
+public class LeastLoadedWorkerAssignmentStrategy implements WorkerAssignmentStrategy {
+
+    private final Logger logger = Logger.getLogger(getClass());
+
+    @Autowired
+    private WorkerNodeService workerNodeService;
+
+    private final Random random = new Random(System.currentTimeMillis());
+
+    private WorkerLoads loads;
+
+    @PostConstruct
+    public void init() {
+        long refreshIntervalMillis = Long.getLong("queue.assigner.load.refresh.millis", 1000L);
+        loads = new WorkerLoads(workerNodeService, refreshIntervalMillis);
+        logger.info("Worker loads are refreshed every " + refreshIntervalMillis + " ms");
+    }
+
+    public void setRefreshIntervalMillis(long refreshIntervalMillis) {
+        loads.setRefreshIntervalMillis(refreshIntervalMillis);
+    }
+
+    @Override
+    public String chooseWorker(String groupName, List<String> workers, String preferredWorker) {
+        loads.refresh();
+        synchronized (loads) {
+            String chosen;
+            if (preferredWorker != null && workers.contains(preferredWorker) && !loads.getLoad(preferredWorker).isOverloaded()) {
+                chosen = preferredWorker;
+            } else if (workers.size() == 1) {
+                chosen = workers.get(0);
+            } else {
+                int first = random.nextInt(workers.size());
+                int second = random.nextInt(workers.size() - 1);
+                if (second >= first) {
+                    second++;
+                }
+                chosen = lessLoaded(workers.get(first), workers.get(second));
+            }
+            loads.getLoad(chosen).assign();
+            return chosen;
+        }
+    }
+
+    private String lessLoaded(String first, String second) {
+        WorkerLoads.WorkerLoad firstLoad = loads.getLoad(first);
+        WorkerLoads.WorkerLoad secondLoad = loads.getLoad(second);
+        // compare first.load / first.capacity with second.load / second.capacity without dividing
+        long firstWeight = (long) firstLoad.getLoad() * secondLoad.getCapacity();
+        long secondWeight = (long) secondLoad.getLoad() * firstLoad.getCapacity();
+        if (firstWeight == secondWeight) {
+            return firstLoad.getCapacity() >= secondLoad.getCapacity() ? first : second;
+        }
+        return firstWeight < secondWeight ? first : second;
+    }
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.engine.queue.services.assigner;
+
+import io.cloudslang.engine.node.services.WorkerNodeService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Assigns each step to the worker that last ran its execution while it has a free thread, or to a random worker of its group -
+ * the default when no other strategy is defined. The free threads are counted as in {@link WorkerLoads}, for the workers
+ * that report their capacity.
+ */
+public class RandomWorkerAssignmentStrategy implements WorkerAssignmentStrategy {
+
+    private final Random random = new Random(System.currentTimeMillis());
+
+    private final WorkerLoads loads;
+
+    public RandomWorkerAssignmentStrategy(WorkerNodeService workerNodeService) {
+        loads = new WorkerLoads(workerNodeService, Long.getLong("queue.assigner.load.refresh.millis", 1000L));
+    }
+
+    void setRefreshIntervalMillis(long refreshIntervalMillis) {
+        loads.setRefreshIntervalMillis(refreshIntervalMillis);
+    }
+
+    @Override
+    public String chooseWorker(String groupName, List<String> workers, String preferredWorker) {
+        loads.refresh();
+        synchronized (loads) {
+            String chosen;
+            if (preferredWorker != null && workers.contains(preferredWorker) && isFree(loads.getLoad(preferredWorker))) {
+                chosen = preferredWorker;
+            } else if (preferredWorker != null && workers.size() > 1 && workers.contains(preferredWorker)) {
+                // the preferred worker is busy - any other worker of the group
+                List<String> others = new ArrayList<>(workers);
+                others.remove(preferredWorker);
+                chosen = others.get(random.nextInt(others.size()));
+            } else {
+                chosen = workers.get(random.nextInt(workers.size()));
+            }
+            loads.getLoad(chosen).assign();
+            return chosen;
+        }
+    }
+
+    // a worker that does not report its capacity is not checked
+    private boolean isFree(WorkerLoads.WorkerLoad load) {
+        return !load.isReported() || !load.isOverloaded();
+    }
+}
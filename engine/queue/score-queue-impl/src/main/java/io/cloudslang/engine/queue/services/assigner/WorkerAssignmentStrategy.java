@@ -0,0 +1,29 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.engine.queue.services.assigner;
+
+import java.util.List;
+
+/**
+ * Chooses the worker that a pending step is assigned to, out of the active and running workers of its group.
+ * Called by the assigner for every pending message, possibly from several threads.
+ */
+public interface WorkerAssignmentStrategy {
+
+    /**
+     * @param groupName the worker group of the step
+     * @param workers the UUIDs of the workers of the group that may get the step - never empty
+     * @param preferredWorker the worker that last ran the execution, null if it is not known. It holds the warm
+     *                        state of the execution, so it should get the step unless it is not one of the workers or is overloaded
+     * @return the UUID of the chosen worker, one of the given workers
+     */
+    String chooseWorker(String groupName, List<String> workers, String preferredWorker);
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.engine.queue.services.assigner;
+
+import io.cloudslang.engine.node.entities.WorkerNode;
+import io.cloudslang.engine.node.services.WorkerNodeService;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The loads of the workers as the assignment strategies see them.
+ *
+ * The capacity and load are the ones the workers report with their keep alive. They are re-read from the
+ * worker nodes once per refresh interval, outside the lock of the assignment, and every step assigned since the last keep alive
+ * of a worker is counted on top of its reported load - the count is dropped only when a newer keep alive reports the load again.
+ * A worker that did not report its capacity (an older worker) counts as a worker with a single thread.
+ *
+ * The loads are read and assigned to while holding the lock of this object.
+ */
+class WorkerLoads {
+
+    private final WorkerNodeService workerNodeService;
+
+    private long refreshIntervalMillis;
+
+    private Map<String, WorkerLoad> loads = new HashMap<>();
+    private long lastRefreshTime = -1;
+    private boolean refreshing;
+
+    WorkerLoads(WorkerNodeService workerNodeService, long refreshIntervalMillis) {
+        this.workerNodeService = workerNodeService;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    synchronized void setRefreshIntervalMillis(long refreshIntervalMillis) {
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        lastRefreshTime = -1;
+    }
+
+    WorkerLoad getLoad(String workerUuid) {
+        WorkerLoad load = loads.get(workerUuid);
+        if (load == null) {
+            // a worker that joined after the last refresh
+            load = new WorkerLoad(0, 0, 0);
+            loads.put(workerUuid, load);
+        }
+        return load;
+    }
+
+    // one thread reads the worker nodes, the others go on assigning by the loads they have
+    void refresh() {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (refreshing || (lastRefreshTime >= 0 && now - lastRefreshTime < refreshIntervalMillis)) {
+                return;
+            }
+            refreshing = true;
+        }
+        try {
+            List<WorkerNode> workers = workerNodeService.readAllNotDeletedWorkers();
+            synchronized (this) {
+                Map<String, WorkerLoad> newLoads = new HashMap<>();
+                for (WorkerNode worker : workers) {
+                    long reportTime = worker.getAckTime() == null ? 0 : worker.getAckTime().getTime();
+                    WorkerLoad current = loads.get(worker.getUuid());
+                    if (current != null && current.reportTime >= reportTime) {
+                        // no newer keep alive - the steps assigned since the last one are not in the reported load yet
+                        newLoads.put(worker.getUuid(), current);
+                    } else {
+                        newLoads.put(worker.getUuid(), new WorkerLoad(worker.getCapacity(), worker.getLoad(), reportTime));
+                    }
+                }
+                loads = newLoads;
+                lastRefreshTime = now;
+            }
+        } finally {
+            synchronized (this) {
+                refreshing = false;
+            }
+        }
+    }
+
+    static class WorkerLoad {
+        private final int capacity;
+        private final int reported;
+        private final long reportTime;
+        private int assigned;
+
+        private WorkerLoad(int capacity, int reported, long reportTime) {
+            this.capacity = capacity;
+            this.reported = reported;
+            this.reportTime = reportTime;
+        }
+
+        int getCapacity() {
+            return Math.max(1, capacity);
+        }
+
+        int getLoad() {
+            return reported + assigned;
+        }
+
+        boolean isReported() {
+            return capacity > 0;
+        }
+
+        boolean isOverloaded() {
+            return getLoad() >= getCapacity();
+        }
+
+        void assign() {
+            assigned++;
+        }
+    }
+}
@@ -10,10 +10,15 @@
 
 package io.cloudslang.engine.queue.services.cleaner;
 
+import io.cloudslang.engine.partitions.services.PartitionTemplate;
 import io.cloudslang.engine.queue.repositories.ExecutionQueueRepository;
+import io.cloudslang.engine.queue.repositories.ExecutionQueueRepositoryImpl;
+import org.apache.commons.lang.ArrayUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -25,19 +30,56 @@ final public class QueueCleanerServiceImpl  implements QueueCleanerService {
 
     final private int BULK_SIZE = 500;
 
+    final private int PAGE_SIZE = 10000;
+
     @Autowired
    	private ExecutionQueueRepository executionQueueRepository;
 
+    @Autowired(required = false)
+    @Qualifier(ExecutionQueueRepositoryImpl.QUEUES_PARTITION_GROUP)
+    private PartitionTemplate queuePartitionTemplate;
+
     @Override
     @Transactional
+    @Deprecated
     public Set<Long> getFinishedExecStateIds() {
-        return executionQueueRepository.getFinishedExecStateIds();
+        Set<Long> result = new HashSet<>();
+        long[] page = executionQueueRepository.getFinishedExecStateIds(Long.MIN_VALUE, PAGE_SIZE);
+        while (page.length > 0) {
+            for (long id : page) {
+                result.add(id);
+            }
+            page = executionQueueRepository.getFinishedExecStateIds(page[page.length - 1], PAGE_SIZE);
+        }
+        return result;
+    }
+
+    @Override
+    @Transactional
+    public long[] getFinishedExecStateIds(long afterId, int maxSize) {
+        return executionQueueRepository.getFinishedExecStateIds(afterId, maxSize);
     }
 
     @Override
     @Transactional
     public void cleanFinishedSteps(Set<Long> ids) {
+        if (ids == null) {
+            return;
+        }
+        executionQueueRepository.deleteFinishedSteps(ArrayUtils.toPrimitive(ids.toArray(new Long[ids.size()])));
+    }
+
+    @Override
+    @Transactional
+    public void cleanFinishedSteps(long[] ids) {
         executionQueueRepository.deleteFinishedSteps(ids);
     }
 
+    @Override
+    public void rollPartitions() {
+        if (queuePartitionTemplate != null) {
+            queuePartitionTemplate.onRolling();
+        }
+    }
+
 }
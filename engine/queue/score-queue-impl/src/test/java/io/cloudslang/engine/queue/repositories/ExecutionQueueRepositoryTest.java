@@ -10,11 +10,13 @@
 
 package io.cloudslang.engine.queue.repositories;
 
+import io.cloudslang.engine.data.DataBaseDetector;
 import io.cloudslang.engine.data.IdentityGenerator;
 import io.cloudslang.engine.node.services.WorkerNodeService;
 import io.cloudslang.engine.queue.entities.ExecStatus;
 import io.cloudslang.engine.queue.entities.ExecutionMessage;
 import io.cloudslang.engine.queue.entities.Payload;
+import io.cloudslang.score.facade.execution.PauseReason;
 import io.cloudslang.engine.versioning.services.VersionService;
 import junit.framework.Assert;
 import liquibase.integration.spring.SpringLiquibase;
@@ -25,19 +27,32 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.transaction.TransactionConfiguration;
 import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.sql.DataSource;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * User: wahnonm
@@ -53,6 +68,12 @@ public class ExecutionQueueRepositoryTest {
     @Autowired
     private ExecutionQueueRepository executionQueueRepository;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private DataSource dataSource;
+
 
     @Test
     public void testInsert(){
@@ -77,6 +98,71 @@ public class ExecutionQueueRepositoryTest {
         executionQueueRepository.insertExecutionQueue(msg,1L);
     }
 
+    @Test
+    public void testInsertBatchLargerThanAnIdRange(){
+        List<ExecutionMessage> msg = new ArrayList<>();
+        for (int i = 1; i <= IdentityGenerator.MAX_RANGE_SIZE + 1; i++) {
+            msg.add(generateFinishedMessage(i, 1));
+        }
+        executionQueueRepository.insertExecutionQueue(msg, 1L);
+
+        Assert.assertEquals(IdentityGenerator.MAX_RANGE_SIZE + 1, executionQueueRepository.getFinishedExecStateIds(Long.MIN_VALUE, 2 * IdentityGenerator.MAX_RANGE_SIZE).length);
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void testConcurrentInsertsOfAStateLeaveOneLatestRow() throws Exception {
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        final long execStateId = 7777777L;
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                executionQueueRepository.insertExecutionStates(Collections.singletonList(generateMessage(execStateId, "group1", "msg1", 1)));
+            }
+        });
+        // both transactions wait for each other after their insert, unless one of them waits for the lock of the state
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (final int msgSeqId : new int[]{2, 3}) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                            @Override
+                            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                                ExecutionMessage msg = generateMessageForWorker(execStateId, "group1", "msg1", "worker1", msgSeqId);
+                                msg.setStatus(ExecStatus.ASSIGNED);
+                                executionQueueRepository.insertExecutionQueue(Collections.singletonList(msg), 1L);
+                                try {
+                                    barrier.await(200, TimeUnit.MILLISECONDS);
+                                } catch (InterruptedException | BrokenBarrierException | TimeoutException ex) {
+                                    // the other transaction is waiting for the lock
+                                }
+                            }
+                        });
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            Assert.assertEquals(Arrays.asList(3), jdbcTemplate.queryForList(
+                    "SELECT MSG_SEQ_ID FROM OO_EXECUTION_QUEUES WHERE EXEC_STATE_ID = ? AND IS_LATEST = 1", Integer.class, execStateId));
+        } finally {
+            executor.shutdownNow();
+            transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    executionQueueRepository.deleteFinishedSteps(new long[]{execStateId});
+                }
+            });
+        }
+    }
+
     @Test
     public void testPollMessagesWithoutAckWithVersion(){
         List<ExecutionMessage> msg = new ArrayList<>();
@@ -105,9 +191,25 @@ public class ExecutionQueueRepositoryTest {
         msg.add(generateFinishedMessage(3L, 4));
         executionQueueRepository.insertExecutionQueue(msg, 1L);
 
-        Set<Long> result = executionQueueRepository.getFinishedExecStateIds();
-        Assert.assertNotNull(result);
-        Assert.assertEquals(3, result.size());
+        long[] result = executionQueueRepository.getFinishedExecStateIds(Long.MIN_VALUE, 10);
+        Assert.assertTrue(Arrays.equals(new long[]{1L, 2L, 3L}, result));
+    }
+
+    @Test
+    public void testGetFinishedExecStateIdsPage(){
+        List<ExecutionMessage> msg = new ArrayList<>();
+        msg.add(generateFinishedMessage(3L, 1));
+        msg.add(generateFinishedMessage(1L, 2));
+        msg.add(generateFinishedMessage(1L, 3));
+        msg.add(generateFinishedMessage(2L, 4));
+        msg.add(generateMessage(4L, "group1", "msg4", 5));
+        executionQueueRepository.insertExecutionQueue(msg, 1L);
+
+        long[] page = executionQueueRepository.getFinishedExecStateIds(Long.MIN_VALUE, 2);
+        Assert.assertTrue(Arrays.equals(new long[]{1L, 2L}, page));
+        page = executionQueueRepository.getFinishedExecStateIds(page[1], 2);
+        Assert.assertTrue(Arrays.equals(new long[]{3L}, page));
+        Assert.assertEquals(0, executionQueueRepository.getFinishedExecStateIds(3L, 2).length);
     }
 
     @Test
@@ -159,6 +261,48 @@ public class ExecutionQueueRepositoryTest {
         Assert.assertFalse(result.isEmpty());
     }
 
+    @Test
+    public void testHeadersArePersistedWithTheQueueRow(){
+        List<ExecutionMessage> msg = new ArrayList<>();
+        ExecutionMessage execMsg = generateMessage("group1","msg1", 1);
+        execMsg.setWorkerId("worker1");
+        execMsg.setStatus(ExecStatus.IN_PROGRESS);
+        execMsg.setBranchId("branch1");
+        execMsg.setSplitId("split1");
+        execMsg.setPauseReason(PauseReason.NO_WORKERS_IN_GROUP);
+        msg.add(execMsg);
+        executionQueueRepository.insertExecutionStates(msg);
+        executionQueueRepository.insertExecutionQueue(msg,1L);
+
+        List<ExecutionMessage> result = executionQueueRepository.pollRecovery("worker1", 10, ExecStatus.IN_PROGRESS);
+
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals("branch1", result.get(0).getBranchId());
+        Assert.assertEquals("split1", result.get(0).getSplitId());
+        Assert.assertEquals(PauseReason.NO_WORKERS_IN_GROUP, result.get(0).getPauseReason());
+    }
+
+    @Test
+    public void testPollOrdersByPriority(){
+        List<ExecutionMessage> msg = new ArrayList<>();
+        ExecutionMessage lowPriority = generateMessageForWorker(1, "group1", "msg1", "worker1", 1);
+        lowPriority.setStatus(ExecStatus.ASSIGNED);
+        ExecutionMessage highPriority = generateMessageForWorker(2, "group1", "msg2", "worker1", 1);
+        highPriority.setStatus(ExecStatus.ASSIGNED);
+        highPriority.setPriority(5);
+        msg.add(lowPriority);
+        msg.add(highPriority);
+        executionQueueRepository.insertExecutionStates(msg);
+        executionQueueRepository.insertExecutionQueue(msg,1L);
+
+        List<ExecutionMessage> result = executionQueueRepository.poll("worker1", 10, ExecStatus.ASSIGNED);
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals("msg2", result.get(0).getMsgId());
+        Assert.assertEquals(5, result.get(0).getPriority());
+        Assert.assertEquals("msg1", result.get(1).getMsgId());
+    }
+
     @Test
     public void testPollForRecoveryDuplicateMsg(){
 
@@ -215,6 +359,91 @@ public class ExecutionQueueRepositoryTest {
         Assert.assertFalse(result.isEmpty());
     }
 
+    @Test
+    public void testHasMessages(){
+        ExecutionMessage execMsg = generateMessage(1, "group1", "msg1", 1);
+        execMsg.setWorkerId("worker1");
+        execMsg.setStatus(ExecStatus.ASSIGNED);
+        executionQueueRepository.insertExecutionQueue(Collections.singletonList(execMsg), 1L);
+
+        Assert.assertTrue(executionQueueRepository.hasMessages("worker1", ExecStatus.ASSIGNED));
+        Assert.assertFalse(executionQueueRepository.hasMessages("worker2", ExecStatus.ASSIGNED));
+        Assert.assertFalse(executionQueueRepository.hasMessages("worker1", ExecStatus.IN_PROGRESS));
+
+        execMsg.setStatus(ExecStatus.IN_PROGRESS);
+        execMsg.incMsgSeqId();
+        executionQueueRepository.insertExecutionQueue(Collections.singletonList(execMsg), 1L);
+        Assert.assertFalse(executionQueueRepository.hasMessages("worker1", ExecStatus.ASSIGNED));
+        Assert.assertTrue(executionQueueRepository.hasMessages("worker1", ExecStatus.IN_PROGRESS));
+    }
+
+    @Test
+    public void testPollReturnsOnlyLatestMessage(){
+        List<ExecutionMessage> msg = new ArrayList<>();
+        ExecutionMessage execMsg = generateMessage(1, "group1", "msg1", 1);
+        execMsg.setWorkerId("worker1");
+        execMsg.setStatus(ExecStatus.ASSIGNED);
+        msg.add(execMsg);
+        executionQueueRepository.insertExecutionStates(msg);
+        executionQueueRepository.insertExecutionQueue(msg, 1L);
+
+        Assert.assertEquals(1, executionQueueRepository.poll("worker1", 10, ExecStatus.ASSIGNED).size());
+        Assert.assertEquals(1, executionQueueRepository.getBusyWorkers(ExecStatus.ASSIGNED).size());
+
+        execMsg.setStatus(ExecStatus.SENT);
+        execMsg.incMsgSeqId();
+        executionQueueRepository.insertExecutionQueue(msg, 1L);
+
+        Assert.assertTrue(executionQueueRepository.poll("worker1", 10, ExecStatus.ASSIGNED).isEmpty());
+        Assert.assertTrue(executionQueueRepository.getBusyWorkers(ExecStatus.ASSIGNED).isEmpty());
+        List<ExecutionMessage> result = executionQueueRepository.findByStatuses(10, ExecStatus.ASSIGNED, ExecStatus.SENT);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(ExecStatus.SENT, result.get(0).getStatus());
+        Assert.assertEquals(2, result.get(0).getMsgSeqId());
+    }
+
+    @Test
+    public void testLateInsertOfOlderMessageIsNotLatest(){
+        ExecutionMessage newer = generateMessageForWorker(1, "group1", "msg1", "worker1", 2);
+        newer.setStatus(ExecStatus.IN_PROGRESS);
+        executionQueueRepository.insertExecutionStates(Collections.singletonList(newer));
+        executionQueueRepository.insertExecutionQueue(Collections.singletonList(newer), 1L);
+
+        // a retried batch inserts the older message after the newer one
+        ExecutionMessage older = generateMessageForWorker(1, "group1", "msg1", "worker1", 1);
+        older.setStatus(ExecStatus.ASSIGNED);
+        executionQueueRepository.insertExecutionQueue(Collections.singletonList(older), 1L);
+
+        Assert.assertTrue(executionQueueRepository.poll("worker1", 10, ExecStatus.ASSIGNED).isEmpty());
+        List<ExecutionMessage> result = executionQueueRepository.findByStatuses(10, ExecStatus.ASSIGNED, ExecStatus.IN_PROGRESS);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(2, result.get(0).getMsgSeqId());
+    }
+
+    @Test
+    public void testClaimMessages(){
+        List<ExecutionMessage> msg = new ArrayList<>();
+        ExecutionMessage execMsg = generateMessage(1, "group1", "msg1", 1);
+        execMsg.setWorkerId("worker1");
+        execMsg.setStatus(ExecStatus.ASSIGNED);
+        msg.add(execMsg);
+        executionQueueRepository.insertExecutionStates(msg);
+        executionQueueRepository.insertExecutionQueue(msg, 1L);
+
+        List<ExecutionMessage> result = executionQueueRepository.claimMessages("worker1", 10, 1L);
+
+        Assert.assertEquals(1, result.size());
+        ExecutionMessage claimed = result.get(0);
+        Assert.assertEquals(ExecStatus.SENT, claimed.getStatus());
+        Assert.assertEquals("msg1", claimed.getMsgId());
+        Assert.assertEquals(2, claimed.getMsgSeqId());
+        Assert.assertNotNull(claimed.getPayload());
+
+        Assert.assertTrue(executionQueueRepository.poll("worker1", 10, ExecStatus.ASSIGNED).isEmpty());
+        Assert.assertTrue(executionQueueRepository.claimMessages("worker1", 10, 1L).isEmpty());
+        Assert.assertEquals(1, executionQueueRepository.findByStatuses(10, ExecStatus.SENT).size());
+    }
+
     @Test
     public void testGetBusyWorkersBusyWorker(){
         List<ExecutionMessage> msg = new ArrayList<>();
@@ -298,6 +527,16 @@ public class ExecutionQueueRepositoryTest {
                     return id++;
                 }
 
+                @Override
+                public synchronized long range(int size) {
+                    if (size > MAX_RANGE_SIZE) {
+                        throw new IllegalArgumentException("Range size must be between 1 and " + MAX_RANGE_SIZE + ", got " + size);
+                    }
+                    long first = id;
+                    id += size;
+                    return first;
+                }
+
                 @Override
                 public List<Long> bulk(int bulkSize) {
                     return null;
@@ -305,6 +544,11 @@ public class ExecutionQueueRepositoryTest {
             };
         }
 
+        @Bean
+        DataBaseDetector dataBaseDetector(){
+            return new DataBaseDetector();
+        }
+
         @Bean
         ExecutionQueueRepository executionQueueRepository(){
             return new ExecutionQueueRepositoryImpl();
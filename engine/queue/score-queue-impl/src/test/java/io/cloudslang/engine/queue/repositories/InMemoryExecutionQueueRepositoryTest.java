@@ -0,0 +1,200 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.engine.queue.repositories;
+
+import io.cloudslang.engine.queue.entities.ExecStatus;
+import io.cloudslang.engine.queue.entities.ExecutionMessage;
+import io.cloudslang.engine.queue.entities.Payload;
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Same scenarios as ExecutionQueueRepositoryTest, against the in-memory queue.
+ */
+public class InMemoryExecutionQueueRepositoryTest {
+
+    private InMemoryExecutionQueueRepository executionQueueRepository;
+
+    @Before
+    public void init() {
+        executionQueueRepository = new InMemoryExecutionQueueRepository();
+    }
+
+    @Test
+    public void testInsert(){
+        executionQueueRepository.insertExecutionQueue(Collections.singletonList(generateMessage(1, "group1", "msg1", ExecStatus.SENT, 1)), 1L);
+
+        List<ExecutionMessage> result = executionQueueRepository.pollMessagesWithoutAck(100, 2);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(ExecStatus.SENT, result.get(0).getStatus());
+        Assert.assertEquals("group1", result.get(0).getWorkerGroup());
+        Assert.assertEquals(1, executionQueueRepository.countMessagesWithoutAckForWorker(100, 2, "worker1").intValue());
+        Assert.assertTrue(executionQueueRepository.pollMessagesWithoutAck(100, 1).isEmpty());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInsertFailureDueToUniqueConstraint(){
+        List<ExecutionMessage> msg = new ArrayList<>();
+        msg.add(generateMessage(1, "group1", "msg1", ExecStatus.SENT, 1));
+        msg.add(generateMessage(1, "group1", "msg1", ExecStatus.SENT, 1));
+        executionQueueRepository.insertExecutionQueue(msg, 1L);
+    }
+
+    @Test
+    public void testPollOrderedByCreateTimeAndLatestOnly() throws InterruptedException {
+        insert(generateMessage(1, "group1", "msg1", ExecStatus.IN_PROGRESS, 1));
+        Thread.sleep(5);
+        insert(generateMessage(2, "group1", "msg2", ExecStatus.ASSIGNED, 1));
+        insert(generateMessage(3, "group1", "msg3", ExecStatus.IN_PROGRESS, 1));
+
+        List<ExecutionMessage> result = executionQueueRepository.poll("worker1", 10, ExecStatus.ASSIGNED, ExecStatus.IN_PROGRESS);
+        Assert.assertEquals(3, result.size());
+        Assert.assertEquals(1, result.get(0).getExecStateId());
+        Assert.assertNotNull(result.get(0).getPayload());
+
+        executionQueueRepository.insertExecutionQueue(Collections.singletonList(generateMessage(1, "group1", "msg1", ExecStatus.FINISHED, 2)), 1L);
+        Assert.assertEquals(2, executionQueueRepository.poll("worker1", 10, ExecStatus.ASSIGNED, ExecStatus.IN_PROGRESS).size());
+        Assert.assertEquals(1, executionQueueRepository.pollRecovery("worker1", 10, ExecStatus.IN_PROGRESS).size());
+        Assert.assertEquals(1, executionQueueRepository.poll("worker1", 1, ExecStatus.ASSIGNED, ExecStatus.IN_PROGRESS).size());
+    }
+
+    @Test
+    public void testPollOrderedByPriority() {
+        insert(generateMessage(1, "group1", "msg1", ExecStatus.ASSIGNED, 1));
+        ExecutionMessage highPriority = generateMessage(2, "group1", "msg2", ExecStatus.ASSIGNED, 1);
+        highPriority.setPriority(5);
+        insert(highPriority);
+
+        List<ExecutionMessage> result = executionQueueRepository.poll("worker1", 10, ExecStatus.ASSIGNED);
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals(2, result.get(0).getExecStateId());
+        Assert.assertEquals(5, result.get(0).getPriority());
+
+        List<ExecutionMessage> claimed = executionQueueRepository.claimMessages("worker1", 1, 1L);
+        Assert.assertEquals(1, claimed.size());
+        Assert.assertEquals("msg2", claimed.get(0).getMsgId());
+    }
+
+    @Test
+    public void testClaimMessages(){
+        insert(generateMessage(1, "group1", "msg1", ExecStatus.ASSIGNED, 1));
+
+        List<ExecutionMessage> result = executionQueueRepository.claimMessages("worker1", 10, 1L);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(ExecStatus.SENT, result.get(0).getStatus());
+        Assert.assertEquals("msg1", result.get(0).getMsgId());
+        Assert.assertEquals(2, result.get(0).getMsgSeqId());
+        Assert.assertNotNull(result.get(0).getPayload());
+
+        Assert.assertTrue(executionQueueRepository.claimMessages("worker1", 10, 1L).isEmpty());
+        Assert.assertTrue(executionQueueRepository.getBusyWorkers(ExecStatus.ASSIGNED).isEmpty());
+        Assert.assertEquals(1, executionQueueRepository.findByStatuses(10, ExecStatus.SENT).size());
+    }
+
+    @Test
+    public void testConcurrentClaimsClaimEveryMessageOnce() throws Exception {
+        final int messages = 1000;
+        for (int i = 1; i <= messages; i++) {
+            insert(generateMessage(i, "group" + (i % 3), "msg" + i, ExecStatus.ASSIGNED, 1));
+        }
+
+        final Set<Long> claimed = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    List<ExecutionMessage> result;
+                    do {
+                        result = executionQueueRepository.claimMessages("worker1", 7, 1L);
+                        for (ExecutionMessage msg : result) {
+                            if (!claimed.add(msg.getExecStateId())) {
+                                duplicates.incrementAndGet();
+                            }
+                        }
+                    } while (!result.isEmpty() || !executionQueueRepository.poll("worker1", 1, ExecStatus.ASSIGNED).isEmpty());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        Assert.assertEquals(0, duplicates.get());
+        Assert.assertEquals(messages, claimed.size());
+        Assert.assertEquals(messages, executionQueueRepository.findByStatuses(messages + 1, ExecStatus.SENT).size());
+    }
+
+    @Test
+    public void testHasMessages(){
+        insert(generateMessage(1, "group1", "msg1", ExecStatus.ASSIGNED, 1));
+
+        Assert.assertTrue(executionQueueRepository.hasMessages("worker1", ExecStatus.ASSIGNED));
+        Assert.assertFalse(executionQueueRepository.hasMessages("worker2", ExecStatus.ASSIGNED));
+
+        executionQueueRepository.claimMessages("worker1", 10, 1L);
+        Assert.assertFalse(executionQueueRepository.hasMessages("worker1", ExecStatus.ASSIGNED));
+        Assert.assertTrue(executionQueueRepository.hasMessages("worker1", ExecStatus.SENT));
+    }
+
+    @Test
+    public void testGetBusyWorkers(){
+        insert(generateMessage(1, "group1", "msg1", ExecStatus.ASSIGNED, 1));
+
+        Assert.assertEquals(Collections.singletonList("worker1"), executionQueueRepository.getBusyWorkers(ExecStatus.ASSIGNED));
+        Assert.assertTrue(executionQueueRepository.getBusyWorkers(ExecStatus.IN_PROGRESS).isEmpty());
+    }
+
+    @Test
+    public void testFinishedStepsCleanup(){
+        insert(generateMessage(1, "group1", "msg1", ExecStatus.IN_PROGRESS, 1));
+        insert(generateMessage(2, "group1", "msg2", ExecStatus.IN_PROGRESS, 1));
+        executionQueueRepository.insertExecutionQueue(Collections.singletonList(generateMessage(1, "group1", "msg1", ExecStatus.FINISHED, 2)), 1L);
+
+        Assert.assertTrue(Arrays.equals(new long[]{1L}, executionQueueRepository.getFinishedExecStateIds(0L, 10)));
+        Assert.assertEquals(0, executionQueueRepository.getFinishedExecStateIds(1L, 10).length);
+
+        executionQueueRepository.deleteFinishedSteps(executionQueueRepository.getFinishedExecStateIds(0L, 10));
+
+        Assert.assertEquals(0, executionQueueRepository.getFinishedExecStateIds(0L, 10).length);
+        Assert.assertTrue(executionQueueRepository.findByStatuses(10, ExecStatus.FINISHED).isEmpty());
+        Map<Long, Payload> payloads = executionQueueRepository.findPayloadByExecutionIds(1L, 2L);
+        Assert.assertEquals(1, payloads.size());
+        Assert.assertTrue(payloads.containsKey(2L));
+    }
+
+    private void insert(ExecutionMessage message) {
+        List<ExecutionMessage> msg = Collections.singletonList(message);
+        executionQueueRepository.insertExecutionStates(msg);
+        executionQueueRepository.insertExecutionQueue(msg, 1L);
+    }
+
+    private ExecutionMessage generateMessage(long execStateId, String groupName, String msgId, ExecStatus status, int msgSeqId) {
+        Payload payload = new Payload("This is just a test".getBytes());
+        return new ExecutionMessage(execStateId, "worker1", groupName, msgId, status, payload, msgSeqId);
+    }
+}
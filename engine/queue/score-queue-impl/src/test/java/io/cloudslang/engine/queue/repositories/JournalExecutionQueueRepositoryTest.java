@@ -0,0 +1,196 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.engine.queue.repositories;
+
+import io.cloudslang.engine.queue.entities.ExecStatus;
+import io.cloudslang.engine.queue.entities.ExecutionMessage;
+import io.cloudslang.engine.queue.entities.Payload;
+import io.cloudslang.score.facade.execution.PauseReason;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class JournalExecutionQueueRepositoryTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JournalExecutionQueueRepository executionQueueRepository;
+
+    @Before
+    public void init() throws IOException {
+        executionQueueRepository = open();
+    }
+
+    @After
+    public void close() throws IOException {
+        executionQueueRepository.close();
+    }
+
+    @Test
+    public void testQueueIsReplayedAfterRestart() throws IOException {
+        insert(generateMessage(1, "msg1", ExecStatus.ASSIGNED, 1));
+        insert(generateMessage(2, "msg2", ExecStatus.ASSIGNED, 1));
+        Assert.assertEquals(1, executionQueueRepository.claimMessages("worker1", 1, 5L).size());
+
+        executionQueueRepository = reopen();
+
+        List<ExecutionMessage> sent = executionQueueRepository.poll("worker1", 10, ExecStatus.SENT);
+        Assert.assertEquals(1, sent.size());
+        Assert.assertEquals(1, sent.get(0).getExecStateId());
+        Assert.assertEquals(2, sent.get(0).getMsgSeqId());
+        Assert.assertEquals("msg1", sent.get(0).getMsgId());
+        Assert.assertEquals("This is just a test", new String(sent.get(0).getPayload().getData()));
+        Assert.assertEquals(1, executionQueueRepository.countMessagesWithoutAckForWorker(10, 6L, "worker1").intValue());
+        Assert.assertEquals(1, executionQueueRepository.poll("worker1", 10, ExecStatus.ASSIGNED).size());
+    }
+
+    @Test
+    public void testHeadersAreReplayedAfterRestart() throws IOException {
+        ExecutionMessage message = generateMessage(1, "msg1", ExecStatus.ASSIGNED, 1);
+        message.setBranchId("branch1");
+        message.setSplitId("split1");
+        message.setPauseReason(PauseReason.NO_WORKERS_IN_GROUP);
+        message.setPriority(3);
+        insert(message);
+        Assert.assertEquals("branch1", executionQueueRepository.claimMessages("worker1", 1, 5L).get(0).getBranchId());
+
+        executionQueueRepository = reopen();
+
+        List<ExecutionMessage> sent = executionQueueRepository.poll("worker1", 10, ExecStatus.SENT);
+        Assert.assertEquals(1, sent.size());
+        Assert.assertEquals("branch1", sent.get(0).getBranchId());
+        Assert.assertEquals("split1", sent.get(0).getSplitId());
+        Assert.assertEquals(PauseReason.NO_WORKERS_IN_GROUP, sent.get(0).getPauseReason());
+        Assert.assertEquals(3, sent.get(0).getPriority());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testInsertFailureDueToUniqueConstraintAfterRestart() throws IOException {
+        insert(generateMessage(1, "msg1", ExecStatus.ASSIGNED, 1));
+
+        executionQueueRepository = reopen();
+
+        executionQueueRepository.insertExecutionQueue(Collections.singletonList(generateMessage(1, "msg1", ExecStatus.ASSIGNED, 1)), 1L);
+    }
+
+    @Test
+    public void testRejectedInsertIsNotJournaled() throws IOException {
+        insert(generateMessage(1, "msg1", ExecStatus.ASSIGNED, 1));
+        ExecutionMessage duplicate = generateMessage(1, "msg1", ExecStatus.ASSIGNED, 1);
+        duplicate.setWorkerId("worker2");
+        try {
+            executionQueueRepository.insertExecutionQueue(Collections.singletonList(duplicate), 1L);
+            Assert.fail("Duplicate queue entry was inserted");
+        } catch (RuntimeException ex) {
+            //expected
+        }
+
+        executionQueueRepository = reopen();
+
+        Assert.assertEquals(1, executionQueueRepository.poll("worker1", 10, ExecStatus.ASSIGNED).size());
+        Assert.assertEquals(0, executionQueueRepository.poll("worker2", 10, ExecStatus.ASSIGNED).size());
+    }
+
+    @Test
+    public void testDeletedStepsAreNotReplayedAndSegmentsAreReclaimed() throws IOException {
+        long[] ids = new long[50];
+        for (long id = 1; id <= 50; id++) {
+            insert(generateMessage(id, "msg" + id, ExecStatus.FINISHED, 1));
+            ids[(int) id - 1] = id;
+        }
+        insert(generateMessage(100, "msg100", ExecStatus.IN_PROGRESS, 1));
+        int segmentsBefore = segmentFiles().length;
+        Assert.assertTrue(segmentsBefore > 2);
+
+        Assert.assertTrue(Arrays.equals(ids, executionQueueRepository.getFinishedExecStateIds(0L, 100)));
+        executionQueueRepository.deleteFinishedSteps(ids);
+        Assert.assertTrue(segmentFiles().length < segmentsBefore);
+
+        executionQueueRepository = reopen();
+
+        Assert.assertEquals(0, executionQueueRepository.getFinishedExecStateIds(0L, 100).length);
+        List<ExecutionMessage> inProgress = executionQueueRepository.poll("worker1", 10, ExecStatus.IN_PROGRESS);
+        Assert.assertEquals(1, inProgress.size());
+        Assert.assertEquals("msg100", inProgress.get(0).getMsgId());
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws IOException {
+        insert(generateMessage(1, "msg1", ExecStatus.ASSIGNED, 1));
+        executionQueueRepository.close();
+
+        File segment = segmentFiles()[segmentFiles().length - 1];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            long end = findEnd(file);
+            file.seek(end);
+            file.writeInt(100);
+            file.writeInt(12345);
+            file.writeLong(1L);
+        }
+        executionQueueRepository = open();
+
+        Assert.assertEquals(1, executionQueueRepository.poll("worker1", 10, ExecStatus.ASSIGNED).size());
+    }
+
+    private long findEnd(RandomAccessFile file) throws IOException {
+        long position = 0;
+        while (position + 8 <= file.length()) {
+            file.seek(position);
+            int length = file.readInt();
+            if (length <= 0) {
+                return position;
+            }
+            position += 8 + length;
+        }
+        return position;
+    }
+
+    private File[] segmentFiles() {
+        return folder.getRoot().listFiles();
+    }
+
+    private JournalExecutionQueueRepository reopen() throws IOException {
+        executionQueueRepository.close();
+        return open();
+    }
+
+    private JournalExecutionQueueRepository open() throws IOException {
+        JournalExecutionQueueRepository repository = new JournalExecutionQueueRepository();
+        repository.setDirectory(folder.getRoot().getAbsolutePath());
+        repository.setSegmentSize(SEGMENT_SIZE);
+        repository.init();
+        return repository;
+    }
+
+    private void insert(ExecutionMessage message) {
+        List<ExecutionMessage> msg = Collections.singletonList(message);
+        executionQueueRepository.insertExecutionStates(msg);
+        executionQueueRepository.insertExecutionQueue(msg, 1L);
+    }
+
+    private ExecutionMessage generateMessage(long execStateId, String msgId, ExecStatus status, int msgSeqId) {
+        Payload payload = new Payload("This is just a test".getBytes());
+        return new ExecutionMessage(execStateId, "worker1", "group1", msgId, status, payload, msgSeqId);
+    }
+}
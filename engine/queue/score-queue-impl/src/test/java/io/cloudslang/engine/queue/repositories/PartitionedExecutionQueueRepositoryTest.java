@@ -0,0 +1,286 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.engine.queue.repositories;
+
+import io.cloudslang.engine.data.DataBaseDetector;
+import io.cloudslang.engine.data.IdentityGenerator;
+import io.cloudslang.engine.partitions.services.PartitionTemplate;
+import io.cloudslang.engine.queue.entities.ExecStatus;
+import io.cloudslang.engine.queue.entities.ExecutionMessage;
+import io.cloudslang.engine.queue.entities.Payload;
+import io.cloudslang.engine.queue.repositories.callbacks.ExecutionQueuesCallback;
+import junit.framework.Assert;
+import liquibase.integration.spring.SpringLiquibase;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.transaction.TransactionConfiguration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * The queue over the partitions of OO_EXECUTION_QUEUES and OO_EXECUTION_STATES.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration
+@Transactional
+@TransactionConfiguration(defaultRollback = true)
+public class PartitionedExecutionQueueRepositoryTest {
+
+    @Autowired
+    private ExecutionQueueRepository executionQueueRepository;
+
+    @Autowired
+    private PartitionTemplate partitionTemplate;
+
+    @Autowired
+    private ExecutionQueuesCallback callback;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void init() {
+        roll(1, 4);
+    }
+
+    @Test
+    public void testMessagesOfPreviousPartitionAreRead() {
+        insert(generateMessage(1, "msg1", ExecStatus.ASSIGNED, 1));
+        Assert.assertEquals(1, count("OO_EXECUTION_QUEUES_1"));
+
+        roll(2, 1);
+        Assert.assertEquals(1, executionQueueRepository.poll("worker1", 10, ExecStatus.ASSIGNED).size());
+
+        insertQueue(generateMessage(1, "msg1", ExecStatus.IN_PROGRESS, 2));
+        Assert.assertEquals(1, count("OO_EXECUTION_QUEUES_2"));
+        Assert.assertTrue(executionQueueRepository.poll("worker1", 10, ExecStatus.ASSIGNED).isEmpty());
+        List<ExecutionMessage> result = executionQueueRepository.poll("worker1", 10, ExecStatus.IN_PROGRESS);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(2, result.get(0).getMsgSeqId());
+        Assert.assertEquals("This is just a test", new String(result.get(0).getPayload().getData()));
+    }
+
+    @Test
+    public void testPayloadsAreReadAfterRoll() {
+        insert(generateMessage(1, "msg1", ExecStatus.ASSIGNED, 1));
+        roll(2, 1);
+        insert(generateMessage(2, "msg2", ExecStatus.ASSIGNED, 1));
+
+        Map<Long, Payload> payloads = executionQueueRepository.findPayloadByExecutionIds(1L, 2L);
+        Assert.assertEquals(2, payloads.size());
+        Assert.assertEquals("This is just a test", new String(payloads.get(1L).getData()));
+
+        List<ExecutionMessage> result = executionQueueRepository.claimMessages("worker1", 10, 1L);
+        Assert.assertEquals(2, result.size());
+        // the active partition is claimed first
+        Assert.assertEquals("msg2", result.get(0).getMsgId());
+        Assert.assertEquals("msg1", result.get(1).getMsgId());
+    }
+
+    @Test
+    public void testWritesReadTheActivePartitionAgain() {
+        // another node rolled the partitions, this node did not refresh the active one yet
+        when(partitionTemplate.readActiveTable()).thenReturn("OO_EXECUTION_QUEUES_2");
+
+        insert(generateMessage(1, "msg1", ExecStatus.ASSIGNED, 1));
+        Assert.assertEquals(0, count("OO_EXECUTION_QUEUES_1"));
+        Assert.assertEquals(1, count("OO_EXECUTION_QUEUES_2"));
+        Assert.assertEquals(1, count("OO_EXECUTION_STATES_2"));
+    }
+
+    @Test
+    public void testLateWriteToPreviousPartitionIsCarriedByTheCallback() {
+        insert(generateMessage(1, "msg1", ExecStatus.ASSIGNED, 1));
+        roll(2, 1);
+        callback.doCallback("OO_EXECUTION_QUEUES_1", "OO_EXECUTION_QUEUES_2");
+
+        // an enqueue that started before the roll committed still writes to the partition before it
+        roll(1, 4);
+        insertQueue(generateMessage(1, "msg1", ExecStatus.IN_PROGRESS, 2));
+        roll(2, 1);
+
+        callback.doCallback("OO_EXECUTION_QUEUES_1", "OO_EXECUTION_QUEUES_2");
+        Assert.assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM OO_EXECUTION_QUEUES_2 WHERE IS_LATEST = 1", Integer.class).intValue());
+        List<ExecutionMessage> inProgress = executionQueueRepository.findByStatuses(10, ExecStatus.IN_PROGRESS);
+        Assert.assertEquals(1, inProgress.size());
+        Assert.assertEquals(2, inProgress.get(0).getMsgSeqId());        Assert.assertTrue(executionQueueRepository.poll("worker1", 10, ExecStatus.ASSIGNED).isEmpty());
+        Assert.assertTrue(executionQueueRepository.claimMessages("worker1", 10, 1L).isEmpty());
+    }
+
+    @Test
+    public void testLiveMessagesAreCarriedForward() {
+        ExecutionMessage message = generateMessage(1, "msg1", ExecStatus.ASSIGNED, 1);
+        message.setBranchId("branch1");
+        message.setSplitId("split1");
+        message.setPriority(3);
+        insert(message);
+        insert(generateMessage(2, "msg2", ExecStatus.IN_PROGRESS, 1));
+        insertQueue(generateMessage(2, "msg2", ExecStatus.FINISHED, 2));
+
+        roll(2, 1);
+        callback.doCallback("OO_EXECUTION_QUEUES_1", "OO_EXECUTION_QUEUES_2");
+        // idempotent - the callback runs again after the roll
+        callback.doCallback("OO_EXECUTION_QUEUES_1", "OO_EXECUTION_QUEUES_2");
+
+        Assert.assertEquals(1, count("OO_EXECUTION_QUEUES_2"));
+        Assert.assertEquals(1, count("OO_EXECUTION_STATES_2"));
+
+        roll(3, 2);
+        List<ExecutionMessage> result = executionQueueRepository.claimMessages("worker1", 10, 1L);
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(1, result.get(0).getExecStateId());
+        Assert.assertEquals("msg1", result.get(0).getMsgId());
+        Assert.assertEquals(2, result.get(0).getMsgSeqId());
+        Assert.assertEquals("branch1", result.get(0).getBranchId());
+        Assert.assertEquals("split1", result.get(0).getSplitId());
+        Assert.assertEquals(3, result.get(0).getPriority());
+        Assert.assertEquals(1, executionQueueRepository.findByStatuses(10, ExecStatus.SENT).size());
+    }
+
+    @Test
+    public void testFinishedStepsAreNotDeleted() {
+        insert(generateMessage(1, "msg1", ExecStatus.FINISHED, 1));
+
+        Assert.assertEquals(0, executionQueueRepository.getFinishedExecStateIds(Long.MIN_VALUE, 10).length);
+        executionQueueRepository.deleteFinishedSteps(new long[]{1L});
+        Assert.assertEquals(1, count("OO_EXECUTION_QUEUES_1"));
+    }
+
+    private void roll(int active, int previous) {
+        when(partitionTemplate.activeTable()).thenReturn("OO_EXECUTION_QUEUES_" + active);
+        when(partitionTemplate.readActiveTable()).thenReturn("OO_EXECUTION_QUEUES_" + active);
+        when(partitionTemplate.previousTable()).thenReturn("OO_EXECUTION_QUEUES_" + previous);
+    }
+
+    private int count(String table) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+    }
+
+    private void insert(ExecutionMessage message) {
+        executionQueueRepository.insertExecutionStates(Collections.singletonList(message));
+        insertQueue(message);
+    }
+
+    private void insertQueue(ExecutionMessage message) {
+        executionQueueRepository.insertExecutionQueue(Collections.singletonList(message), 1L);
+    }
+
+    private ExecutionMessage generateMessage(long execStateId, String msgId, ExecStatus status, int msgSeqId) {
+        Payload payload = new Payload("This is just a test".getBytes());
+        return new ExecutionMessage(execStateId, "worker1", "group1", msgId, status, payload, msgSeqId);
+    }
+
+    @Configuration
+    @EnableTransactionManagement
+    static class Configurator {
+        @Autowired
+        private DataSource dataSource;
+
+        @Bean
+        DataSource dataSource(){
+            BasicDataSource ds = new BasicDataSource();
+            ds.setDriverClassName("org.h2.Driver");
+            ds.setUrl("jdbc:h2:mem:partitions");
+            ds.setUsername("sa");
+            ds.setPassword("sa");
+            ds.setDefaultAutoCommit(false);
+            return new TransactionAwareDataSourceProxy(ds);
+        }
+
+        @Bean
+        SpringLiquibase liquibase(){
+            SpringLiquibase liquibase = new SpringLiquibase();
+            liquibase.setDataSource(dataSource);
+            liquibase.setChangeLog("classpath:/META-INF/database/test.changes.xml");
+            return liquibase;
+        }
+
+        @Bean(name="transactionManager")
+        PlatformTransactionManager txManager() {
+            return new DataSourceTransactionManager(dataSource());
+        }
+
+        @Bean
+        TransactionTemplate transactionTemplate() {
+            return new TransactionTemplate(txManager());
+        }
+
+        @Bean
+        JdbcTemplate jdbcTemplate() {
+            return new JdbcTemplate(dataSource());
+        }
+
+        @Bean
+        IdentityGenerator identifierGenerator(){
+            return new IdentityGenerator() {
+                long id = 1;
+                @Override
+                public synchronized Long next() {
+                    return id++;
+                }
+
+                @Override
+                public synchronized long range(int size) {
+                    long first = id;
+                    id += size;
+                    return first;
+                }
+
+                @Override
+                public List<Long> bulk(int bulkSize) {
+                    return null;
+                }
+            };
+        }
+
+        @Bean
+        DataBaseDetector dataBaseDetector(){
+            return new DataBaseDetector();
+        }
+
+        @Bean
+        PartitionTemplate partitionTemplate(){
+            return Mockito.mock(PartitionTemplate.class);
+        }
+
+        @Bean
+        ExecutionQueuesCallback executionQueuesCallback(){
+            return new ExecutionQueuesCallback();
+        }
+
+        @Bean
+        ExecutionQueueRepository executionQueueRepository(){
+            ExecutionQueueRepositoryImpl executionQueueRepository = new ExecutionQueueRepositoryImpl();
+            executionQueueRepository.setPartitionTemplate(partitionTemplate());
+            return executionQueueRepository;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.mockito.Mockito.*;
@@ -65,6 +66,34 @@ public class BusyWorkersServiceTest {
         Assert.assertTrue(busyWorkersService.isWorkerBusy("worker1"));
     }
 
+    @Test
+    public void testWorkerWithoutAssignedMessagesIsIdleAfterFind(){
+        when(executionQueueRepository.getBusyWorkers(ExecStatus.ASSIGNED)).thenReturn(Collections.singletonList("worker4"));
+        busyWorkersService.findBusyWorkers();
+        Assert.assertTrue(busyWorkersService.isWorkerBusy("worker4"));
+
+        when(executionQueueRepository.getBusyWorkers(ExecStatus.ASSIGNED)).thenReturn(Collections.<String>emptyList());
+        busyWorkersService.findBusyWorkers();
+        Assert.assertFalse(busyWorkersService.isWorkerBusy("worker4"));
+    }
+
+    @Test
+    public void testWorkerIsIdleAfterEmptyPoll(){
+        busyWorkersService.markWorkersBusy(Collections.singleton("worker2"));
+        Assert.assertTrue(busyWorkersService.isWorkerBusy("worker2"));
+
+        busyWorkersService.markWorkerIdle("worker2", System.nanoTime());
+        Assert.assertFalse(busyWorkersService.isWorkerBusy("worker2"));
+    }
+
+    @Test
+    public void testWorkerMarkedBusyDuringPollStaysBusy(){
+        long pollStartTime = System.nanoTime();
+        busyWorkersService.markWorkersBusy(Collections.singleton("worker3"));
+
+        busyWorkersService.markWorkerIdle("worker3", pollStartTime);
+        Assert.assertTrue(busyWorkersService.isWorkerBusy("worker3"));
+    }
 
     @Configuration
     static class EmptyConfig {
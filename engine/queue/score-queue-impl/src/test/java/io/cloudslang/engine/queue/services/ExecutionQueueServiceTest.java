@@ -12,6 +12,7 @@ package io.cloudslang.engine.queue.services;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
+import io.cloudslang.engine.data.DataBaseDetector;
 import io.cloudslang.engine.data.IdentityGenerator;
 import io.cloudslang.engine.data.SimpleHiloIdentifierGenerator;
 import io.cloudslang.engine.node.services.WorkerNodeService;
@@ -306,6 +307,13 @@ public class ExecutionQueueServiceTest {
 					return id++;
 				}
 
+				@Override
+				public synchronized long range(int size) {
+					long first = id;
+					id += size;
+					return first;
+				}
+
 				@Override
 				public List<Long> bulk(int bulkSize) {
 					return null;
@@ -328,6 +336,11 @@ public class ExecutionQueueServiceTest {
 			return mock(VersionService.class);
 		}
 
+		@Bean
+		DataBaseDetector dataBaseDetector(){
+			return new DataBaseDetector();
+		}
+
 		@Bean
 		ExecutionQueueRepository executionQueueRepository(){
 			return new ExecutionQueueRepositoryImpl();
@@ -10,7 +10,6 @@
 
 package io.cloudslang.engine.queue.services;
 
-import io.cloudslang.engine.queue.entities.ExecStatus;
 import io.cloudslang.engine.queue.entities.ExecutionMessage;
 import junit.framework.Assert;
 import org.junit.Before;
@@ -79,7 +78,7 @@ public class QueueDispatcherServiceTest {
         Date now = new Date();
         when(busyWorkersService.isWorkerBusy("workerId")).thenReturn(true);
         queueDispatcherService.poll("workerId",5);
-        verify(executionQueueService,times(1)).poll("workerId", 5, ExecStatus.ASSIGNED);
+        verify(executionQueueService,times(1)).claimAssignedMessages("workerId", 5);
     }
 
     @Test
@@ -87,7 +86,7 @@ public class QueueDispatcherServiceTest {
         Date now = new Date();
         List<ExecutionMessage> msg = new ArrayList<>();
 
-        when(executionQueueService.poll("workerId", 5, ExecStatus.ASSIGNED)).thenReturn(msg);
+        when(executionQueueService.claimAssignedMessages("workerId", 5)).thenReturn(msg);
         List<ExecutionMessage> result = queueDispatcherService.poll("workerId",5);
         Assert.assertTrue(result.isEmpty());
     }
@@ -103,7 +102,7 @@ public class QueueDispatcherServiceTest {
         msg.add(new ExecutionMessage());
         msg.get(1).setMsgId("id2");
 
-        when(executionQueueService.poll("workerId", 5, ExecStatus.ASSIGNED)).thenReturn(msg);
+        when(executionQueueService.claimAssignedMessages("workerId", 5)).thenReturn(msg);
         List<ExecutionMessage> result = queueDispatcherService.poll("workerId",5);
         Assert.assertEquals(2,result.size());
         Assert.assertEquals("id1",result.get(0).getMsgId());
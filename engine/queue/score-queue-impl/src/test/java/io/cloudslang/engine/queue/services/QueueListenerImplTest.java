@@ -16,6 +16,7 @@ import io.cloudslang.score.events.EventBus;
 import io.cloudslang.score.events.ScoreEvent;
 import io.cloudslang.score.facade.entities.Execution;
 import io.cloudslang.score.facade.execution.ExecutionSummary;
+import io.cloudslang.score.facade.execution.PauseReason;
 import io.cloudslang.score.lang.SystemContext;
 import io.cloudslang.orchestrator.services.ExecutionStateService;
 import io.cloudslang.orchestrator.services.PauseResumeService;
@@ -23,6 +24,7 @@ import io.cloudslang.orchestrator.services.SplitJoinService;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatcher;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -72,6 +74,9 @@ public class QueueListenerImplTest {
 	@Autowired
 	private SplitJoinService splitJoinService;
 
+	@Autowired
+	private PauseResumeService pauseResumeService;
+
 	@Before
 	public void setup() throws IOException {
 		reset(eventBus);
@@ -196,6 +201,27 @@ public class QueueListenerImplTest {
 		verify(splitJoinService, times(1)).endBranch((List<Execution>) argThat(hasItem(execution2)));
 	}
 
+	@Test
+	public void testOnFailedBecauseNoWorkerPausesExecution() {
+		Execution execution = new Execution(1L, 0L, 0L, new HashMap<String, String>(), null);
+		ExecutionMessage message = createExecutionMessage(execution);
+		message.setWorkerGroup("GroupX");
+		message.setPauseReason(PauseReason.NO_WORKERS_IN_GROUP);
+		List<ExecutionMessage> messages = new ArrayList<>();
+		messages.add(message);
+
+		queueListener.onFailed(messages);
+
+		verify(executionStateService, never()).deleteExecutionState(Long.valueOf(message.getMsgId()), ExecutionSummary.EMPTY_BRANCH);
+		verify(pauseResumeService, times(1)).pauseExecution(1L, null, PauseReason.NO_WORKERS_IN_GROUP);
+		verify(scoreEventFactory, times(1)).createNoWorkerEvent(argThat(new ArgumentMatcher<Execution>() {
+			@Override
+			public boolean matches(Object argument) {
+				return "GroupX".equals(((Execution) argument).getSystemContext().getNoWorkerInGroupName());
+			}
+		}), any(Long.class));
+	}
+
 	@Configuration
 	static class QueueListenerImplTestContext {
 
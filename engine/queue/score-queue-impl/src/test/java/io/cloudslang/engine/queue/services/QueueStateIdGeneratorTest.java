@@ -51,4 +51,10 @@ public class QueueStateIdGeneratorTest {
         queueStateIdGeneratorService.generateStateId();
         verify(identityGenerator, times(0)).bulk(anyInt());
     }
+
+    @Test
+    public void verifyLeaseReservesARange() {
+        queueStateIdGeneratorService.leaseStateIds(1000);
+        verify(identityGenerator, times(1)).range(1000);
+    }
 }
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.engine.queue.services;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class WorkNotificationServiceTest {
+
+    private WorkNotificationService workNotificationService = new WorkNotificationServiceImpl();
+
+    @Test
+    public void testAwaitTimesOutWithoutNotification() throws InterruptedException {
+        Assert.assertFalse(workNotificationService.awaitWork("worker1", 10));
+    }
+
+    @Test
+    public void testNotificationBeforeAwaitIsKept() throws InterruptedException {
+        workNotificationService.notifyWorkers(Collections.singleton("worker1"));
+
+        Assert.assertTrue(workNotificationService.awaitWork("worker1", 10000));
+        Assert.assertFalse(workNotificationService.awaitWork("worker1", 10));
+    }
+
+    @Test(timeout = 10000)
+    public void testWaitingWorkerIsWokenUp() throws InterruptedException {
+        Thread notifier = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignore) {
+                }
+                workNotificationService.notifyWorkers(Collections.singleton("worker1"));
+            }
+        });
+        notifier.start();
+
+        Assert.assertTrue(workNotificationService.awaitWork("worker1", 60000));
+        notifier.join();
+    }
+
+    @Test
+    public void testOtherWorkerIsNotNotified() throws InterruptedException {
+        workNotificationService.notifyWorkers(Collections.singleton("worker1"));
+
+        Assert.assertFalse(workNotificationService.awaitWork("worker2", 10));
+    }
+}
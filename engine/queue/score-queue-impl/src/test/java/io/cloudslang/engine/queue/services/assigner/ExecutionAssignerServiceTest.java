@@ -16,11 +16,9 @@ import io.cloudslang.engine.node.services.WorkerNodeService;
 import io.cloudslang.engine.queue.entities.ExecStatus;
 import io.cloudslang.engine.queue.entities.ExecutionMessage;
 import io.cloudslang.engine.queue.entities.ExecutionMessageConverter;
-import io.cloudslang.engine.queue.entities.Payload;
 import io.cloudslang.engine.queue.services.ExecutionQueueService;
 import io.cloudslang.orchestrator.services.EngineVersionService;
-import io.cloudslang.score.facade.entities.Execution;
-import io.cloudslang.score.lang.SystemContext;
+import io.cloudslang.score.facade.execution.PauseReason;
 import junit.framework.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -37,7 +35,6 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -106,9 +103,6 @@ public class ExecutionAssignerServiceTest {
         Mockito.reset(executionQueueService);
         Mockito.reset(workerNodeService);
         Mockito.when(workerNodeService.readGroupWorkersMapActiveAndRunningAndVersion(engineVersionService.getEngineVersionId())).thenReturn(groupWorkersMap);
-        Execution execution = Mockito.mock(Execution.class);
-        Mockito.when(execution.getSystemContext()).thenReturn(new SystemContext());
-        Mockito.when(executionMessageConverter.extractExecution(any(Payload.class))).thenReturn(execution);
 
         final List<ExecutionMessage> messagesInQ = executionAssignerService.assignWorkers(assignMessages);
 
@@ -123,6 +117,34 @@ public class ExecutionAssignerServiceTest {
         Assert.assertEquals(ExecStatus.FAILED.getNumber(), FailedMsg.getStatus().getNumber());
         Assert.assertEquals(2, FailedMsg.getMsgSeqId());
         Assert.assertEquals("EMPTY", FailedMsg.getWorkerId());
+        Assert.assertEquals(PauseReason.NO_WORKERS_IN_GROUP, FailedMsg.getPauseReason());
+        Assert.assertNull(finishMsg.getPauseReason());
+        Mockito.verifyZeroInteractions(executionMessageConverter); //the payload is not extracted
+    }
+
+    @Test
+    public void assignToTheWorkerThatLastRanTheExecution() throws Exception {
+
+        Multimap<String, String> groupWorkersMap = ArrayListMultimap.create();
+        groupWorkersMap.put("DefaultGroup", "worker1");
+        groupWorkersMap.put("DefaultGroup", "worker2");
+        groupWorkersMap.put("DefaultGroup", "worker3");
+
+        Mockito.reset(executionQueueService);
+        Mockito.reset(workerNodeService);
+        Mockito.when(workerNodeService.readGroupWorkersMapActiveAndRunningAndVersion(engineVersionService.getEngineVersionId())).thenReturn(groupWorkersMap);
+
+        for (int i = 0; i < 10; i++) {
+            List<ExecutionMessage> assignMessages = new ArrayList<>();
+            assignMessages.add(new ExecutionMessage(i, "worker2", "DefaultGroup", "msg" + i, ExecStatus.FINISHED, null, 1, (new Date(0)).getTime()));
+            assignMessages.add(new ExecutionMessage(i, ExecutionMessage.EMPTY_WORKER, "DefaultGroup", "msg" + i, ExecStatus.PENDING, null, 0, (new Date(0)).getTime()));
+
+            final List<ExecutionMessage> messagesInQ = executionAssignerService.assignWorkers(assignMessages);
+
+            Assert.assertEquals(2, messagesInQ.size());
+            Assert.assertEquals(ExecStatus.ASSIGNED, messagesInQ.get(1).getStatus());
+            Assert.assertEquals("worker2", messagesInQ.get(1).getWorkerId());
+        }
     }
 
     @Configuration
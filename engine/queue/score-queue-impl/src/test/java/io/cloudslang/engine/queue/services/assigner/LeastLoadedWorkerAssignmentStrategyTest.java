@@ -0,0 +1,145 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.engine.queue.services.assigner;
+
+import io.cloudslang.engine.node.entities.WorkerNode;
+import io.cloudslang.engine.node.services.WorkerNodeService;
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.when;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration
+public class LeastLoadedWorkerAssignmentStrategyTest {
+
+    private static final List<String> WORKERS = Arrays.asList("worker1", "worker2");
+
+    private static final AtomicLong ackTime = new AtomicLong(System.currentTimeMillis());
+
+    @Autowired
+    private LeastLoadedWorkerAssignmentStrategy strategy;
+
+    @Autowired
+    private WorkerNodeService workerNodeService;
+
+    @Before
+    public void init() {
+        Mockito.reset(workerNodeService);
+        // every choice re-reads the reported loads
+        strategy.setRefreshIntervalMillis(0);
+    }
+
+    @Test
+    public void assignsToTheLessLoadedWorker() {
+        when(workerNodeService.readAllNotDeletedWorkers()).thenReturn(Arrays.asList(worker("worker1", 10, 9), worker("worker2", 10, 1)));
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("worker2", strategy.chooseWorker("group", WORKERS, null));
+        }
+    }
+
+    @Test
+    public void loadIsRelativeToCapacity() {
+        when(workerNodeService.readAllNotDeletedWorkers()).thenReturn(Arrays.asList(worker("worker1", 40, 10), worker("worker2", 4, 2)));
+
+        Assert.assertEquals("worker1", strategy.chooseWorker("group", WORKERS, null));
+    }
+
+    @Test
+    public void spreadsStepsAssignedBetweenRefreshes() {
+        strategy.setRefreshIntervalMillis(60000L);
+        when(workerNodeService.readAllNotDeletedWorkers()).thenReturn(Arrays.asList(worker("worker1", 10, 0), worker("worker2", 10, 0)));
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            String worker = strategy.chooseWorker("group", WORKERS, null);
+            counts.put(worker, counts.containsKey(worker) ? counts.get(worker) + 1 : 1);
+        }
+        Assert.assertEquals(50, counts.get("worker1").intValue());
+        Assert.assertEquals(50, counts.get("worker2").intValue());
+        Mockito.verify(workerNodeService, Mockito.times(1)).readAllNotDeletedWorkers();
+    }
+
+    @Test
+    public void workerWithoutReportedLoadIsAssigned() {
+        when(workerNodeService.readAllNotDeletedWorkers()).thenReturn(Arrays.asList(worker("worker1", 10, 5)));
+
+        Assert.assertEquals("worker2", strategy.chooseWorker("group", WORKERS, null));
+        Assert.assertEquals("worker3", strategy.chooseWorker("group", Arrays.asList("worker3"), null));
+    }
+
+    @Test
+    public void preferredWorkerIsAssignedWhileItHasAFreeThread() {
+        strategy.setRefreshIntervalMillis(60000L);
+        when(workerNodeService.readAllNotDeletedWorkers()).thenReturn(Arrays.asList(worker("worker1", 2, 0), worker("worker2", 10, 0)));
+
+        Assert.assertEquals("worker1", strategy.chooseWorker("group", WORKERS, "worker1"));
+        Assert.assertEquals("worker1", strategy.chooseWorker("group", WORKERS, "worker1"));
+        Assert.assertEquals("worker2", strategy.chooseWorker("group", WORKERS, "worker1")); // worker1 is overloaded now
+        Assert.assertEquals("worker2", strategy.chooseWorker("group", WORKERS, "worker3")); // worker3 is not in the group
+    }
+
+    @Test
+    public void assignedStepsAreKeptUntilANewerKeepAlive() {
+        WorkerNode worker1 = worker("worker1", 10, 0);
+        WorkerNode worker2 = worker("worker2", 10, 0);
+        when(workerNodeService.readAllNotDeletedWorkers()).thenReturn(Arrays.asList(worker1, worker2));
+
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals("worker1", strategy.chooseWorker("group", Arrays.asList("worker1"), null));
+        }
+        // the refresh reads the same keep alive, which does not count the 4 steps yet
+        Assert.assertEquals("worker2", strategy.chooseWorker("group", WORKERS, null));
+
+        // a newer keep alive of worker1 reports the steps it runs
+        when(workerNodeService.readAllNotDeletedWorkers()).thenReturn(Arrays.asList(worker("worker1", 10, 0), worker2));
+        Assert.assertEquals("worker1", strategy.chooseWorker("group", WORKERS, null));
+    }
+
+    private WorkerNode worker(String uuid, int capacity, int load) {
+        WorkerNode worker = new WorkerNode();
+        worker.setAckTime(new Date(ackTime.incrementAndGet()));
+        worker.setUuid(uuid);
+        worker.setCapacity(capacity);
+        worker.setLoad(load);
+        return worker;
+    }
+
+    @Configuration
+    static class Configurator {
+
+        @Bean
+        public LeastLoadedWorkerAssignmentStrategy leastLoadedWorkerAssignmentStrategy() {
+            return new LeastLoadedWorkerAssignmentStrategy();
+        }
+
+        @Bean
+        public WorkerNodeService workerNodeService() {
+            return Mockito.mock(WorkerNodeService.class);
+        }
+    }
+}
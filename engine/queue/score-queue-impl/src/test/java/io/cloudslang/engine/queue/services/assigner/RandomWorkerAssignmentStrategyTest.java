@@ -0,0 +1,85 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.engine.queue.services.assigner;
+
+import io.cloudslang.engine.node.entities.WorkerNode;
+import io.cloudslang.engine.node.services.WorkerNodeService;
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.mockito.Mockito.when;
+
+public class RandomWorkerAssignmentStrategyTest {
+
+    private static final List<String> WORKERS = Arrays.asList("worker1", "worker2");
+
+    private WorkerNodeService workerNodeService;
+
+    private RandomWorkerAssignmentStrategy strategy;
+
+    @Before
+    public void init() {
+        workerNodeService = Mockito.mock(WorkerNodeService.class);
+        strategy = new RandomWorkerAssignmentStrategy(workerNodeService);
+        strategy.setRefreshIntervalMillis(60000L);
+    }
+
+    @Test
+    public void preferredWorkerIsAssignedWhileItHasAFreeThread() {
+        when(workerNodeService.readAllNotDeletedWorkers()).thenReturn(Arrays.asList(worker("worker1", 2, 0), worker("worker2", 10, 0)));
+
+        Assert.assertEquals("worker1", strategy.chooseWorker("group", WORKERS, "worker1"));
+        Assert.assertEquals("worker1", strategy.chooseWorker("group", WORKERS, "worker1"));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("worker2", strategy.chooseWorker("group", WORKERS, "worker1")); // worker1 is overloaded now
+        }
+    }
+
+    @Test
+    public void overloadedPreferredWorkerIsAssignedWhenItIsTheOnlyOne() {
+        when(workerNodeService.readAllNotDeletedWorkers()).thenReturn(Arrays.asList(worker("worker1", 1, 5)));
+
+        Assert.assertEquals("worker1", strategy.chooseWorker("group", Arrays.asList("worker1"), "worker1"));
+    }
+
+    @Test
+    public void preferredWorkerWithoutReportedCapacityIsAssigned() {
+        when(workerNodeService.readAllNotDeletedWorkers()).thenReturn(Arrays.asList(worker("worker1", 0, 0), worker("worker2", 10, 0)));
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("worker1", strategy.chooseWorker("group", WORKERS, "worker1"));
+        }
+    }
+
+    @Test
+    public void preferredWorkerOutsideTheGroupIsNotAssigned() {
+        when(workerNodeService.readAllNotDeletedWorkers()).thenReturn(Arrays.asList(worker("worker1", 10, 0), worker("worker2", 10, 0)));
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(WORKERS.contains(strategy.chooseWorker("group", WORKERS, "worker3")));
+        }
+    }
+
+    private WorkerNode worker(String uuid, int capacity, int load) {
+        WorkerNode worker = new WorkerNode();
+        worker.setAckTime(new Date());
+        worker.setUuid(uuid);
+        worker.setCapacity(capacity);
+        worker.setLoad(load);
+        return worker;
+    }
+}
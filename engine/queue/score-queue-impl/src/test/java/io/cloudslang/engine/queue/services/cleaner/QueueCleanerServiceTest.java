@@ -10,6 +10,7 @@
 
 package io.cloudslang.engine.queue.services.cleaner;
 
+import io.cloudslang.engine.data.DataBaseDetector;
 import io.cloudslang.engine.data.IdentityGenerator;
 import io.cloudslang.engine.data.SimpleHiloIdentifierGenerator;
 import io.cloudslang.engine.node.services.WorkerNodeService;
@@ -171,6 +172,13 @@ public class QueueCleanerServiceTest {
 					return id++;
 				}
 
+				@Override
+				public synchronized long range(int size) {
+					long first = id;
+					id += size;
+					return first;
+				}
+
 				@Override
 				public List<Long> bulk(int bulkSize) {
 					return null;
@@ -198,6 +206,11 @@ public class QueueCleanerServiceTest {
 			return mock(VersionService.class);
 		}
 
+		@Bean
+		DataBaseDetector dataBaseDetector(){
+			return new DataBaseDetector();
+		}
+
 		@Bean
 		ExecutionQueueRepository executionQueueRepository(){
 			return new ExecutionQueueRepositoryImpl();
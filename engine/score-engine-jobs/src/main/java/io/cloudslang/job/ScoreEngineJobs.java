@@ -22,6 +22,11 @@ public interface ScoreEngineJobs {
      */
     void cleanQueueJob();
 
+    /**
+     * job that rolls the queue tables to their next partition, when the queue is partitioned
+     */
+    void rollQueuePartitionsJob();
+
     /**
      * job that join all the suspended execution of brunches that finished
      */
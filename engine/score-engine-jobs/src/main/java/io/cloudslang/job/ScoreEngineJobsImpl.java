@@ -18,9 +18,17 @@ import org.apache.commons.lang.time.StopWatch;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class will unite all periodic jobs needed by the score engine, to be triggered by a scheduler .
@@ -46,37 +54,117 @@ public class ScoreEngineJobsImpl implements ScoreEngineJobs {
 
     final private int QUEUE_BULK_SIZE = 500;
 
+    final private int QUEUE_MIN_BULK_SIZE = 50;
+
+    // a bulk is deleted with a single in clause, which databases limit to 1000 (Oracle) or 2100 (SQL Server) items
+    final private int DATABASE_IN_CLAUSE_LIMIT = 1000;
+
+    final private int QUEUE_MAX_BULK_SIZE = Math.min(Integer.getInteger("queue.cleaner.max.bulk.size", DATABASE_IN_CLAUSE_LIMIT), DATABASE_IN_CLAUSE_LIMIT);
+
+    final private int QUEUE_PAGE_SIZE = Integer.getInteger("queue.cleaner.page.size", 10000);
+
+    final private int QUEUE_CLEANER_PARALLELISM = Integer.getInteger("queue.cleaner.parallelism", 2);
+
+    final private long QUEUE_CLEANER_TIME_BUDGET = Long.getLong("queue.cleaner.time.budget.millis", 30000L);
+
+    final private long QUEUE_BULK_TARGET_LATENCY = Long.getLong("queue.cleaner.bulk.latency.millis", 500L);
+
+    // adapted to the measured delete latency, kept from one run to the next
+    private volatile int queueBulkSize = QUEUE_BULK_SIZE;
+
+    private final ExecutorService queueCleanerExecutor = Executors.newFixedThreadPool(QUEUE_CLEANER_PARALLELISM, new ThreadFactory() {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "queue-cleaner-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     private final Integer SPLIT_JOIN_BULK_SIZE = Integer.getInteger("splitjoin.job.bulk.size", 25);
 
     private final Integer SPLIT_JOIN_ITERATIONS = Integer.getInteger("splitjoin.job.iterations", 20);
 
     /**
      * Job that will handle the cleaning of queue table.
+     * The finished ids are read page by page and deleted in bulks by a few threads, until there is nothing left to
+     * clean or the time budget of the run is over.
      */
     @Override
     public void cleanQueueJob(){
         try {
-            Set<Long> ids = queueCleanerService.getFinishedExecStateIds();
-            if(logger.isDebugEnabled()) logger.debug("Will clean from queue the next Exec state ids amount:"+ids.size());
-
-            Set<Long> execIds = new HashSet<>();
-
-            for (Long id : ids) {
-                execIds.add(id);
-                if (execIds.size() >= QUEUE_BULK_SIZE) {
-                    queueCleanerService.cleanFinishedSteps(execIds);
-                    execIds.clear();
+            long deadline = System.currentTimeMillis() + QUEUE_CLEANER_TIME_BUDGET;
+            long afterId = Long.MIN_VALUE;
+            int cleaned = 0;
+            boolean morePages = true;
+
+            while (morePages && System.currentTimeMillis() < deadline) {
+                long[] ids = queueCleanerService.getFinishedExecStateIds(afterId, QUEUE_PAGE_SIZE);
+                if (ids.length == 0) {
+                    break;
                 }
+                cleaned += cleanFinishedSteps(ids, deadline);
+                afterId = ids[ids.length - 1];
+                morePages = ids.length == QUEUE_PAGE_SIZE;
             }
 
-            if (execIds.size() > 0) {
-                queueCleanerService.cleanFinishedSteps(execIds);
-            }
+            if(logger.isDebugEnabled()) logger.debug("Cleaned from queue " + cleaned + " exec state ids, bulk size is " + queueBulkSize);
         } catch (Exception e) {
             logger.error("Can't run queue cleaner job.", e);
         }
     }
 
+    private int cleanFinishedSteps(long[] ids, long deadline) throws InterruptedException, ExecutionException {
+        CompletionService<Integer> completionService = new ExecutorCompletionService<>(queueCleanerExecutor);
+        int offset = 0;
+        int running = 0;
+        int cleaned = 0;
+
+        while (true) {
+            boolean moreToSubmit = offset < ids.length && System.currentTimeMillis() < deadline;
+            if (moreToSubmit && running < QUEUE_CLEANER_PARALLELISM) {
+                int length = Math.min(queueBulkSize, ids.length - offset);
+                completionService.submit(new CleanBulk(ids, offset, length));
+                offset += length;
+                running++;
+            } else if (running > 0) {
+                running--;
+                cleaned += completionService.take().get();
+            } else {
+                break;
+            }
+        }
+        return cleaned;
+    }
+
+    // multiplicative decrease when a bulk is slower than the target, slow increase when it is much faster
+    private synchronized void adaptBulkSize(int length, long latency) {
+        if (latency > QUEUE_BULK_TARGET_LATENCY) {
+            queueBulkSize = Math.max(QUEUE_MIN_BULK_SIZE, length / 2);
+        } else if (latency < QUEUE_BULK_TARGET_LATENCY / 2 && length >= queueBulkSize) {
+            queueBulkSize = Math.min(QUEUE_MAX_BULK_SIZE, queueBulkSize + queueBulkSize / 4);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        queueCleanerExecutor.shutdownNow();
+    }
+
+    /**
+     * Job that will roll the partitions of the queue tables.
+     */
+    @Override
+    public void rollQueuePartitionsJob() {
+        try {
+            queueCleanerService.rollPartitions();
+        } catch (Exception e) {
+            logger.error("Can't run queue partitions rolling job.", e);
+        }
+    }
+
     /**
      * Job that will handle the joining of finished branches.
      */
@@ -129,4 +217,25 @@ public class ScoreEngineJobsImpl implements ScoreEngineJobs {
         }
     }
 
+    private class CleanBulk implements Callable<Integer> {
+        private final long[] ids;
+        private final int offset;
+        private final int length;
+
+        private CleanBulk(long[] ids, int offset, int length) {
+            this.ids = ids;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public Integer call() {
+            long[] bulk = length == ids.length ? ids : Arrays.copyOfRange(ids, offset, offset + length);
+            long t = System.currentTimeMillis();
+            queueCleanerService.cleanFinishedSteps(bulk);
+            adaptBulkSize(length, System.currentTimeMillis() - t);
+            return length;
+        }
+    }
+
 }
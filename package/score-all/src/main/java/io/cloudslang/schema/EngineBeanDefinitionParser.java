@@ -15,8 +15,12 @@ import io.cloudslang.engine.node.services.WorkerNodeServiceImpl;
 import io.cloudslang.engine.node.services.WorkersMBean;
 import io.cloudslang.engine.queue.entities.ExecutionMessageConverter;
 import io.cloudslang.engine.queue.repositories.ExecutionQueueRepositoryImpl;
+import io.cloudslang.engine.queue.repositories.InMemoryExecutionQueueRepository;
+import io.cloudslang.engine.queue.repositories.JournalExecutionQueueRepository;
+import io.cloudslang.engine.queue.repositories.callbacks.ExecutionQueuesCallback;
 import io.cloudslang.engine.queue.services.*;
 import io.cloudslang.engine.queue.services.assigner.ExecutionAssignerServiceImpl;
+import io.cloudslang.engine.queue.services.assigner.LeastLoadedWorkerAssignmentStrategy;
 import io.cloudslang.engine.queue.services.cleaner.QueueCleanerServiceImpl;
 import io.cloudslang.engine.queue.services.recovery.ExecutionRecoveryServiceImpl;
 import io.cloudslang.engine.queue.services.recovery.MessageRecoveryServiceImpl;
@@ -57,6 +61,9 @@ public class EngineBeanDefinitionParser extends AbstractBeanDefinitionParser {
 
     private final static String ENGINE_JOBS_CONTEXT_LOCATION = "META-INF/spring/score/context/scoreEngineSchedulerContext.xml";
 
+	// must match the partitions of OO_EXECUTION_QUEUES and OO_EXECUTION_STATES that are created in score.changes.xml
+	private final static int QUEUE_PARTITIONS = 4;
+
 	private Map<Class<?>,String> beans = new HashMap<Class<?>,String>(){{
 		put(ScorePauseResumeImpl.class, null);
         put(OrchestratorDispatcherServiceImpl.class, "orchestratorDispatcherService");
@@ -64,6 +71,7 @@ public class EngineBeanDefinitionParser extends AbstractBeanDefinitionParser {
 		put(QueueDispatcherServiceImpl.class, "queueDispatcherService");
 		put(ExecutionQueueServiceImpl.class, "executionQueueService");
 		put(ExecutionAssignerServiceImpl.class, "executionAssignerService");
+		put(LeastLoadedWorkerAssignmentStrategy.class, null);
 		put(PartitionServiceImpl.class, null);
 		put(RunningExecutionPlanServiceImpl.class, "runningEP");
 		put(VersionServiceImpl.class, null);
@@ -85,13 +93,13 @@ public class EngineBeanDefinitionParser extends AbstractBeanDefinitionParser {
 		put(SqlUtils.class, null);
 		put(SqlInQueryReader.class, null);
 		put(DataBaseDetector.class, null);
-		put(ExecutionQueueRepositoryImpl.class, null);
 		put(HiloFactoryBean.class, "scoreHiloFactoryBean");
 		put(WorkersMBean.class, "io.cloudslang.engine.node.services.WorkersMBean");
         put(WorkerDbSupportServiceImpl.class, null);
         put(ScoreDeprecatedImpl.class, null);
         put(ScoreEngineJobsImpl.class,"scoreEngineJobs");
 		put(BusyWorkersServiceImpl.class,"busyWorkersService");
+		put(WorkNotificationServiceImpl.class,"workNotificationService");
 		put(MergedConfigurationServiceImpl.class,"MergedConfigurationService");
 	}};
 
@@ -139,6 +147,7 @@ public class EngineBeanDefinitionParser extends AbstractBeanDefinitionParser {
         registerPauseResume(element,parserContext);
 		registerWorkerNodeService(element, parserContext);
 		registerEngineVersionService(element, parserContext);
+		registerExecutionQueueRepository(element, parserContext);
     }
 
     private void registerPauseResume(Element element, ParserContext parserContext){
@@ -162,9 +171,37 @@ public class EngineBeanDefinitionParser extends AbstractBeanDefinitionParser {
 		}
 	}
 
+	private void registerExecutionQueueRepository(Element element, ParserContext parserContext){
+		String inMemoryQueue = element.getAttribute("inMemoryQueue");
+		String queueJournalDirectory = element.getAttribute("queueJournalDirectory");
+		String partitionedQueue = element.getAttribute("partitionedQueue");
+		if(StringUtils.isNotBlank(queueJournalDirectory)){
+			new BeanRegistrator(parserContext)
+					.CLASS(JournalExecutionQueueRepository.class)
+					.addPropertyValue("directory", (Object) queueJournalDirectory)
+					.register();
+		} else if(inMemoryQueue.equals(Boolean.TRUE.toString())){
+			new BeanRegistrator(parserContext).CLASS(InMemoryExecutionQueueRepository.class).register();
+		} else if(partitionedQueue.equals(Boolean.TRUE.toString())){
+			new BeanRegistrator(parserContext).CLASS(ExecutionQueuesCallback.class).register();
+			registerPartitionTemplate(ExecutionQueueRepositoryImpl.QUEUES_PARTITION_GROUP, QUEUE_PARTITIONS,
+					Long.getLong("queue.partition.size.threshold", -1L),
+					Long.getLong("queue.partition.time.threshold", 60 * 60 * 1000L),
+					parserContext, ExecutionQueuesCallback.class,
+					ExecutionQueueRepositoryImpl.STATES_PARTITION_GROUP);
+			new BeanRegistrator(parserContext)
+					.CLASS(ExecutionQueueRepositoryImpl.class)
+					.addPropertyValue("partitionTemplate", ExecutionQueueRepositoryImpl.QUEUES_PARTITION_GROUP)
+					.register();
+		} else {
+			new BeanRegistrator(parserContext).CLASS(ExecutionQueueRepositoryImpl.class).register();
+		}
+	}
+
 	private void registerPartitionTemplate(String name, int groupSize, long sizeThreshold, long timeThreshold,
                                            ParserContext parserContext,
-                                           Class<? extends PartitionCallback> callbackClass){
+                                           Class<? extends PartitionCallback> callbackClass,
+                                           String... attachedGroups){
 		new BeanRegistrator(parserContext)
 				.NAME(name)
 				.CLASS(PartitionTemplateImpl.class)
@@ -172,6 +209,7 @@ public class EngineBeanDefinitionParser extends AbstractBeanDefinitionParser {
 				.addPropertyValue("sizeThreshold", sizeThreshold)
 				.addPropertyValue("timeThreshold", timeThreshold)
                 .addPropertyValue("callbackClass",callbackClass)
+                .addPropertyValue("attachedGroups", (Object) attachedGroups)
 				.register();
 	}
 
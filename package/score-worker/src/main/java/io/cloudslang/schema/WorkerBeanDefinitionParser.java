@@ -52,6 +52,8 @@ public class WorkerBeanDefinitionParser extends AbstractBeanDefinitionParser {
 		put(ReflectionAdapterImpl.class, null);
         put(SessionDataHandlerImpl.class, "sessionDataHandler");
 		put(SynchronizationManagerImpl.class, null);
+		put(WorkerMemoryBudget.class, null);
+		put(LeasedStateIdGenerator.class, null);
         put(WorkerConfigurationServiceImpl.class, "workerConfiguration");
 
         //Monitors
@@ -27,6 +27,7 @@ public class TriggeringProperties {
     private Map<String, ? extends Serializable> runtimeValues = new HashMap<>();
     private Map<String, ? extends Serializable> platformMetadata = new HashMap<>();
     private Long startStep;
+    private int priority;
 
     private TriggeringProperties(ExecutionPlan executionPlan){
         this.executionPlan = executionPlan;
@@ -57,6 +58,15 @@ public class TriggeringProperties {
         return this;
     }
 
+    /**
+     * @param priority the priority of the execution and its branches - steps with a higher priority are polled and run first.
+     *                 The default is 0, and a lower priority step is not starved: it is passed once it waited long enough
+     */
+    public TriggeringProperties setPriority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
     public Map<String, ? extends Serializable> getPlatformMetadata() {
         return platformMetadata;
     }
@@ -87,4 +97,8 @@ public class TriggeringProperties {
         return startStep;
     }
 
+    public int getPriority() {
+        return priority;
+    }
+
 }
@@ -68,6 +68,8 @@ public class ExecutionRuntimeServices implements Serializable {
 
     private static final String STEP_PERSIST_ID = "STEP_PERSIST_ID";
 
+    private static final String EXECUTION_PRIORITY = "EXECUTION_PRIORITY";
+
     protected Map<String, Serializable> contextMap = new HashMap<>();
 
     public ExecutionRuntimeServices(){}
@@ -254,6 +256,23 @@ public class ExecutionRuntimeServices implements Serializable {
         contextMap.put(EXECUTION_ID_CONTEXT, executionId);
     }
 
+    /**
+     *
+     * @return the priority of the execution - higher runs first, 0 if it was not set
+     */
+    public int getPriority(){
+        Integer priority = getFromMap(EXECUTION_PRIORITY);
+        return priority == null ? 0 : priority;
+    }
+
+    /**
+     * set the priority of the execution - it is inherited by its branches
+     * @param priority
+     */
+    public void setPriority(int priority) {
+        contextMap.put(EXECUTION_PRIORITY, priority);
+    }
+
     /**
      *
      * @return the split id
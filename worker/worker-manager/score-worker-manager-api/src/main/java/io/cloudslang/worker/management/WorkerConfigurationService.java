@@ -26,6 +26,14 @@ public interface WorkerConfigurationService {
      */
 	public boolean isExecutionCancelled(Long executionId);
 
+    /**
+     * marks the given execution as pending cancel until the next refresh reads it
+     * used when the cancellation is pushed to the worker
+     *
+     * @param executionId the cancelled execution id
+     */
+	public void setExecutionCancelled(Long executionId);
+
     /**
      * checks if the given execution is pending pause
      *
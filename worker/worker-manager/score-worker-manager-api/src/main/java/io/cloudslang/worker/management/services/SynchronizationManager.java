@@ -17,6 +17,9 @@ package io.cloudslang.worker.management.services;
  * Time: 2:26 PM
  *
  * This manager is responsible to synchronize all workers activities: drain/poll/recovery
+ *
+ * Put, get and drain are sections that run concurrently with each other, recovery waits until no thread is inside
+ * any of them and keeps new threads out until it finishes. Starting and finishing a section is idempotent per thread.
  */
 public interface SynchronizationManager {
 
@@ -29,8 +32,18 @@ public interface SynchronizationManager {
     void startGetMessages();
     void finishGetMessages();
 
-    void waitForMessages() throws InterruptedException;
-    void waitForDrain() throws InterruptedException;
+    /**
+     * Leaves the put and get sections of the current thread before it waits for the buffer to be drained,
+     * so recovery can begin meanwhile
+     */
+    void pausePutMessages();
+    void resumePutMessages();
+
+    /**
+     * Leaves the drain section of the current thread before it waits for messages, so recovery can begin meanwhile
+     */
+    void pauseDrain();
+    void resumeDrain();
 
     void startDrain();
     void finishDrain();
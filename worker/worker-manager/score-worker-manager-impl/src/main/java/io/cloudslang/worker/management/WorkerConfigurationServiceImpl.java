@@ -10,8 +10,12 @@
 
 package io.cloudslang.worker.management;
 
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import io.cloudslang.orchestrator.entities.MergedConfigurationDataContainer;
 import io.cloudslang.orchestrator.services.MergedConfigurationService;
@@ -31,8 +35,11 @@ import io.cloudslang.orchestrator.services.PauseResumeService;
 public class WorkerConfigurationServiceImpl implements WorkerConfigurationService {
 
 	private static final Logger log = Logger.getLogger(WorkerConfigurationServiceImpl.class);
+	// an execution cancelled straight to CANCELED is never listed by a refresh, so its pushed cancellation expires
+	private static final long pushedCancelExpiryMillis = Long.getLong("worker.cancel.pushed.expiry.millis", 60000);
 
-	private volatile List<Long> cancelledExecutions;
+	private volatile Set<Long> cancelledExecutions;
+	private final ConcurrentMap<Long, Long> pushedCancelledExecutions = new ConcurrentHashMap<>(); // not read by a refresh yet, with the time pushed
 	private volatile Set<String> pausedExecutions;
 	private volatile List<String> workerGroups;
 	private volatile boolean enabled;
@@ -42,7 +49,12 @@ public class WorkerConfigurationServiceImpl implements WorkerConfigurationServic
 
 	@Override
 	public boolean isExecutionCancelled(Long executionId) {
-		return cancelledExecutions != null && cancelledExecutions.contains(executionId);
+		return (cancelledExecutions != null && cancelledExecutions.contains(executionId)) || pushedCancelledExecutions.containsKey(executionId);
+	}
+
+	@Override
+	public void setExecutionCancelled(Long executionId) {
+		pushedCancelledExecutions.put(executionId, System.currentTimeMillis());
 	}
 
 	@Override
@@ -70,7 +82,17 @@ public class WorkerConfigurationServiceImpl implements WorkerConfigurationServic
 
 	protected void setCanceledExecutions(MergedConfigurationDataContainer mergedConfigurationDataContainer) {
 		try {
-			cancelledExecutions = mergedConfigurationDataContainer.getCancelledExecutions();
+			List<Long> executionIds = mergedConfigurationDataContainer.getCancelledExecutions();
+			cancelledExecutions = executionIds == null ? null : new HashSet<>(executionIds);
+			if (executionIds != null) {
+				pushedCancelledExecutions.keySet().removeAll(executionIds);
+			}
+			long expiryTime = System.currentTimeMillis() - pushedCancelExpiryMillis;
+			for (Iterator<Long> iterator = pushedCancelledExecutions.values().iterator(); iterator.hasNext(); ) {
+				if (iterator.next() < expiryTime) {
+					iterator.remove();
+				}
+			}
 		} catch(Exception ex) {
 			log.error("Failed to fetch cancelled information: ", ex);
 		}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.worker.management.services;
+
+import io.cloudslang.worker.management.services.PriorityThreadPoolExecutor.PrioritizedTask;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The queue of the worker execution threads, shared fairly between the executions by deficit round robin.
+ *
+ * The priority levels are served strictly: a step runs only when no step of a higher priority waits.
+ * Within a level each execution (with all its branches - they share the execution id) has its own lane.
+ * The lanes that have waiting steps take turns: on its turn a lane gets a quantum of steps and passes the turn
+ * when the quantum is used up. So an execution that fans out thousands of branches gets one turn per round like
+ * any other of its priority, and a small execution waits at most one round for a thread.
+ * Tasks that are not steps of an execution share one lane of priority 0.
+ * Unlike the PriorityBlockingQueue the steps do not age into a higher level.
+ */
+class FairTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private final int quantum;
+    private final TreeMap<Integer, Level> levels = new TreeMap<>(Collections.<Integer>reverseOrder()); // the levels that have waiting tasks
+    private int size;
+
+    FairTaskQueue() {
+        this(Integer.getInteger("worker.scheduler.quantum", 1));
+    }
+
+    FairTaskQueue(int quantum) {
+        this.quantum = Math.max(1, quantum);
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        lock.lock();
+        try {
+            Long executionId = task instanceof PrioritizedTask ? ((PrioritizedTask) task).getExecutionId() : null;
+            int priority = task instanceof PrioritizedTask ? ((PrioritizedTask) task).getPriority() : 0;
+            Level level = levels.get(priority);
+            if (level == null) {
+                level = new Level(priority);
+                levels.put(priority, level);
+            }
+            Lane lane = level.lanes.get(executionId);
+            if (lane == null) {
+                lane = new Lane(executionId);
+                level.lanes.put(executionId, lane);
+                level.activeLanes.addLast(lane);
+            }
+            lane.tasks.add(task);
+            size++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) {
+        offer(task);
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) {
+        return offer(task);
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return size == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            return size == 0 ? null : levels.firstEntry().getValue().activeLanes.peekFirst().tasks.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Runnable dequeue() {
+        Level level = levels.firstEntry().getValue();
+        Lane lane = level.activeLanes.peekFirst();
+        if (lane.deficit <= 0) {
+            lane.deficit += quantum;
+        }
+        Runnable task = lane.tasks.poll();
+        lane.deficit--;
+        size--;
+        if (lane.tasks.isEmpty()) {
+            level.removeFirst();
+        } else if (lane.deficit <= 0) {
+            level.activeLanes.addLast(level.activeLanes.pollFirst());
+        }
+        if (level.activeLanes.isEmpty()) {
+            levels.remove(level.priority);
+        }
+        return task;
+    }
+
+    @Override
+    public boolean remove(Object task) {
+        lock.lock();
+        try {
+            for (Iterator<Level> levelIterator = levels.values().iterator(); levelIterator.hasNext(); ) {
+                Level level = levelIterator.next();
+                for (Iterator<Lane> iterator = level.activeLanes.iterator(); iterator.hasNext(); ) {
+                    Lane lane = iterator.next();
+                    if (lane.tasks.remove(task)) {
+                        size--;
+                        if (lane.tasks.isEmpty()) {
+                            iterator.remove();
+                            level.lanes.remove(lane.executionId);
+                            if (level.activeLanes.isEmpty()) {
+                                levelIterator.remove();
+                            }
+                        }
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> collection, int maxElements) {
+        if (collection == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int count = 0;
+            while (size > 0 && count < maxElements) {
+                collection.add(dequeue());
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterates over a snapshot of the waiting tasks
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Level level : levels.values()) {
+                for (Lane lane : level.activeLanes) {
+                    snapshot.addAll(lane.tasks);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new Iterator<Runnable>() {
+            private final Iterator<Runnable> iterator = snapshot.iterator();
+            private Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                last = iterator.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                FairTaskQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    private static class Level {
+        private final int priority;
+        private final Map<Long, Lane> lanes = new HashMap<>();
+        private final ArrayDeque<Lane> activeLanes = new ArrayDeque<>(); // the lanes that have waiting tasks, in turn order
+
+        private Level(int priority) {
+            this.priority = priority;
+        }
+
+        private void removeFirst() {
+            lanes.remove(activeLanes.pollFirst().executionId);
+        }
+    }
+
+    private static class Lane {
+        private final Long executionId;
+        private final PriorityQueue<Runnable> tasks = new PriorityQueue<>();
+        private int deficit;
+
+        private Lane(Long executionId) {
+            this.executionId = executionId;
+        }
+    }
+}
@@ -13,6 +13,7 @@ package io.cloudslang.worker.management.services;
 import io.cloudslang.engine.queue.entities.ExecStatus;
 import io.cloudslang.engine.queue.entities.ExecutionMessage;
 import io.cloudslang.engine.queue.services.QueueDispatcherService;
+import io.cloudslang.engine.queue.services.WorkNotificationService;
 import io.cloudslang.worker.management.ExecutionsActivityListener;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -26,6 +27,7 @@ import org.springframework.context.event.ContextRefreshedEvent;
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static ch.lambdaj.Lambda.extract;
 import static ch.lambdaj.Lambda.on;
@@ -40,11 +42,16 @@ public class InBuffer implements WorkerRecoveryListener, ApplicationListener, Ru
     private static final Logger logger = Logger.getLogger(InBuffer.class);
 
     private final static long MEMORY_THRESHOLD = 50000000; // 50 Mega byte
-    private final static int MINIMUM_GC_DELTA = 10000; // minimum delta between garbage collections in milliseconds
 
     @Autowired
     private QueueDispatcherService queueDispatcher;
 
+    @Autowired(required = false)
+    private WorkNotificationService workNotificationService;
+
+    @Autowired(required = false)
+    private WorkerMemoryBudget memoryBudget;
+
     @Resource
     private String workerUuid;
 
@@ -56,14 +63,14 @@ public class InBuffer implements WorkerRecoveryListener, ApplicationListener, Ru
     @Qualifier("coolDownPollingMillis")
     private Integer coolDownPollingMillis = 200;
 
+    private PollingController pollingController;
+
     private Thread fillBufferThread = new Thread(this);
 
     private boolean inShutdown;
 
     private boolean endOfInit = false;
 
-    private long gcTimer = System.currentTimeMillis();
-
     @Autowired
     private WorkerManager workerManager;
 
@@ -83,7 +90,10 @@ public class InBuffer implements WorkerRecoveryListener, ApplicationListener, Ru
     private void init(){
         capacity = Integer.getInteger("worker.inbuffer.capacity",capacity);
         coolDownPollingMillis = Integer.getInteger("worker.inbuffer.coolDownPollingMillis",coolDownPollingMillis);
-        logger.info("InBuffer capacity is set to :" + capacity + ", coolDownPollingMillis is set to :"+ coolDownPollingMillis);
+        int maxPollingMillis = Integer.getInteger("worker.inbuffer.maxPollingMillis", coolDownPollingMillis * 5);
+        pollingController = new PollingController(capacity, coolDownPollingMillis / 8, coolDownPollingMillis, maxPollingMillis);
+        logger.info("InBuffer capacity is set to :" + capacity + ", coolDownPollingMillis is set to :"+ coolDownPollingMillis +
+                ", maxPollingMillis is set to :" + maxPollingMillis);
     }
 
 
@@ -105,11 +115,14 @@ public class InBuffer implements WorkerRecoveryListener, ApplicationListener, Ru
                         continue;
                     }
 
-                    if (needToPoll()) {
-                        int messagesToGet = capacity - workerManager.getInBufferSize();
+                    int bufferSize = workerManager.getInBufferSize();
+                    if (needToPoll(bufferSize)) {
+                        int messagesToGet = pollingController.getPollSize(bufferSize);
 
                         if (logger.isDebugEnabled()) logger.debug("Polling messages from queue (max " + messagesToGet + ")");
+                        long pollStart = System.currentTimeMillis();
                         List<ExecutionMessage> newMessages = queueDispatcher.poll(workerUuid, messagesToGet);
+                        long pollEnd = System.currentTimeMillis();
                         if (executionsActivityListener != null) {
                             executionsActivityListener.onActivate(extract(newMessages, on(ExecutionMessage.class).getExecStateId()));
                         }
@@ -121,21 +134,30 @@ public class InBuffer implements WorkerRecoveryListener, ApplicationListener, Ru
                             for(ExecutionMessage msg :newMessages){
                                 addExecutionMessageInner(msg);
                             }
+                            pollingController.onPoll(newMessages.size(), workerManager.getInBufferSize(), pollEnd - pollStart, System.currentTimeMillis());
 
                             syncManager.finishGetMessages(); //release all locks before going to sleep!!!
 
-                            Thread.sleep(coolDownPollingMillis/8); //cool down - sleep a while
+                            Thread.sleep(pollingController.getIntervalAfterMessages()); //cool down - sleep a while
                         }
                         else {
+                            pollingController.onPoll(0, bufferSize, pollEnd - pollStart, pollEnd);
+
                             syncManager.finishGetMessages(); //release all locks before going to sleep!!!
 
-                            Thread.sleep(coolDownPollingMillis); //if there are no messages - sleep a while
+                            waitForWork(pollingController.getIntervalAfterEmptyPoll()); //if there are no messages - sleep a while, or until new messages are assigned
                         }
                     }
                     else {
                         syncManager.finishGetMessages(); //release all locks before going to sleep!!!
 
-                        Thread.sleep(coolDownPollingMillis); //if the buffer is not empty enough yet or in recovery - sleep a while
+                        //if the buffer is not empty enough yet or in recovery - sleep until it is expected to drain to the refill threshold
+                        long interval = pollingController.getIntervalWhileFull(bufferSize);
+                        if (memoryBudget != null && memoryBudget.isExhausted()) {
+                            memoryBudget.awaitRoom(interval);
+                        } else {
+                            Thread.sleep(interval);
+                        }
                     }
                 }
             } catch (InterruptedException ex) {
@@ -153,12 +175,27 @@ public class InBuffer implements WorkerRecoveryListener, ApplicationListener, Ru
         }
     }
 
-    private boolean needToPoll(){
-        int bufferSize = workerManager.getInBufferSize();
+    private void waitForWork(long timeoutMillis) throws InterruptedException {
+        if (workNotificationService == null) {
+            Thread.sleep(timeoutMillis);
+        } else {
+            try {
+                workNotificationService.awaitWork(workerUuid, timeoutMillis);
+            } catch (InterruptedException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                // the notification endpoint is not reachable - fall back to timed polling
+                if (logger.isDebugEnabled()) logger.debug("Failed to wait for work notification", ex);
+                Thread.sleep(timeoutMillis);
+            }
+        }
+    }
 
+    private boolean needToPoll(int bufferSize){
         if (logger.isDebugEnabled()) logger.debug("InBuffer size: " + bufferSize);
 
-        return bufferSize < (capacity * 0.2) && checkFreeMemorySpace(MEMORY_THRESHOLD);
+        pollingController.onBufferSize(bufferSize, System.currentTimeMillis());
+        return pollingController.needToPoll(bufferSize) && hasFreeMemory();
     }
 
     private void ackMessages(List<ExecutionMessage> newMessages) throws InterruptedException {
@@ -198,7 +235,22 @@ public class InBuffer implements WorkerRecoveryListener, ApplicationListener, Ru
         if (!StringUtils.isEmpty(msg.getMsgId())) {
             executionId = Long.valueOf(msg.getMsgId());
         }
-        workerManager.addExecution(executionId, simpleExecutionRunnable);
+        if (memoryBudget == null) {
+            workerManager.addExecution(executionId, msg.getPriority(), simpleExecutionRunnable);
+        } else {
+            workerManager.addExecution(executionId, msg.getPriority(), new BudgetedRunnable(simpleExecutionRunnable, msg.getWeight()));
+        }
+    }
+
+    private boolean hasFreeMemory() {
+        if (memoryBudget == null) {
+            return checkFreeMemorySpace(MEMORY_THRESHOLD);
+        }
+        boolean result = !memoryBudget.isExhausted();
+        if (!result) {
+            logger.warn("InBuffer would not poll messages, because the worker memory budget is used up.");
+        }
+        return result;
     }
 
     @Override
@@ -224,12 +276,6 @@ public class InBuffer implements WorkerRecoveryListener, ApplicationListener, Ru
         boolean result = presumableFreeMemory > threshold;
         if (! result) {
             logger.warn("InBuffer would not poll messages, because there is not enough free memory.");
-            if (System.currentTimeMillis() > (gcTimer + MINIMUM_GC_DELTA)){
-                logger.warn("Trying to initiate garbage collection");
-                //Todo find a better solution than manually triggering GC
-                System.gc();
-                gcTimer = System.currentTimeMillis();
-            }
         }
         return result;
     }
@@ -243,4 +289,38 @@ public class InBuffer implements WorkerRecoveryListener, ApplicationListener, Ru
     public int getCapacity() {
         return capacity;
     }
+
+    /**
+     * Holds the message bytes in the memory budget until an execution thread takes the message out of the buffer,
+     * or until its step is cancelled while it still waits in the buffer
+     */
+    private class BudgetedRunnable implements Runnable, PriorityThreadPoolExecutor.CompletionListener {
+        private final Runnable runnable;
+        private final int weight;
+        private final int generation;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        BudgetedRunnable(Runnable runnable, int weight) {
+            this.runnable = runnable;
+            this.weight = weight;
+            this.generation = memoryBudget.reserve(weight);
+        }
+
+        @Override
+        public void run() {
+            release();
+            runnable.run();
+        }
+
+        @Override
+        public void onCompletion() {
+            release();
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                memoryBudget.release(weight, generation);
+            }
+        }
+    }
 }
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.worker.management.services;
+
+import io.cloudslang.engine.data.IdentityGenerator;
+import io.cloudslang.engine.queue.services.QueueStateIdGeneratorService;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands out execution state ids from a range leased from the engine, so a step does not call the engine for every id.
+ *
+ * Taking an id is one atomic increment. Once half of the lease is used the next one is leased in the background,
+ * so the step that uses the last id of a lease usually finds the next lease ready.
+ * Recovery discards the lease and the one being renewed - the ids that were not used are simply lost.
+ */
+public class LeasedStateIdGenerator implements WorkerRecoveryListener {
+    private static final Logger logger = Logger.getLogger(LeasedStateIdGenerator.class);
+
+    private static final Lease EMPTY_LEASE = new Lease(0, 0);
+
+    @Autowired
+    private QueueStateIdGeneratorService queueStateIdGeneratorService;
+
+    private final int leaseSize;
+    private volatile Lease currentLease = EMPTY_LEASE;
+    private final AtomicReference<Future<Lease>> nextLease = new AtomicReference<>();
+    private final Object leaseSwitchLock = new Object();
+
+    private final ExecutorService renewalExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "StateIdLeaseRenewal");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public LeasedStateIdGenerator() {
+        this(null, Integer.getInteger("worker.state.id.lease.size", 10000));
+    }
+
+    LeasedStateIdGenerator(QueueStateIdGeneratorService queueStateIdGeneratorService, int leaseSize) {
+        this.queueStateIdGeneratorService = queueStateIdGeneratorService;
+        if (leaseSize <= 0 || leaseSize > IdentityGenerator.MAX_RANGE_SIZE) {
+            throw new IllegalArgumentException("State ids lease size must be between 1 and " + IdentityGenerator.MAX_RANGE_SIZE + ", got " + leaseSize);
+        }
+        this.leaseSize = leaseSize;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        renewalExecutor.shutdownNow();
+    }
+
+    public Long generateStateId() {
+        while (true) {
+            Lease lease = currentLease;
+            long id = lease.next.getAndIncrement();
+            if (id < lease.end) {
+                if (id == lease.renewMark) {
+                    renewInBackground();
+                }
+                return id;
+            }
+            switchLease(lease);
+        }
+    }
+
+    private void switchLease(Lease exhausted) {
+        synchronized (leaseSwitchLock) {
+            if (currentLease == exhausted) {
+                currentLease = takeNextLease();
+            }
+        }
+    }
+
+    private Lease takeNextLease() {
+        Future<Lease> renewed = nextLease.getAndSet(null);
+        if (renewed != null) {
+            try {
+                return renewed.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                logger.warn("Failed to renew the state ids lease in the background, leasing now", ex.getCause());
+            }
+        }
+        return lease();
+    }
+
+    private void renewInBackground() {
+        FutureTask<Lease> task = new FutureTask<>(new Callable<Lease>() {
+            @Override
+            public Lease call() {
+                return lease();
+            }
+        });
+        if (nextLease.compareAndSet(null, task)) {
+            renewalExecutor.execute(task);
+        }
+    }
+
+    private Lease lease() {
+        long first = queueStateIdGeneratorService.leaseStateIds(leaseSize);
+        if (logger.isDebugEnabled()) logger.debug("Leased state ids " + first + " - " + (first + leaseSize - 1));
+        return new Lease(first, leaseSize);
+    }
+
+    @Override
+    public void doRecovery() {
+        synchronized (leaseSwitchLock) {
+            currentLease = EMPTY_LEASE;
+            nextLease.set(null);
+        }
+    }
+
+    private static class Lease {
+        private final AtomicLong next;
+        private final long end; // exclusive
+        private final long renewMark;
+
+        private Lease(long first, int size) {
+            next = new AtomicLong(first);
+            end = first + size;
+            renewMark = first + size / 2;
+        }
+    }
+}
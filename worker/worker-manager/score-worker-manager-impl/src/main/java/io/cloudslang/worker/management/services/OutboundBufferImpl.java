@@ -12,7 +12,9 @@ package io.cloudslang.worker.management.services;
 
 import ch.lambdaj.group.Group;
 import io.cloudslang.engine.queue.entities.ExecutionMessage;
+import io.cloudslang.engine.queue.entities.ExecutionMessageConverter;
 import io.cloudslang.orchestrator.entities.Message;
+import io.cloudslang.orchestrator.entities.SplitMessage;
 import io.cloudslang.orchestrator.services.OrchestratorDispatcherService;
 import io.cloudslang.worker.management.ExecutionsActivityListener;
 import org.apache.commons.lang.Validate;
@@ -20,21 +22,35 @@ import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static ch.lambdaj.Lambda.*;
 
+/**
+ * The execution threads put messages into a lock-free multi producer single consumer queue, so the end of a step
+ * does not wait for other execution threads or for a drain that is in progress.
+ * Locks are taken only by a producer that waits for a full buffer and by a drain that waits for an empty one.
+ */
 public class OutboundBufferImpl implements OutboundBuffer, WorkerRecoveryListener {
 	private final Logger logger = Logger.getLogger(this.getClass());
 
     private static long GB = 900000000;//there is JVM overhead, so i will take 10% buffer...
+    private static final int MB = 1024 * 1024;
 
 	@Autowired
 	private RetryTemplate retryTemplate;
@@ -54,19 +70,73 @@ public class OutboundBufferImpl implements OutboundBuffer, WorkerRecoveryListene
     @Autowired(required = false)
     private ExecutionsActivityListener executionsActivityListener;
 
-	private List<Message> buffer = new ArrayList<>();
+    @Autowired(required = false)
+    private WorkerMemoryBudget memoryBudget;
+
+    @Autowired(required = false)
+    private ExecutionMessageConverter executionMessageConverter;
+
+	private final MessageQueue buffer = new MessageQueue();
+
+	private final AtomicInteger currentSize = new AtomicInteger();
+
+	private final AtomicInteger currentWeight = new AtomicInteger(); // the weight of a message is about its size in bytes
+
+	private volatile int budgetGeneration;
+
+	private final Object drainLock = new Object(); // the queue has a single consumer - drain or recovery
 
-	private int currentWeight;
+	private final ReentrantLock waitLock = new ReentrantLock();
+	private final Condition notEmpty = waitLock.newCondition();
+	private final Condition notFull = waitLock.newCondition();
+	private final AtomicInteger waitingProducers = new AtomicInteger();
+	private final AtomicInteger waitingDrains = new AtomicInteger();
 
-	private int maxBufferWeight = Integer.getInteger("out.buffer.max.buffer.weight", 30000);
-	private int maxBulkWeight = Integer.getInteger("out.buffer.max.bulk.weight", 1500);
+	private int maxBufferWeight = Integer.getInteger("out.buffer.max.buffer.weight", 30 * MB);
+	private int maxBulkWeight = Integer.getInteger("out.buffer.max.bulk.weight", MB);
 	private int retryAmount = Integer.getInteger("out.buffer.retry.number", 5);
 	private long retryDelay = Long.getLong("out.buffer.retry.delay", 5000);
+	private int drainParallelism = Integer.getInteger("out.buffer.drain.parallelism", 2); // 0 - dispatch in the draining thread
+	private int maxPendingBulks = Integer.getInteger("out.buffer.drain.max.pending.bulks", 2); // per lane
+	private int snapshotSerializers = Integer.getInteger("out.buffer.snapshot.serializers", 1); // 0 - the next step serializes its snapshots
+
+	private ThreadPoolExecutor[] lanes;
+
+	private ThreadPoolExecutor snapshotSerializer;
+
+	private volatile int recoveries; // bulks of messages drained before a recovery are not dispatched after it
 
     @PostConstruct
     public void init(){
         maxBufferWeight = Integer.getInteger("out.buffer.max.buffer.weight", defaultBufferCapacity());
-        logger.info("maxBufferWeight = " + maxBufferWeight);
+        logger.info("maxBufferWeight = " + maxBufferWeight + ", drainParallelism = " + drainParallelism);
+        if (drainParallelism > 0) {
+            lanes = new ThreadPoolExecutor[drainParallelism];
+            for (int i = 0; i < drainParallelism; i++) {
+                lanes[i] = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<Runnable>(maxPendingBulks),
+                        new WorkerThreadFactory("OutBufferDrainLane" + i),
+                        new WaitForLanePolicy());
+                lanes[i].allowCoreThreadTimeOut(true);
+            }
+        }
+        if (snapshotSerializers > 0 && executionMessageConverter != null) {
+            snapshotSerializer = new ThreadPoolExecutor(snapshotSerializers, snapshotSerializers, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory("OutBufferSnapshotSerializer"));
+            snapshotSerializer.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (lanes != null) {
+            for (ThreadPoolExecutor lane : lanes) {
+                lane.shutdown();
+            }
+        }
+        if (snapshotSerializer != null) {
+            snapshotSerializer.shutdownNow();
+        }
     }
 
 	@Override
@@ -84,19 +154,32 @@ public class OutboundBufferImpl implements OutboundBuffer, WorkerRecoveryListene
                     logger.debug("Current thread was not interrupted! Proceeding to put messages to OutBuffer...");
             }
 
-            while (currentWeight >= maxBufferWeight){
-                logger.warn("Outbound buffer is full. Waiting...");
-                syncManager.waitForDrain();
-            }
-
             // in case of multiple messages create a single compound message
             // to make sure that it will be processed in a single transaction
             Message message = messages.length==1? messages[0]: new CompoundMessage(messages);
+            int weight = message.getWeight();
+
+            while (!hasRoom(weight)){
+                logger.warn("Outbound buffer is full. Waiting...");
+                syncManager.pausePutMessages(); //release the recovery sections before going to wait!!!
+                waitForDrain(weight);
+                syncManager.resumePutMessages();
+            }
 
             //put message into the buffer
-            buffer.add(message);
+            if (memoryBudget != null) {
+                budgetGeneration = memoryBudget.reserve(weight);
+            }
+            currentWeight.addAndGet(weight);
+            currentSize.incrementAndGet();
+            buffer.offer(message, weight);
+            if (snapshotSerializer != null) {
+                serializeSnapshots(messages);
+            }
 
-            currentWeight += message.getWeight();
+            if (waitingDrains.get() > 0) {
+                signalAll(notEmpty);
+            }
 			if (logger.isTraceEnabled()) logger.trace(message.getClass().getSimpleName() + " added to the buffer. " + getStatus());
 		} catch (InterruptedException ex) {
 			logger.warn("Buffer put action was interrupted", ex);
@@ -108,21 +191,29 @@ public class OutboundBufferImpl implements OutboundBuffer, WorkerRecoveryListene
 
 	@Override
 	public void drain() {
-		List<Message> bufferToDrain;
+		List<Message> bufferToDrain = new ArrayList<>();
+		int weightToDrain;
+		int generationToDrain;
 		try{
             syncManager.startDrain();
-			while (buffer.isEmpty()){
+			if (buffer.isEmpty()){
 				if (logger.isDebugEnabled()){
                     logger.debug("buffer is empty. Waiting to drain...");
                 }
-				syncManager.waitForMessages();
+				syncManager.pauseDrain(); //release the recovery section before going to wait!!!
+				waitForMessages();
+				syncManager.resumeDrain();
 			}
 
 			if (logger.isDebugEnabled()) logger.debug("buffer is going to be drained. " + getStatus());
 
-			bufferToDrain = buffer;
-			buffer = new ArrayList<>();
-			currentWeight = 0;
+			synchronized (drainLock) {
+				generationToDrain = budgetGeneration;
+				weightToDrain = takeAll(bufferToDrain);
+			}
+			if (waitingProducers.get() > 0) {
+				signalAll(notFull);
+			}
 		} catch (InterruptedException e) {
 			logger.warn("Drain outgoing buffer was interrupted while waiting for messages on the buffer");
 			return;
@@ -130,44 +221,81 @@ public class OutboundBufferImpl implements OutboundBuffer, WorkerRecoveryListene
 			syncManager.finishDrain();
 		}
 
-		drainInternal(bufferToDrain);
+		drainInternal(bufferToDrain, weightToDrain, generationToDrain);
 	}
 
-	private void drainInternal(List<Message> bufferToDrain){
-		List<Message> bulk = new ArrayList<>();
-		int bulkWeight = 0;
-		Map<String,AtomicInteger> logMap = new HashMap<>();
+	/**
+	 * Splits the drained messages into bulks and hands them to the drain lanes. The messages of an execution always go
+	 * to the same lane and a lane dispatches its bulks one after the other, so they reach the orchestrator in order.
+	 * Different lanes dispatch in parallel, and the next bulks are prepared while the previous ones are in flight.
+	 */
+	private void drainInternal(List<Message> bufferToDrain, int weightToDrain, int generationToDrain){
+		DrainedMessages drained = new DrainedMessages(weightToDrain, generationToDrain);
+		int lanesCount = lanes == null ? 1 : lanes.length;
+		List<List<Message>> bulks = new ArrayList<>(lanesCount);
+		int[] bulkWeights = new int[lanesCount];
+		for (int i = 0; i < lanesCount; i++) {
+			bulks.add(new ArrayList<Message>());
+		}
+		int recoveryNumber = recoveries;
 		try {
 			for (Message message : bufferToDrain) {
+				int lane = laneOf(message, lanesCount);
+				List<Message> bulk = bulks.get(lane);
 				if (message.getClass().equals(CompoundMessage.class)){
 					bulk.addAll(((CompoundMessage)message).asList());
 				} else {
 					bulk.add(message);
 				}
-				bulkWeight += message.getWeight();
+				bulkWeights[lane] += message.getWeight();
 
-				if (logger.isDebugEnabled()){
-					if (logMap.get(message.getClass().getSimpleName()) == null) logMap.put(message.getClass().getSimpleName(), new AtomicInteger(1));
-					else logMap.get(message.getClass().getSimpleName()).incrementAndGet();
+				if (bulkWeights[lane] > maxBulkWeight){
+					submitBulk(lane, bulk, bulkWeights[lane], drained, recoveryNumber);
+					bulks.set(lane, new ArrayList<Message>());
+					bulkWeights[lane] = 0;
 				}
-
-				if (bulkWeight > maxBulkWeight){
-					if (logger.isDebugEnabled()) logger.debug("trying to drain bulk: " + logMap.toString() + ", W:" + bulkWeight);
-					drainBulk(bulk);
-					bulk.clear();
-					bulkWeight = 0;
-					logMap.clear();
+			}
+			// drain the last bulks
+			for (int lane = 0; lane < lanesCount; lane++) {
+				if (!bulks.get(lane).isEmpty()) {
+					submitBulk(lane, bulks.get(lane), bulkWeights[lane], drained, recoveryNumber);
 				}
 			}
-			// drain the last bulk
-			if (logger.isDebugEnabled()) logger.debug("trying to drain bulk: " + logMap.toString() + ", " + getStatus());
-			drainBulk(bulk);
 		} catch (Exception ex) {
 			logger.error("Failed to drain buffer, invoking worker internal recovery... ", ex);
 			recoveryManager.doRecovery();
+		} finally {
+			drained.bulkDone(); //done splitting
+		}
+	}
+
+	private void submitBulk(int lane, List<Message> bulk, int bulkWeight, DrainedMessages drained, int recoveryNumber) {
+		if (logger.isDebugEnabled()) logger.debug("trying to drain bulk of " + bulk.size() + " messages, W:" + bulkWeight + " in lane " + lane + ", " + getStatus());
+		DispatchBulk dispatchBulk = new DispatchBulk(optimize(bulk), drained, recoveryNumber);
+		drained.bulkStarted();
+		if (lanes == null) {
+			dispatchBulk.run();
+		} else {
+			lanes[lane].execute(dispatchBulk);
 		}
 	}
 
+	private static int laneOf(Message message, int lanesCount) {
+		String executionId = executionIdOf(message);
+		return executionId == null ? 0 : (executionId.hashCode() & Integer.MAX_VALUE) % lanesCount;
+	}
+
+	private static String executionIdOf(Message message) {
+		if (message instanceof CompoundMessage) {
+			return executionIdOf(((CompoundMessage) message).messages[0]);
+		} else if (message instanceof ExecutionMessage) {
+			return ((ExecutionMessage) message).getMsgId();
+		} else if (message instanceof SplitMessage) {
+			return String.valueOf(((SplitMessage) message).getParent().getExecutionId());
+		}
+		return message.getId();
+	}
+
 	private List<Message> optimize(List<Message> messages){
 		long t = System.currentTimeMillis();
 		List<Message> result = new ArrayList<>();
@@ -182,15 +310,18 @@ public class OutboundBufferImpl implements OutboundBuffer, WorkerRecoveryListene
 		return result;
 	}
 
-	private void drainBulk(List<Message> bulkToDrain){
+	private void drainBulk(final List<Message> optimizedBulk, final int recoveryNumber){
 		long t = System.currentTimeMillis();
-		final List<Message> optimizedBulk = optimize(bulkToDrain);
         //Bulk number is the same for all retries! This is done to prevent duplications when we insert with retries
         final String bulkNumber = UUID.randomUUID().toString();
 
 		retryTemplate.retry(retryAmount, retryDelay, new RetryTemplate.RetryCallback() {
 			@Override
 			public void tryOnce() {
+                if (recoveryNumber != recoveries) {
+                    // the worker recovered while the bulk was retried, its messages were cleared with the buffer
+                    return;
+                }
                 String wrv = recoveryManager.getWRV();
                 if (logger.isDebugEnabled()) logger.debug("Dispatch start with bulk number: " + bulkNumber);
 				dispatcherService.dispatch(optimizedBulk, bulkNumber, wrv, workerUuid);
@@ -203,14 +334,108 @@ public class OutboundBufferImpl implements OutboundBuffer, WorkerRecoveryListene
 		if (logger.isDebugEnabled()) logger.debug("bulk was drained in " + (System.currentTimeMillis()-t) + " ms");
 	}
 
+	/**
+	 * Serializes the lazy payloads of the bulk, after the optimization - so the messages it dropped are never serialized
+	 */
+	private void materializePayloads(List<Message> optimizedBulk) {
+		if (executionMessageConverter == null) {
+			return;
+		}
+		for (Message message : optimizedBulk) {
+			if (message instanceof ExecutionMessage) {
+				((ExecutionMessage) message).materializePayload(executionMessageConverter);
+			}
+		}
+	}
+
+	/**
+	 * Starts serializing the lazy payloads whose execution goes on running in a next step, right when they are put and not when
+	 * they are drained - so the next step usually finds them serialized instead of serializing them itself before it changes the execution.
+	 * The other lazy payloads are serialized by the drain lanes, after the optimization.
+	 */
+	private void serializeSnapshots(Message... messages) {
+		for (Message message : messages) {
+			if (message instanceof ExecutionMessage && ((ExecutionMessage) message).isSnapshot()) {
+				final ExecutionMessage snapshot = (ExecutionMessage) message;
+				snapshotSerializer.execute(new Runnable() {
+					@Override
+					public void run() {
+						snapshot.materializePayload(executionMessageConverter);
+					}
+				});
+			}
+		}
+	}
+
+	private boolean hasRoom(int weight) {
+		int weightNow = currentWeight.get();
+		//an empty buffer always admits - the drain can only free what the buffer holds
+		return weightNow == 0 || (weightNow < maxBufferWeight && (memoryBudget == null || memoryBudget.hasRoom(weight)));
+	}
+
+	private void waitForDrain(int weight) throws InterruptedException {
+		waitLock.lock();
+		try {
+			waitingProducers.incrementAndGet();
+			while (!hasRoom(weight)) {
+				notFull.await();
+			}
+		} finally {
+			waitingProducers.decrementAndGet();
+			waitLock.unlock();
+		}
+	}
+
+	private void waitForMessages() throws InterruptedException {
+		waitLock.lock();
+		try {
+			waitingDrains.incrementAndGet();
+			while (buffer.isEmpty()) {
+				notEmpty.await();
+			}
+		} finally {
+			waitingDrains.decrementAndGet();
+			waitLock.unlock();
+		}
+	}
+
+	private void signalAll(Condition condition) {
+		waitLock.lock();
+		try {
+			condition.signalAll();
+		} finally {
+			waitLock.unlock();
+		}
+	}
+
+	/**
+	 * Moves the messages that are in the buffer to the given list, must be called under the drain lock
+	 *
+	 * @return the weight of the moved messages
+	 */
+	private int takeAll(List<Message> messages) {
+		int weight = 0;
+		int count = 0;
+		int size = currentSize.get(); //messages that are put meanwhile are left for the next drain
+		for (Node node = buffer.poll(); node != null; node = count < size ? buffer.poll() : null) {
+			messages.add(node.message);
+			node.message = null; //the node stays in the queue as its head - do not keep the message alive
+			weight += node.weight;
+			count++;
+		}
+		currentSize.addAndGet(-count);
+		currentWeight.addAndGet(-weight);
+		return weight;
+	}
+
 	@Override
 	public int getSize() {
-		return buffer.size();
+		return currentSize.get();
 	}
 
 	@Override
 	public int getWeight() {
-		return currentWeight;
+		return currentWeight.get();
 	}
 
     @Override
@@ -220,7 +445,7 @@ public class OutboundBufferImpl implements OutboundBuffer, WorkerRecoveryListene
 
     @Override
 	public String getStatus() {
-		return "Buffer status: [W:" + currentWeight + '/' + maxBufferWeight + ",S:" + buffer.size() + "]";
+		return "Buffer status: [W:" + currentWeight.get() + '/' + maxBufferWeight + ",S:" + currentSize.get() + "]";
 	}
 
 	@Override
@@ -228,8 +453,137 @@ public class OutboundBufferImpl implements OutboundBuffer, WorkerRecoveryListene
         if (logger.isDebugEnabled()){
             logger.debug("OutboundBuffer is in recovery, clearing buffer.");
         }
-        buffer.clear();
-        currentWeight = 0 ;
+        synchronized (drainLock) {
+            takeAll(new ArrayList<Message>());
+        }
+        recoveries++;
+        if (snapshotSerializer != null) {
+            snapshotSerializer.getQueue().clear();
+        }
+        if (lanes != null) {
+            for (ThreadPoolExecutor lane : lanes) {
+                lane.getQueue().clear();
+            }
+        }
+        //we cleaned the buffer - need to signal for those who wait for the buffer to be not full
+        signalAll(notFull);
+    }
+
+    /**
+     * Dispatches a bulk in its drain lane
+     */
+    private class DispatchBulk implements Runnable {
+        private final List<Message> bulk;
+        private final DrainedMessages drained;
+        private final int recoveryNumber;
+
+        DispatchBulk(List<Message> bulk, DrainedMessages drained, int recoveryNumber) {
+            this.bulk = bulk;
+            this.drained = drained;
+            this.recoveryNumber = recoveryNumber;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (recoveryNumber == recoveries) {
+                    materializePayloads(bulk);
+                    drainBulk(bulk, recoveryNumber);
+                }
+            } catch (Exception ex) {
+                logger.error("Failed to drain buffer, invoking worker internal recovery... ", ex);
+                recoveryManager.doRecovery();
+            } finally {
+                drained.bulkDone();
+            }
+        }
+    }
+
+    /**
+     * The messages of a single drain - they hold their bytes in the memory budget until all their bulks were dispatched
+     */
+    private class DrainedMessages {
+        private final AtomicInteger pendingBulks = new AtomicInteger(1); // the splitting into bulks
+        private final int weight;
+        private final int generation;
+
+        DrainedMessages(int weight, int generation) {
+            this.weight = weight;
+            this.generation = generation;
+        }
+
+        void bulkStarted() {
+            pendingBulks.incrementAndGet();
+        }
+
+        void bulkDone() {
+            if (pendingBulks.decrementAndGet() == 0 && memoryBudget != null) {
+                memoryBudget.release(weight, generation);
+            }
+        }
+    }
+
+    /**
+     * The draining thread waits while a lane has too many bulks pending - the buffer then fills up and slows the producers
+     */
+    private static class WaitForLanePolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor lane) {
+            if (lane.isShutdown()) {
+                throw new RejectedExecutionException("Drain lane is shut down");
+            }
+            try {
+                lane.getQueue().put(task);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for a drain lane", ex);
+            }
+        }
+    }
+
+    private static class Node {
+        private Message message;
+        private final int weight;
+        private volatile Node next;
+
+        Node(Message message, int weight) {
+            this.message = message;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Linked multi producer single consumer queue - a put is a single atomic swap of the tail
+     */
+    private static class MessageQueue {
+        private final AtomicReference<Node> tail;
+        private volatile Node head; // the last consumed node
+
+        MessageQueue() {
+            head = new Node(null, 0);
+            tail = new AtomicReference<>(head);
+        }
+
+        void offer(Message message, int weight) {
+            Node node = new Node(message, weight);
+            Node previous = tail.getAndSet(node);
+            previous.next = node;
+        }
+
+        /**
+         * @return the next node or null if the queue is empty, or the next put did not link its node yet
+         */
+        Node poll() {
+            Node next = head.next;
+            if (next != null) {
+                head = next;
+            }
+            return next;
+        }
+
+        boolean isEmpty() {
+            return head.next == null;
+        }
     }
 
     private class CompoundMessage implements Message{
@@ -264,9 +618,9 @@ public class OutboundBufferImpl implements OutboundBuffer, WorkerRecoveryListene
 
     private int defaultBufferCapacity() {
         Long maxMemory = Runtime.getRuntime().maxMemory();
-        if(maxMemory  < 0.5*GB) return 10000;
-        if(maxMemory  < 1*GB) return 15000;
-        if(maxMemory  < 2*GB) return 30000;
-        return 60000;
+        if(maxMemory  < 0.5*GB) return 10 * MB;
+        if(maxMemory  < 1*GB) return 15 * MB;
+        if(maxMemory  < 2*GB) return 30 * MB;
+        return 60 * MB;
     }
 }
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.worker.management.services;
+
+/**
+ * Decides when the InBuffer polls and how long it sleeps, from what it observed on the previous polls.
+ *
+ * The refill threshold follows the drain rate of the execution threads: the buffer must hold enough messages
+ * to keep the threads busy while the next poll is on its way, so it grows with the drain rate and the poll latency.
+ * The interval after an empty poll backs off multiplicatively and goes back to the minimum as soon as a poll returns messages,
+ * so a burst of work after an idle period is not picked up one backed off interval at a time.
+ * Not thread safe - used only by the InBuffer thread.
+ */
+class PollingController {
+
+    private static final double MIN_THRESHOLD_RATIO = 0.2;
+    private static final double MAX_THRESHOLD_RATIO = 0.8;
+    private static final double SAFETY_FACTOR = 2.0;
+    private static final double SMOOTHING = 0.3; // weight of the newest sample in the moving averages
+
+    private final int capacity;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final long maxEmptyPollIntervalMillis;
+
+    private long emptyPollIntervalMillis;
+    private double drainRate; // messages per millisecond, moving average
+    private double pollLatencyMillis; // moving average
+
+    private long lastSampleTime = -1;
+    private int lastSampleSize;
+
+    PollingController(int capacity, long minIntervalMillis, long maxIntervalMillis, long maxEmptyPollIntervalMillis) {
+        this.capacity = capacity;
+        this.minIntervalMillis = Math.max(1, minIntervalMillis);
+        this.maxIntervalMillis = Math.max(this.minIntervalMillis, maxIntervalMillis);
+        this.maxEmptyPollIntervalMillis = Math.max(this.minIntervalMillis, maxEmptyPollIntervalMillis);
+        this.emptyPollIntervalMillis = this.minIntervalMillis;
+    }
+
+    /**
+     * Records the buffer size seen by the InBuffer thread, used to measure how fast the execution threads drain it
+     */
+    void onBufferSize(int bufferSize, long now) {
+        if (lastSampleTime >= 0 && now > lastSampleTime) {
+            int drained = Math.max(0, lastSampleSize - bufferSize);
+            drainRate = average(drainRate, (double) drained / (now - lastSampleTime));
+        }
+        lastSampleTime = now;
+        lastSampleSize = bufferSize;
+    }
+
+    /**
+     * Records the result of a poll
+     *
+     * @param received the number of messages the poll returned
+     * @param bufferSize the buffer size after the received messages were added to it
+     * @param latencyMillis the time the poll took
+     * @param now the current time in milliseconds
+     */
+    void onPoll(int received, int bufferSize, long latencyMillis, long now) {
+        pollLatencyMillis = average(pollLatencyMillis, latencyMillis);
+        if (received == 0) {
+            emptyPollIntervalMillis = Math.min(maxEmptyPollIntervalMillis, emptyPollIntervalMillis * 2);
+        } else {
+            emptyPollIntervalMillis = minIntervalMillis;
+        }
+        lastSampleTime = now;
+        lastSampleSize = bufferSize;
+    }
+
+    boolean needToPoll(int bufferSize) {
+        return bufferSize < getRefillThreshold();
+    }
+
+    int getPollSize(int bufferSize) {
+        return Math.max(0, capacity - bufferSize);
+    }
+
+    int getRefillThreshold() {
+        double needed = drainRate * (pollLatencyMillis + minIntervalMillis) * SAFETY_FACTOR;
+        double threshold = Math.min(capacity * MAX_THRESHOLD_RATIO, Math.max(capacity * MIN_THRESHOLD_RATIO, needed));
+        return (int) Math.ceil(threshold);
+    }
+
+    /**
+     * @return how long to sleep after a poll that returned messages
+     */
+    long getIntervalAfterMessages() {
+        return minIntervalMillis;
+    }
+
+    /**
+     * @return how long to wait for work after an empty poll
+     */
+    long getIntervalAfterEmptyPoll() {
+        return emptyPollIntervalMillis;
+    }
+
+    /**
+     * @return how long to sleep when the buffer is still above the refill threshold - about the time it takes to drain down to it
+     */
+    long getIntervalWhileFull(int bufferSize) {
+        if (drainRate <= 0) {
+            return maxIntervalMillis;
+        }
+        long millis = (long) ((bufferSize - getRefillThreshold()) / drainRate);
+        return Math.min(maxIntervalMillis, Math.max(minIntervalMillis, millis));
+    }
+
+    private static double average(double average, double sample) {
+        return average + SMOOTHING * (sample - average);
+    }
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.worker.management.services;
+
+import io.cloudslang.engine.queue.entities.ExecutionMessage;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread pool whose tasks carry the execution and the priority of their step, so its queue can order them.
+ *
+ * The tasks are comparable by priority: a step waits behind steps of higher priority only until it waited
+ * ExecutionMessage.PRIORITY_AGING_MILLIS for each level between them, so low priority executions are not starved.
+ * Steps of the same priority are ordered by submission. A PriorityBlockingQueue runs them in this order,
+ * a FairTaskQueue also shares the threads between the executions.
+ */
+class PriorityThreadPoolExecutor extends ThreadPoolExecutor {
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    PriorityThreadPoolExecutor(int numberOfThreads, BlockingQueue<Runnable> queue, ThreadFactory threadFactory) {
+        super(numberOfThreads, numberOfThreads, Long.MAX_VALUE, TimeUnit.NANOSECONDS, queue, threadFactory);
+    }
+
+    public Future<?> submit(Runnable task, Long executionId, int priority) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        PrioritizedTask<Object> futureTask = new PrioritizedTask<>(task, null, executionId, priority, sequence.getAndIncrement());
+        execute(futureTask);
+        return futureTask;
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new PrioritizedTask<>(runnable, value, null, 0, sequence.getAndIncrement());
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PrioritizedTask<>(callable, null, 0, sequence.getAndIncrement());
+    }
+
+    /**
+     * A task that is told when its future is done - run, failed, or cancelled before it started
+     */
+    interface CompletionListener {
+        void onCompletion();
+    }
+
+    static class PrioritizedTask<T> extends FutureTask<T> implements Comparable<PrioritizedTask<?>> {
+        private final CompletionListener completionListener;
+        private final Long executionId;
+        private final int priority;
+        private final long priorityTime;
+        private final long sequence;
+
+        PrioritizedTask(Runnable runnable, T value, Long executionId, int priority, long sequence) {
+            super(runnable, value);
+            this.completionListener = runnable instanceof CompletionListener ? (CompletionListener) runnable : null;
+            this.executionId = executionId;
+            this.priority = priority;
+            this.priorityTime = System.currentTimeMillis() - priority * ExecutionMessage.PRIORITY_AGING_MILLIS;
+            this.sequence = sequence;
+        }
+
+        PrioritizedTask(Callable<T> callable, Long executionId, int priority, long sequence) {
+            super(callable);
+            this.completionListener = callable instanceof CompletionListener ? (CompletionListener) callable : null;
+            this.executionId = executionId;
+            this.priority = priority;
+            this.priorityTime = System.currentTimeMillis() - priority * ExecutionMessage.PRIORITY_AGING_MILLIS;
+            this.sequence = sequence;
+        }
+
+        @Override
+        protected void done() {
+            if (completionListener != null) {
+                completionListener.onCompletion();
+            }
+        }
+
+        /**
+         * @return the execution of the step, null for a task that is not a step
+         */
+        Long getExecutionId() {
+            return executionId;
+        }
+
+        int getPriority() {
+            return priority;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask<?> other) {
+            int result = Long.compare(priorityTime, other.priorityTime);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
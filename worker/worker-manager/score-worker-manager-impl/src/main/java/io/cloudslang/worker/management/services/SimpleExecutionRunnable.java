@@ -15,7 +15,6 @@ import io.cloudslang.engine.queue.entities.ExecStatus;
 import io.cloudslang.engine.queue.entities.ExecutionMessage;
 import io.cloudslang.engine.queue.entities.ExecutionMessageConverter;
 import io.cloudslang.engine.queue.entities.Payload;
-import io.cloudslang.engine.queue.services.QueueStateIdGeneratorService;
 import io.cloudslang.orchestrator.entities.SplitMessage;
 import io.cloudslang.score.facade.TempConstants;
 import io.cloudslang.score.facade.entities.Execution;
@@ -48,7 +47,7 @@ public class SimpleExecutionRunnable implements Runnable {
 
     private ExecutionMessage executionMessage;
 
-    private QueueStateIdGeneratorService queueStateIdGeneratorService;
+    private LeasedStateIdGenerator stateIdGenerator;
 
     private String workerUUID;
 
@@ -63,7 +62,7 @@ public class SimpleExecutionRunnable implements Runnable {
                                    InBuffer inBuffer,
                                    ExecutionMessageConverter converter,
                                    EndExecutionCallback endExecutionCallback,
-                                   QueueStateIdGeneratorService queueStateIdGeneratorService,
+                                   LeasedStateIdGenerator stateIdGenerator,
                                    String workerUUID,
                                    WorkerConfigurationService workerConfigurationService,
                                    WorkerManager workerManager
@@ -73,7 +72,7 @@ public class SimpleExecutionRunnable implements Runnable {
         this.inBuffer = inBuffer;
         this.converter = converter;
         this.endExecutionCallback = endExecutionCallback;
-        this.queueStateIdGeneratorService = queueStateIdGeneratorService;
+        this.stateIdGenerator = stateIdGenerator;
         this.workerUUID = workerUUID;
         this.workerConfigurationService = workerConfigurationService;
         this.workerManager = workerManager;
@@ -100,11 +99,17 @@ public class SimpleExecutionRunnable implements Runnable {
             //If we got here because of te shortcut we have the object
             if(executionMessage.getExecutionObject() != null){
                 execution = executionMessage.getExecutionObject();
-
+                //the previous step could send this object to the OutBuffer as a lazy payload - serialize it before we change it
+                executionMessage.materializeSnapshots(converter);
             }
             //If we got here form DB - we need to extract the object from bytes
             else {
-                execution = converter.extractExecution(executionMessage.getPayload());
+                Payload payload = executionMessage.getPayload();
+                execution = converter.extractExecution(payload);
+                //the lazy payloads of the next steps are about the same size - see ExecutionMessage#getWeight
+                if (payload != null && payload.getData() != null) {
+                    executionMessage.setPayloadSizeEstimate(payload.getData().length);
+                }
             }
 
             String branchId = execution.getSystemContext().getBranchId();
@@ -137,8 +142,8 @@ public class SimpleExecutionRunnable implements Runnable {
             executionMessage.incMsgSeqId();    //new status must be with incremented msg_seq_id - otherwise will be recovered and we will get duplications
             //send only one execution message back - the new one was not created because of error
             try {
-                if(executionMessage.getPayload() == null){
-                    executionMessage.setPayload(converter.createPayload(execution)); //this is done since we could get here from InBuffer shortcut - so no payload... and for FAILED message we need to set the payload
+                if(!executionMessage.hasPayload()){
+                    executionMessage.setPayloadExecution(execution); //this is done since we could get here from InBuffer shortcut - so no payload... and for FAILED message we need to set the payload
                 }
                 outBuffer.put(executionMessage);
             } catch (InterruptedException e) {
@@ -228,6 +233,7 @@ public class SimpleExecutionRunnable implements Runnable {
 
             ExecutionMessage inProgressMessageForInBuffer = (ExecutionMessage) inProgressMessage.clone();
             inProgressMessageForInBuffer.setPayload(null); //we do not need the payload for the inBuffer shortcut
+            inProgressMessageForInBuffer.setSnapshotMessages(inProgressMessage);
 
             try {
                 //The order is important!!!!!
@@ -260,13 +266,14 @@ public class SimpleExecutionRunnable implements Runnable {
             nextStepExecution.getSystemContext().removeStepPersistID();
 
             //set the payload to the current step and not from the message that could be several micro step behind
-            executionMessage.setPayload(converter.createPayload(nextStepExecution));
+            executionMessage.setPayloadExecution(nextStepExecution);
 
             ExecutionMessage inProgressMessage = createInProgressExecutionMessage(nextStepExecution);
             ExecutionMessage[] executionMessagesToSend = new ExecutionMessage[]{executionMessage, inProgressMessage}; //for the outBuffer
 
             ExecutionMessage inProgressMessageForInBuffer = (ExecutionMessage) inProgressMessage.clone();
             inProgressMessageForInBuffer.setPayload(null); //we do not need the payload for the inBuffer shortcut, we have execution there
+            inProgressMessageForInBuffer.setSnapshotMessages(executionMessage, inProgressMessage);
 
             try {
                 //The order is important!!!!!
@@ -420,6 +427,7 @@ public class SimpleExecutionRunnable implements Runnable {
 
             ExecutionMessage inProgressMessageForInBuffer = (ExecutionMessage) inProgressMessage.clone();
             inProgressMessageForInBuffer.setPayload(null); //we do not need the payload for the inBuffer shortcut
+            inProgressMessageForInBuffer.setSnapshotMessages(inProgressMessage);
 
             try {
                 //The order is important!!!!!
@@ -438,11 +446,10 @@ public class SimpleExecutionRunnable implements Runnable {
 
     // Creates termination execution message, base on current execution message
     private ExecutionMessage createTerminatedExecutionMessage(Execution nextStepExecution) {
-        Payload payload = converter.createPayload(nextStepExecution); //we need the payload
         ExecutionMessage finalMessage = (ExecutionMessage) executionMessage.clone();
         finalMessage.setStatus(ExecStatus.TERMINATED); //in queue it is checked and finish flow is called
         finalMessage.incMsgSeqId();
-        finalMessage.setPayload(payload);
+        finalMessage.setPayloadExecution(nextStepExecution, executionMessage.getPayloadSizeEstimate()); //we need the payload - it is serialized when the message is drained
         return finalMessage;
     }
 
@@ -453,13 +460,15 @@ public class SimpleExecutionRunnable implements Runnable {
         if (groupName == null) {
             groupName = WorkerNode.DEFAULT_WORKER_GROUPS[0];
         }
-        return new ExecutionMessage(ExecutionMessage.EMPTY_EXEC_STATE_ID,
+        ExecutionMessage pendingMessage = new ExecutionMessage(ExecutionMessage.EMPTY_EXEC_STATE_ID,
                 ExecutionMessage.EMPTY_WORKER,
                 groupName,
                 executionMessage.getMsgId(),
                 ExecStatus.PENDING,
-                converter.createPayload(nextStepExecution),
+                null,
                 0).setWorkerKey(executionMessage.getWorkerKey());
+        pendingMessage.setPayloadExecution(nextStepExecution, executionMessage.getPayloadSizeEstimate()); //serialized when the message is drained
+        return pendingMessage;
     }
 
     // Creates InProgress execution message for the next step, base on current execution message - used for short cut!
@@ -470,16 +479,19 @@ public class SimpleExecutionRunnable implements Runnable {
             groupName = WorkerNode.DEFAULT_WORKER_GROUPS[0];
         }
 
-        Long id = queueStateIdGeneratorService.generateStateId();
+        Long id = stateIdGenerator.generateStateId();
         // stay in the same worker in the next step
-        return new ExecutionMessage(id,
+        ExecutionMessage inProgressMessage = new ExecutionMessage(id,
                 executionMessage.getWorkerId(),
                 groupName,
                 executionMessage.getMsgId(),
                 ExecStatus.IN_PROGRESS,
                 nextStepExecution,
-                converter.createPayload(nextStepExecution),
+                null,
                 0).setWorkerKey(executionMessage.getWorkerKey());
+        //serialized when the message is drained, or by the next step before it changes the execution - if the step is shrunk it is never serialized
+        inProgressMessage.setPayloadExecution(nextStepExecution, executionMessage.getPayloadSizeEstimate());
+        return inProgressMessage;
     }
 
 
@@ -12,7 +12,6 @@ package io.cloudslang.worker.management.services;
 
 import io.cloudslang.worker.execution.services.ExecutionService;
 import io.cloudslang.engine.queue.entities.ExecutionMessageConverter;
-import io.cloudslang.engine.queue.services.QueueStateIdGeneratorService;
 
 import io.cloudslang.worker.management.WorkerConfigurationService;
 import org.springframework.beans.factory.FactoryBean;
@@ -43,7 +42,7 @@ public class SimpleExecutionRunnableFactory implements FactoryBean<SimpleExecuti
 	private EndExecutionCallback endExecutionCallback;
 
     @Autowired
-    private QueueStateIdGeneratorService queueStateIdGeneratorService;
+    private LeasedStateIdGenerator stateIdGenerator;
 
     @Autowired
     private WorkerConfigurationService workerConfigurationService;
@@ -62,7 +61,7 @@ public class SimpleExecutionRunnableFactory implements FactoryBean<SimpleExecuti
                 inBuffer,
                 converter,
                 endExecutionCallback,
-                queueStateIdGeneratorService,
+                stateIdGenerator,
                 workerUuid,
                 workerConfigurationService,
                 workerManager
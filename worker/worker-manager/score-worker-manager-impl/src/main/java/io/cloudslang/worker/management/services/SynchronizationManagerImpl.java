@@ -8,10 +8,12 @@
 *
 *******************************************************************************/
 
+
 package io.cloudslang.worker.management.services;
 
 import org.apache.log4j.Logger;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -20,19 +22,33 @@ import java.util.concurrent.locks.ReentrantLock;
  * User: kravtsov
  * Date: 8/7/14
  * Time: 2:30 PM
+ *
+ * Entering and leaving a section is a counter update and a volatile read, locks are taken only around recovery.
+ * A thread that enters a section increments the counter and then checks the recovery flag, recovery sets the flag
+ * and then waits for the counter to drop - so at least one of them always sees the other.
  */
 public class SynchronizationManagerImpl implements SynchronizationManager {
 
     private final Logger logger = Logger.getLogger(this.getClass());
 
-    ReentrantLock recoveryGetLock = new ReentrantLock();  //synchronizing Recovery and InBuffer
-    ReentrantLock recoveryPutLock = new ReentrantLock(); //synchronizing Recovery and OutBuffer put()
-    ReentrantLock recoveryDrainLock = new ReentrantLock(); //synchronizing Recovery and OutBuffer drain()
+    private static final int GET = 0;   //synchronizing Recovery and InBuffer
+    private static final int PUT = 1;   //synchronizing Recovery and OutBuffer put()
+    private static final int DRAIN = 2; //synchronizing Recovery and OutBuffer drain()
+
+    private final AtomicInteger activeSections = new AtomicInteger();
+    private volatile boolean inRecovery;
 
-    ReentrantLock outBufferLock = new ReentrantLock();   //synchronizing OutBuffer put() and drain()
-    private final Condition notEmpty = outBufferLock.newCondition();
-    private final Condition notFull = outBufferLock.newCondition();
+    private final ReentrantLock recoveryLock = new ReentrantLock(); //only one recovery at a time
+    private final ReentrantLock barrierLock = new ReentrantLock();  //for waiting only - never held in a section
+    private final Condition sectionsLeft = barrierLock.newCondition();
+    private final Condition recoveryFinished = barrierLock.newCondition();
 
+    private final ThreadLocal<boolean[]> heldSections = new ThreadLocal<boolean[]>() {
+        @Override
+        protected boolean[] initialValue() {
+            return new boolean[3];
+        }
+    };
 
     @Override
     public void startRecovery() {
@@ -41,11 +57,17 @@ public class SynchronizationManagerImpl implements SynchronizationManager {
             logger.debug("Getting recovery locks...");
         }
 
-        recoveryGetLock.lock();
-        recoveryPutLock.lock();
-        recoveryDrainLock.lock();
-
-        outBufferLock.lock();
+        recoveryLock.lock();
+        int ownSections = countHeld(heldSections.get());
+        barrierLock.lock();
+        try {
+            inRecovery = true;
+            while (activeSections.get() > ownSections) {
+                sectionsLeft.awaitUninterruptibly();
+            }
+        } finally {
+            barrierLock.unlock();
+        }
 
         if(logger.isDebugEnabled()){
             logger.debug("Got recovery locks...");
@@ -54,18 +76,22 @@ public class SynchronizationManagerImpl implements SynchronizationManager {
 
     @Override
     public void finishRecovery(){
+        //recovery might have been skipped because another thread is already recovering
+        if (!recoveryLock.isHeldByCurrentThread()) {
+            return;
+        }
         if(logger.isDebugEnabled()){
             logger.debug("Releasing recovery locks...");
         }
 
-        //we cleaned buffers - need to signal for those who wait for the buffer to be not full
-        notFull.signalAll();
-
-        recoveryGetLock.unlock();
-        recoveryPutLock.unlock();
-        recoveryDrainLock.unlock();
-
-        outBufferLock.unlock();
+        barrierLock.lock();
+        try {
+            inRecovery = false;
+            recoveryFinished.signalAll();
+        } finally {
+            barrierLock.unlock();
+        }
+        recoveryLock.unlock();
 
         if(logger.isDebugEnabled()){
             logger.debug("Released recovery locks...");
@@ -74,133 +100,121 @@ public class SynchronizationManagerImpl implements SynchronizationManager {
 
     @Override
     public void startPutMessages() {
-        if(logger.isDebugEnabled()){
-            logger.debug("In SynchronizationManager.startPutMessages()");
-        }
-
-        recoveryPutLock.lock();
-        outBufferLock.lock();
-
-        if(logger.isDebugEnabled()){
-            logger.debug("Out SynchronizationManager.startPutMessages()");
-        }
+        enter(PUT);
     }
 
     @Override
     public void finishPutMessages() {
-        if(logger.isDebugEnabled()){
-            logger.debug("In SynchronizationManager.finishPutMessages()");
-        }
-        notEmpty.signalAll();
+        leave(PUT);
+    }
 
-        unlockCompletely(recoveryPutLock);
-        unlockCompletely(outBufferLock); //probably just unlock is enough
+    @Override
+    public void pausePutMessages() {
+        //if we got here from the InBuffer thread it leaves the get section as well
+        leave(PUT);
+        leave(GET);
+    }
 
-        if(logger.isDebugEnabled()){
-            logger.debug("Out SynchronizationManager.finishPutMessages()");
-        }
+    @Override
+    public void resumePutMessages() {
+        enter(PUT);
     }
 
     @Override
     public void startDrain() {
-        if(logger.isDebugEnabled()){
-            logger.debug("In SynchronizationManager.startDrain()");
-        }
-        recoveryDrainLock.lock();
-        outBufferLock.lock();
-
-        if(logger.isDebugEnabled()){
-            logger.debug("Out SynchronizationManager.startDrain()");
-        }
+        enter(DRAIN);
     }
 
     @Override
     public void finishDrain() {
-        if(logger.isDebugEnabled()){
-            logger.debug("In SynchronizationManager.finishDrain()");
-        }
-
-        notFull.signalAll();
-
-        unlockCompletely(recoveryDrainLock);
-        unlockCompletely(outBufferLock); //probably just unlock is enough
-
-        if(logger.isDebugEnabled()){
-            logger.debug("Out SynchronizationManager.finishDrain()");
-        }
+        leave(DRAIN);
     }
 
     @Override
-    public void waitForDrain() throws InterruptedException {
-
-        if(logger.isDebugEnabled()){
-            logger.debug("In SynchronizationManager.waitForDrain()");
-        }
-
-        //unlock all recovery locks that could be taken - so when we are waiting for messages drain recovery will be able to begin
-        unlockCompletely(recoveryPutLock);
-        unlockCompletely(recoveryGetLock); //if we got here from the InBuffer thread
-
-        //Wait for messages to be drained
-        notFull.await();
-
-        if(logger.isDebugEnabled()){
-            logger.debug("Out SynchronizationManager.waitForDrain()");
-        }
-
+    public void pauseDrain() {
+        leave(DRAIN);
     }
 
     @Override
-    public void waitForMessages() throws InterruptedException {
-
-        if(logger.isDebugEnabled()){
-            logger.debug("In SynchronizationManager.waitForMessages()");
-        }
-
-        //unlock recovery so when we are waiting for messages recovery will be able to begin
-        unlockCompletely(recoveryDrainLock);
-        //Wait for messages to arrive
-        notEmpty.await();
-
-        if(logger.isDebugEnabled()){
-            logger.debug("Out SynchronizationManager.waitForMessages()");
-        }
+    public void resumeDrain() {
+        enter(DRAIN);
     }
 
     @Override
     public void startGetMessages() {
-        if(logger.isDebugEnabled()){
-            logger.debug("In SynchronizationManager.startGetMessages()");
-        }
-
-        recoveryGetLock.lock();
-
-        if(logger.isDebugEnabled()){
-            logger.debug("Out SynchronizationManager.startGetMessages()");
-        }
+        enter(GET);
     }
 
     @Override
     public void finishGetMessages() {
-        if(logger.isDebugEnabled()){
-            logger.debug("In SynchronizationManager.finishGetMessages()");
+        leave(GET);
+    }
+
+    private void enter(int section) {
+        boolean[] held = heldSections.get();
+        if (held[section]) {
+            return;
+        }
+        // a thread that is already inside a section must not wait for recovery - recovery is waiting for it
+        if (countHeld(held) > 0 || recoveryLock.isHeldByCurrentThread()) {
+            activeSections.incrementAndGet();
+        } else {
+            while (true) {
+                activeSections.incrementAndGet();
+                if (!inRecovery) {
+                    break;
+                }
+                decrement();
+                awaitRecovery();
+            }
+        }
+        held[section] = true;
+    }
+
+    // It is very important to leave only the sections that the thread holds since it is called more then once:
+    // for example InBuffer calls finishGetMessages() both in the catch and in the finally blocks
+    private void leave(int section) {
+        boolean[] held = heldSections.get();
+        if (!held[section]) {
+            return;
         }
+        held[section] = false;
+        decrement();
+    }
 
-        unlockCompletely(recoveryGetLock);
+    private void decrement() {
+        activeSections.decrementAndGet();
+        if (inRecovery) {
+            barrierLock.lock();
+            try {
+                sectionsLeft.signalAll();
+            } finally {
+                barrierLock.unlock();
+            }
+        }
+    }
 
+    private void awaitRecovery() {
         if(logger.isDebugEnabled()){
-            logger.debug("Out SynchronizationManager.finishGetMessages()");
+            logger.debug("Waiting for recovery to finish...");
+        }
+        barrierLock.lock();
+        try {
+            while (inRecovery) {
+                recoveryFinished.awaitUninterruptibly();
+            }
+        } finally {
+            barrierLock.unlock();
         }
     }
 
-    // It is very important to use this method instead of just do unlock because of 2 reasons:
-    // 1. The lock could be already unlocked in case out thread was in waitForMessages() or waitForDrain()
-    //2. The lock can be locked more then once - for example in InBuffer startGetMessages() and then in ackMessages() do put() in OutBuffer and do startPutMessages()
-    private void unlockCompletely(ReentrantLock lockToUnlock){
-        int counter = lockToUnlock.getHoldCount();
-
-        for(int i = 0; i<counter; i++){
-            lockToUnlock.unlock();
+    private static int countHeld(boolean[] held) {
+        int count = 0;
+        for (boolean section : held) {
+            if (section) {
+                count++;
+            }
         }
+        return count;
     }
 }
@@ -11,6 +11,7 @@
 package io.cloudslang.worker.management.services;
 
 import io.cloudslang.engine.node.services.WorkerNodeService;
+import io.cloudslang.orchestrator.services.CancelExecutionListener;
 import io.cloudslang.orchestrator.services.EngineVersionService;
 import io.cloudslang.worker.management.WorkerConfigurationService;
 import org.apache.commons.lang.ArrayUtils;
@@ -29,12 +30,11 @@ import java.io.FileFilter;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import static ch.lambdaj.Lambda.max;
@@ -46,7 +46,7 @@ import static ch.lambdaj.Lambda.on;
  * Date: 20/11/12
  * Time: 11:02
  */
-public class WorkerManager implements ApplicationListener, EndExecutionCallback, WorkerRecoveryListener {
+public class WorkerManager implements ApplicationListener, EndExecutionCallback, WorkerRecoveryListener, CancelExecutionListener {
 
 	private static final int KEEP_ALIVE_FAIL_LIMIT = 5;
 	private static final String DOTNET_PATH = System.getenv("WINDIR") + "/Microsoft.NET/Framework";
@@ -70,7 +70,7 @@ public class WorkerManager implements ApplicationListener, EndExecutionCallback,
 	@Autowired
 	protected WorkerVersionService workerVersionService;
 
-	private LinkedBlockingQueue<Runnable> inBuffer;
+	private BlockingQueue<Runnable> inBuffer;
 	@Autowired
 	@Qualifier("numberOfExecutionThreads")
 	private Integer numberOfThreads;
@@ -81,7 +81,9 @@ public class WorkerManager implements ApplicationListener, EndExecutionCallback,
 	@Qualifier("maxStartUpSleep")
 	private Long maxStartUpSleep = 10*60*1000L; // by default 10 minutes
     private int keepAliveFailCount = 0;
-	private ExecutorService executorService;
+	// cleared when the engine is older than the worker and does not accept the load with the keep alive, set again on start up
+	private volatile boolean keepAliveWithLoad = true;
+	private PriorityThreadPoolExecutor executorService;
 	private Map<Long, ConcurrentLinkedQueue<Future>> mapOfRunningTasks;
 	private volatile boolean endOfInit = false;
     private volatile boolean initStarted = false;
@@ -94,11 +96,10 @@ public class WorkerManager implements ApplicationListener, EndExecutionCallback,
 	private void init() {
 		logger.info("Initialize worker with UUID: " + workerUuid);
 		System.setProperty("worker.uuid", workerUuid); //do not remove!!!
-        inBuffer = new LinkedBlockingQueue<>();
+        //the steps run by priority, unless the threads should also be shared fairly between the executions of a priority
+        inBuffer = Boolean.getBoolean("worker.scheduler.fair.enabled") ? new FairTaskQueue() : new PriorityBlockingQueue<Runnable>();
 
-		executorService = new ThreadPoolExecutor(numberOfThreads,
-				numberOfThreads,
-				Long.MAX_VALUE, TimeUnit.NANOSECONDS,
+		executorService = new PriorityThreadPoolExecutor(numberOfThreads,
 				inBuffer,
                 new WorkerThreadFactory((++threadPoolVersion) + "_WorkerExecutionThread"));
 
@@ -106,8 +107,15 @@ public class WorkerManager implements ApplicationListener, EndExecutionCallback,
 	}
 
 	public void addExecution(Long executionId, Runnable runnable) {
+		addExecution(executionId, 0, runnable);
+	}
+
+	/**
+	 * @param priority the priority of the execution - the waiting steps run by it
+	 */
+	public void addExecution(Long executionId, int priority, Runnable runnable) {
 		//It is possible that in linear flow we will have step 2 that is already running, but step 1 that still did not clean itself from the table (race condition)
-        Future future = executorService.submit(runnable);
+        Future future = executorService.submit(runnable, executionId, priority);
 
 		if( mapOfRunningTasks.get(executionId) == null){
 			mapOfRunningTasks.put(executionId, new ConcurrentLinkedQueue<Future>());
@@ -130,26 +138,49 @@ public class WorkerManager implements ApplicationListener, EndExecutionCallback,
 		return inBuffer.size();
 	}
 
+	/**
+	 * @return the number of steps waiting for an execution thread plus the number of steps being executed
+	 */
+	public int getLoad() {
+		return inBuffer.size() + executorService.getActiveCount();
+	}
+
     @SuppressWarnings("unused")
     //scheduled in scoreWorkerSchedulerContext.xml
     public void interruptCanceledExecutions(){
         for(Long executionId  : mapOfRunningTasks.keySet()){
             if(workerConfigurationService.isExecutionCancelled(executionId)){
-                Collection<Future> futures = mapOfRunningTasks.get(executionId);
-				for(Future future : futures) {
-					future.cancel(true);
-				}
+                interruptExecution(executionId);
 			}
         }
     }
 
+	/**
+	 * The fast path of the cancellation - interrupts the steps of the execution as soon as the cancellation is committed,
+	 * the scheduled scan above remains for cancellations that were not pushed to this worker
+	 */
+	@Override
+	public void onExecutionCancelled(Long executionId) {
+		workerConfigurationService.setExecutionCancelled(executionId); //the interrupted step must see that it was cancelled
+		interruptExecution(executionId);
+	}
+
+	private void interruptExecution(Long executionId) {
+		Collection<Future> futures = mapOfRunningTasks.get(executionId);
+		if (futures != null) {
+			for (Future future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
 	@SuppressWarnings("unused")
     //scheduled in xml
     public void workerKeepAlive() {
         if (!recoveryManager.isInRecovery()) {
             if (endOfInit) {
                 try {
-                    String newWrv = workerNodeService.keepAlive(workerUuid);
+                    String newWrv = sendKeepAlive();
                     String currentWrv = recoveryManager.getWRV();
                     //do not update it!!! if it is different than we have - restart worker (clean state)
                     if(!currentWrv.equals(newWrv)){
@@ -172,6 +203,31 @@ public class WorkerManager implements ApplicationListener, EndExecutionCallback,
         }
 	}
 
+	private String sendKeepAlive() {
+		if (keepAliveWithLoad) {
+			try {
+				return workerNodeService.keepAlive(workerUuid, numberOfThreads, getLoad());
+			} catch (RuntimeException ex) {
+				if (isMissingMethod(ex)) {
+					logger.warn("The engine does not accept the load of the worker with its keep alive, the worker keeps alive without reporting its load");
+					keepAliveWithLoad = false;
+				} else {
+					logger.warn("Could not send keep alive with the worker load to Central, sending it without the load", ex);
+				}
+			}
+		}
+		return workerNodeService.keepAlive(workerUuid);
+	}
+
+	private static boolean isMissingMethod(Throwable ex) {
+		for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+			if (cause instanceof NoSuchMethodException || cause instanceof NoSuchMethodError) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	@SuppressWarnings("unused") // called by scheduler
 	public void logStatistics() {
 		if (logger.isDebugEnabled()) {
@@ -211,6 +267,7 @@ public class WorkerManager implements ApplicationListener, EndExecutionCallback,
 					try {
 						String newWrv = workerNodeService.up(workerUuid, workerVersionService.getWorkerVersion(), workerVersionService.getWorkerVersionId());
 						recoveryManager.setWRV(newWrv); //we do set of WRV here and in doRecovery() only!!! not in keepalive!!!
+						keepAliveWithLoad = true; //the engine may have been upgraded
 						shouldRetry = false;
 						logger.info("Worker is up");
 					} catch (Exception ex) {
@@ -321,9 +378,7 @@ public class WorkerManager implements ApplicationListener, EndExecutionCallback,
         mapOfRunningTasks.clear();
 
         //Make new executor
-        executorService = new ThreadPoolExecutor(numberOfThreads,
-                numberOfThreads,
-                Long.MAX_VALUE, TimeUnit.NANOSECONDS,
+        executorService = new PriorityThreadPoolExecutor(numberOfThreads,
                 inBuffer,
                 new WorkerThreadFactory((threadPoolVersion) + "_WorkerExecutionThread"));
     }
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.worker.management.services;
+
+import org.apache.log4j.Logger;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The bytes of message payloads that the InBuffer and the OutboundBuffer may hold together.
+ *
+ * A reservation is admitted as long as the budget is not used up, so a single message that is bigger than the
+ * whole budget is still admitted when nothing else is held. Reservations are tied to a generation: recovery drops
+ * everything the buffers held, so it resets the budget and late releases of the previous generation are ignored.
+ */
+public class WorkerMemoryBudget implements WorkerRecoveryListener {
+    private static final Logger logger = Logger.getLogger(WorkerMemoryBudget.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private long limit;
+    private long used;
+    private int generation;
+
+    public WorkerMemoryBudget() {
+        this(Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    public WorkerMemoryBudget(long limit) {
+        this.limit = limit;
+    }
+
+    @PostConstruct
+    public void init() {
+        limit = Long.getLong("worker.memory.budget.bytes", limit);
+        logger.info("Worker memory budget is set to :" + limit + " bytes");
+    }
+
+    /**
+     * @return true if a reservation of the given size would be admitted now
+     */
+    public boolean hasRoom(long bytes) {
+        lock.lock();
+        try {
+            return used == 0 || used + bytes <= limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isExhausted() {
+        lock.lock();
+        try {
+            return used >= limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the budget is not used up or the timeout is over
+     *
+     * @return true if the budget has room
+     */
+    public boolean awaitRoom(long timeoutMillis) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (used >= limit && nanos > 0) {
+                nanos = released.awaitNanos(nanos);
+            }
+            return used < limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves bytes that are already in memory, without waiting
+     *
+     * @return the generation to pass to {@link #release(long, int)}
+     */
+    public int reserve(long bytes) {
+        lock.lock();
+        try {
+            used += bytes;
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(long bytes, int reservationGeneration) {
+        lock.lock();
+        try {
+            if (reservationGeneration == generation) {
+                used = Math.max(0, used - bytes);
+                released.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getUsed() {
+        lock.lock();
+        try {
+            return used;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    @Override
+    public void doRecovery() {
+        lock.lock();
+        try {
+            used = 0;
+            generation++;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
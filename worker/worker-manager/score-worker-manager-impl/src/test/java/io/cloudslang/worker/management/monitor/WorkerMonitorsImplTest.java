@@ -124,5 +124,6 @@ public class WorkerMonitorsImplTest {
         @Bean public EngineVersionService engineVersionService() {return mock(EngineVersionService.class);}
         @Bean public EndExecutionCallback endExecutionCallback() {return mock(EndExecutionCallback.class);}
         @Bean public QueueStateIdGeneratorService queueStateIdGeneratorService() {return mock(QueueStateIdGeneratorService.class);}
+        @Bean public LeasedStateIdGenerator leasedStateIdGenerator() {return mock(LeasedStateIdGenerator.class);}
     }
 }
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.worker.management.services;
+
+import io.cloudslang.worker.management.services.PriorityThreadPoolExecutor.PrioritizedTask;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class FairTaskQueueTest {
+
+    private long sequence;
+
+    @Test
+    public void testExecutionsTakeTurns() {
+        FairTaskQueue queue = new FairTaskQueue(1);
+        for (int i = 0; i < 4; i++) {
+            queue.offer(task(1L, 0));
+        }
+        queue.offer(task(2L, 0));
+        queue.offer(task(2L, 0));
+
+        Assert.assertEquals(6, queue.size());
+        Assert.assertEquals(Arrays.asList(1L, 2L, 1L, 2L, 1L, 1L), drainExecutionIds(queue));
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testHigherPriorityIsServedFirst() {
+        FairTaskQueue queue = new FairTaskQueue(1);
+        for (int i = 0; i < 2; i++) {
+            queue.offer(task(1L, 0));
+            queue.offer(task(2L, 1));
+            queue.offer(task(3L, 1));
+        }
+
+        Assert.assertEquals(Arrays.asList(2L, 3L, 2L, 3L, 1L, 1L), drainExecutionIds(queue));
+    }
+
+    @Test
+    public void testStepsOfAnExecutionRunByPriority() {
+        FairTaskQueue queue = new FairTaskQueue(1);
+        PrioritizedTask<Object> low = task(1L, 0);
+        PrioritizedTask<Object> high = task(1L, 5);
+        queue.offer(low);
+        queue.offer(high);
+
+        Assert.assertSame(high, queue.peek());
+        Assert.assertSame(high, queue.poll());
+        Assert.assertSame(low, queue.poll());
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testRemove() throws InterruptedException {
+        FairTaskQueue queue = new FairTaskQueue(1);
+        PrioritizedTask<Object> first = task(1L, 0);
+        PrioritizedTask<Object> second = task(2L, 0);
+        queue.offer(first);
+        queue.offer(second);
+
+        Assert.assertTrue(queue.remove(first));
+        Assert.assertFalse(queue.remove(first));
+        Assert.assertEquals(1, queue.size());
+        Assert.assertSame(second, queue.take());
+        Assert.assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    private List<Long> drainExecutionIds(FairTaskQueue queue) {
+        List<Runnable> tasks = new ArrayList<>();
+        queue.drainTo(tasks);
+        List<Long> executionIds = new ArrayList<>();
+        for (Runnable task : tasks) {
+            executionIds.add(((PrioritizedTask) task).getExecutionId());
+        }
+        return executionIds;
+    }
+
+    private PrioritizedTask<Object> task(Long executionId, int priority) {
+        return new PrioritizedTask<>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null, executionId, priority, sequence++);
+    }
+}
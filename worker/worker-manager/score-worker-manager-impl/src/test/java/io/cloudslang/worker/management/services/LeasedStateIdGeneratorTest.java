@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.worker.management.services;
+
+import io.cloudslang.engine.data.IdentityGenerator;
+import io.cloudslang.engine.queue.services.QueueStateIdGeneratorService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LeasedStateIdGeneratorTest {
+
+    private QueueStateIdGeneratorService queueStateIdGeneratorService = mock(QueueStateIdGeneratorService.class);
+
+    private LeasedStateIdGenerator generator = new LeasedStateIdGenerator(queueStateIdGeneratorService, 4);
+
+    @After
+    public void destroy() {
+        generator.destroy();
+    }
+
+    @Test
+    public void testIdsAreHandedOutFromTheLease() {
+        when(queueStateIdGeneratorService.leaseStateIds(4)).thenReturn(100L, 200L);
+
+        Assert.assertEquals(100L, generator.generateStateId().longValue());
+        Assert.assertEquals(101L, generator.generateStateId().longValue());
+        Assert.assertEquals(102L, generator.generateStateId().longValue()); // half of the lease is used - renewed in the background
+        verify(queueStateIdGeneratorService, timeout(5000).times(2)).leaseStateIds(4);
+
+        Assert.assertEquals(103L, generator.generateStateId().longValue());
+        Assert.assertEquals(200L, generator.generateStateId().longValue());
+        verify(queueStateIdGeneratorService, times(2)).leaseStateIds(4);
+    }
+
+    @Test
+    public void testRecoveryDiscardsTheLease() {
+        when(queueStateIdGeneratorService.leaseStateIds(4)).thenReturn(100L, 200L);
+
+        Assert.assertEquals(100L, generator.generateStateId().longValue());
+        generator.doRecovery();
+
+        Assert.assertEquals(200L, generator.generateStateId().longValue());
+    }
+
+    @Test
+    public void testFailedRenewalIsRetriedWhenTheLeaseIsUsedUp() {
+        when(queueStateIdGeneratorService.leaseStateIds(4))
+                .thenReturn(100L)
+                .thenThrow(new RuntimeException("Network Error"))
+                .thenReturn(200L);
+
+        for (long id = 100; id < 104; id++) {
+            Assert.assertEquals(id, generator.generateStateId().longValue());
+        }
+        verify(queueStateIdGeneratorService, timeout(5000).times(2)).leaseStateIds(4);
+
+        Assert.assertEquals(200L, generator.generateStateId().longValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLeaseLargerThanAnIdRangeIsRejected() {
+        new LeasedStateIdGenerator(queueStateIdGeneratorService, IdentityGenerator.MAX_RANGE_SIZE + 1);
+    }
+}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+* (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+* All rights reserved. This program and the accompanying materials
+* are made available under the terms of the Apache License v2.0 which accompany this distribution.
+*
+* The Apache License is available at
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+*******************************************************************************/
+
+package io.cloudslang.worker.management.services;
+
+import io.cloudslang.orchestrator.entities.Message;
+import io.cloudslang.orchestrator.services.OrchestratorDispatcherService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of OutboundBufferImpl#put while execution threads put messages concurrently and a drain thread empties the buffer.
+ * It is not a unit test - run its main method with the test classpath.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutboundBufferBenchmark {
+
+    private static final Message MESSAGE = new BenchmarkMessage();
+
+    private AnnotationConfigApplicationContext context;
+
+    private OutboundBuffer buffer;
+
+    private volatile boolean running;
+
+    private Thread drainThread;
+
+    @Setup
+    public void setUp() {
+        context = new AnnotationConfigApplicationContext(BenchmarkConfiguration.class);
+        buffer = context.getBean(OutboundBuffer.class);
+        running = true;
+        drainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    buffer.drain();
+                }
+            }
+        }, "OutBufferBenchmarkDrain");
+        drainThread.setDaemon(true);
+        drainThread.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        running = false;
+        buffer.put(MESSAGE); // wakes up a drain that waits for messages
+        drainThread.join(TimeUnit.SECONDS.toMillis(10));
+        context.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void putSingleProducer() throws InterruptedException {
+        buffer.put(MESSAGE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void putFourProducers() throws InterruptedException {
+        buffer.put(MESSAGE);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void putSixteenProducers() throws InterruptedException {
+        buffer.put(MESSAGE);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(OutboundBufferBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    static class BenchmarkMessage implements Message {
+        public int getWeight() {
+            return 100;
+        }
+
+        public String getId() {
+            return "";
+        }
+
+        public List<Message> shrink(List<Message> messages) {
+            return messages;
+        }
+    }
+
+    @Configuration
+    static class BenchmarkConfiguration {
+        @Bean
+        WorkerRecoveryManager workerRecoveryManager() {
+            return new WorkerRecoveryManager() {
+                @Override
+                public void doRecovery() {
+                }
+
+                @Override
+                public boolean isInRecovery() {
+                    return false;
+                }
+
+                @Override
+                public String getWRV() {
+                    return "1";
+                }
+
+                @Override
+                public void setWRV(String newWrv) {
+                }
+            };
+        }
+
+        // a mock would keep every dispatched bulk
+        @Bean
+        OrchestratorDispatcherService orchestratorDispatcherService() {
+            return new OrchestratorDispatcherService() {
+                @Override
+                public void dispatch(List<? extends Serializable> messages, String bulkNumber, String wrv, String workerUuid) {
+                }
+            };
+        }
+
+        @Bean
+        SynchronizationManager synchronizationManager() {
+            return new SynchronizationManagerImpl();
+        }
+
+        @Bean
+        RetryTemplate retryTemplate() {
+            return new RetryTemplate();
+        }
+
+        @Bean
+        OutboundBuffer outboundBuffer() {
+            return new OutboundBufferImpl();
+        }
+
+        @Bean
+        String workerUuid() {
+            return "benchmark";
+        }
+    }
+}
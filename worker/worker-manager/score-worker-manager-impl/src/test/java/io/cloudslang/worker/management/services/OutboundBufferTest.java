@@ -10,6 +10,8 @@
 
 package io.cloudslang.worker.management.services;
 
+import io.cloudslang.engine.queue.entities.ExecStatus;
+import io.cloudslang.engine.queue.entities.ExecutionMessage;
 import io.cloudslang.orchestrator.entities.Message;
 import io.cloudslang.orchestrator.services.OrchestratorDispatcherService;
 import junit.framework.Assert;
@@ -17,7 +19,6 @@ import org.apache.log4j.Logger;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.ArgumentMatcher;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,20 +26,21 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
-import static org.mockito.Matchers.argThat;
 
-import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.reset;
-import static org.mockito.Mockito.verify;
 
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -70,13 +72,14 @@ public class OutboundBufferTest {
 	@Test
 	public void testAggregation() throws InterruptedException {
 		List<DummyMsg1> messages = Arrays.asList(new DummyMsg1(), new DummyMsg1());
+		CountDownLatch dispatched = expectDispatchOf(messages.size());
 
 		for (DummyMsg1 message : messages) {
 			buffer.put(message);
 		}
 
 		buffer.drain();
-        verify(dispatcherService).dispatch((List<? extends Serializable>) argThat(new MessagesSizeMatcher(messages)), anyString(), anyString(),anyString());
+		Assert.assertTrue("the messages should be dispatched in one bulk", dispatched.await(5, TimeUnit.SECONDS));
 	}
 
 	/**
@@ -123,6 +126,7 @@ public class OutboundBufferTest {
 	 */
 	@Test
 	public void testConsumerBlocking() throws InterruptedException {
+		CountDownLatch dispatched = expectDispatchOf(2);
 		Thread thread = new Thread(new Runnable() {
 			@Override
 			public void run() {
@@ -144,7 +148,23 @@ public class OutboundBufferTest {
 		Assert.assertEquals("reading thread should be in a terminated after a message was inserted to the buffer", Thread.State.TERMINATED, thread.getState());
 
 		thread.join();
-        verify(dispatcherService).dispatch((List<? extends Serializable>) argThat(new MessagesSizeMatcher(Arrays.asList(messages))), anyString(), anyString(), anyString());
+		Assert.assertTrue("the messages should be dispatched in one bulk", dispatched.await(5, TimeUnit.SECONDS));
+	}
+
+	// the bulks are dispatched by the drain lanes - a bulk of a previous test may still be dispatched, so it is not verified as the only one
+	private CountDownLatch expectDispatchOf(final int size) {
+		final CountDownLatch dispatched = new CountDownLatch(1);
+		//noinspection unchecked
+		doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				if (((List) invocation.getArguments()[0]).size() == size) {
+					dispatched.countDown();
+				}
+				return null;
+			}
+		}).when(dispatcherService).dispatch(anyList(), anyString(), anyString(), anyString());
+		return dispatched;
 	}
 
 
@@ -237,6 +257,114 @@ public class OutboundBufferTest {
 	}
 
 
+    /**
+     * Makes sure every message that concurrent producers put into a full buffer is dispatched exactly once
+     */
+    @Test(timeout = 30000)
+    public void testConcurrentProducers() throws InterruptedException {
+        final int THREADS_NUM = 8;
+        final int MESSAGES_PER_THREAD = 200;
+        final AtomicInteger dispatched = new AtomicInteger();
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                dispatched.addAndGet(((List) invocation.getArguments()[0]).size());
+                return null;
+            }
+        }).when(dispatcherService).dispatch(anyList(), anyString(), anyString(), anyString());
+
+        final CountDownLatch latch = new CountDownLatch(THREADS_NUM);
+        for (int i = 0; i < THREADS_NUM; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < MESSAGES_PER_THREAD; j++) {
+                            buffer.put(new DummyMsg1());
+                        }
+                    } catch (InterruptedException ex) {
+                        logger.error("thread finished", ex);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        while (latch.getCount() > 0 || buffer.getSize() > 0) {
+            if (buffer.getSize() > 0) {
+                buffer.drain();
+            } else {
+                Thread.sleep(1);
+            }
+        }
+        while (dispatched.get() < THREADS_NUM * MESSAGES_PER_THREAD) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(THREADS_NUM * MESSAGES_PER_THREAD, dispatched.get());
+        Assert.assertEquals(0, buffer.getSize());
+        Assert.assertEquals(0, buffer.getWeight());
+    }
+
+    /**
+     * Makes sure bulks that are dispatched in parallel keep the order of the messages of each execution
+     */
+    @Test(timeout = 30000)
+    public void testOrderPerExecution() throws InterruptedException {
+        final int EXECUTIONS = 4;
+        final int STEPS = 20;
+        final List<ExecutionMessage> dispatched = Collections.synchronizedList(new ArrayList<ExecutionMessage>());
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                for (Object message : (List) invocation.getArguments()[0]) {
+                    dispatched.add((ExecutionMessage) message);
+                }
+                Thread.sleep(1);
+                return null;
+            }
+        }).when(dispatcherService).dispatch(anyList(), anyString(), anyString(), anyString());
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int step = 0; step < STEPS; step++) {
+                        for (int execution = 0; execution < EXECUTIONS; execution++) {
+                            ExecutionMessage message = new ExecutionMessage(execution, "worker1", "group1", String.valueOf(execution), ExecStatus.FINISHED, null, step);
+                            buffer.put(message.setWorkerKey(execution + ":" + step));
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    logger.error("thread finished", ex);
+                } finally {
+                    latch.countDown();
+                }
+            }
+        }).start();
+
+        while (latch.getCount() > 0 || buffer.getSize() > 0) {
+            if (buffer.getSize() > 0) {
+                buffer.drain();
+            } else {
+                Thread.sleep(1);
+            }
+        }
+        while (dispatched.size() < EXECUTIONS * STEPS) {
+            Thread.sleep(10);
+        }
+
+        int[] lastStep = new int[EXECUTIONS];
+        Arrays.fill(lastStep, -1);
+        for (ExecutionMessage message : dispatched) {
+            int execution = Integer.parseInt(message.getMsgId());
+            Assert.assertEquals(lastStep[execution] + 1, message.getMsgSeqId());
+            lastStep[execution] = message.getMsgSeqId();
+        }
+    }
+
     /**
      * Makes sure the recovery clears worker state
      */
@@ -254,25 +382,6 @@ public class OutboundBufferTest {
         Assert.assertEquals(0,buffer.getWeight());
     }
 
-    private class MessagesSizeMatcher extends ArgumentMatcher{
-        List messages;
-
-        public MessagesSizeMatcher(List val) {
-            messages = val;
-        }
-
-        @Override
-        public boolean matches(Object argument) {
-            if(argument instanceof List){
-                List listConverted = (List)argument;
-                if(listConverted.size() ==  messages.size()){
-                    return true;
-                }
-            }
-            return false;
-        }
-    }
-
     static class DrainStatistics{
         private int counter;
         private int size;
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.worker.management.services;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PollingControllerTest {
+
+    private PollingController controller = new PollingController(100, 25, 200, 1000);
+
+    @Test
+    public void testDefaultThresholdIsTwentyPercent() {
+        Assert.assertEquals(20, controller.getRefillThreshold());
+        Assert.assertTrue(controller.needToPoll(19));
+        Assert.assertFalse(controller.needToPoll(20));
+        Assert.assertEquals(81, controller.getPollSize(19));
+    }
+
+    @Test
+    public void testEmptyPollsBackOffAndRecover() {
+        controller.onPoll(0, 0, 1, 0);
+        Assert.assertEquals(50, controller.getIntervalAfterEmptyPoll());
+        for (int i = 0; i < 10; i++) {
+            controller.onPoll(0, 0, 1, 0);
+        }
+        Assert.assertEquals(1000, controller.getIntervalAfterEmptyPoll());
+
+        controller.onPoll(10, 10, 1, 0);
+        Assert.assertEquals(25, controller.getIntervalAfterEmptyPoll());
+        Assert.assertEquals(25, controller.getIntervalAfterMessages());
+    }
+
+    @Test
+    public void testThresholdGrowsWithDrainRate() {
+        long now = 0;
+        controller.onBufferSize(100, now);
+        for (int i = 0; i < 20; i++) {
+            now += 10;
+            controller.onPoll(100, 100, 50, now);
+            now += 10;
+            controller.onBufferSize(80, now); // 20 messages in 10 millis
+        }
+        Assert.assertEquals(80, controller.getRefillThreshold());
+        Assert.assertTrue(controller.needToPoll(79));
+    }
+
+    @Test
+    public void testIntervalWhileFullFollowsDrainRate() {
+        Assert.assertEquals(200, controller.getIntervalWhileFull(100));
+
+        controller.onBufferSize(100, 0);
+        controller.onBufferSize(90, 100); // 0.1 * 0.3 = 0.03 messages per milli
+        long interval = controller.getIntervalWhileFull(90);
+        Assert.assertTrue(interval > 25 && interval <= 200);
+    }
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.worker.management.services;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+
+public class PriorityThreadPoolExecutorTest {
+
+    private PriorityThreadPoolExecutor executor = new PriorityThreadPoolExecutor(1, new PriorityBlockingQueue<Runnable>(), Executors.defaultThreadFactory());
+
+    @After
+    public void shutDown() {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void testWaitingStepsRunByPriority() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        executor.submit(record(order, "low1"), null, 0);
+        executor.submit(record(order, "high"), null, 5);
+        executor.submit(record(order, "low2"), null, 0);
+        executor.submit(record(order, "medium"), null, 1);
+
+        release.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(Arrays.asList("high", "medium", "low1", "low2"), order);
+    }
+
+    @Test(timeout = 10000)
+    public void testCancelledWaitingStepIsCompleted() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch completed = new CountDownLatch(1);
+        class ListeningStep implements Runnable, PriorityThreadPoolExecutor.CompletionListener {
+            @Override
+            public void run() {
+                order.add("step");
+            }
+
+            @Override
+            public void onCompletion() {
+                completed.countDown();
+            }
+        }
+        executor.submit(new ListeningStep(), 1L, 0).cancel(true);
+
+        Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertTrue(order.isEmpty());
+    }
+
+    private Runnable record(final List<String> order, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+}
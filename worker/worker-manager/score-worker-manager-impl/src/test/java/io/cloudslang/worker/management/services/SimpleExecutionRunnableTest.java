@@ -32,7 +32,6 @@ import io.cloudslang.engine.queue.entities.ExecStatus;
 import io.cloudslang.engine.queue.entities.ExecutionMessage;
 import io.cloudslang.engine.queue.entities.ExecutionMessageConverter;
 import io.cloudslang.engine.queue.entities.Payload;
-import io.cloudslang.engine.queue.services.QueueStateIdGeneratorService;
 import io.cloudslang.score.facade.entities.Execution;
 
 import static org.mockito.Matchers.any;
@@ -74,7 +73,7 @@ public class SimpleExecutionRunnableTest {
     private AtomicBoolean recoveryFlag;
 
     @Mock
-    private QueueStateIdGeneratorService queueStateIdGenerator;
+    private LeasedStateIdGenerator stateIdGenerator;
 	
 	@Mock
 	private WorkerConfigurationService workerConfigurationService;
@@ -94,7 +93,7 @@ public class SimpleExecutionRunnableTest {
     @Test
     public void testGetExecutionMessage() throws Exception {
         SimpleExecutionRunnable simpleExecutionRunnable = new SimpleExecutionRunnable(executionService, outBuffer,
-                inBuffer, converter, endExecutionCallback, queueStateIdGenerator, "stam",workerConfigurationService, workerManager);
+                inBuffer, converter, endExecutionCallback, stateIdGenerator, "stam",workerConfigurationService, workerManager);
         ExecutionMessage executionMessage = simpleExecutionRunnable.getExecutionMessage();
         Assert.assertNull(executionMessage);
 
@@ -124,7 +123,7 @@ public class SimpleExecutionRunnableTest {
         when(workerManager.isFromCurrentThreadPool(anyString())).thenReturn(true);
 
         SimpleExecutionRunnable simpleExecutionRunnable = new SimpleExecutionRunnable(executionService, outBuffer,
-                inBuffer, converter, endExecutionCallback, queueStateIdGenerator, "stam",workerConfigurationService, workerManager);
+                inBuffer, converter, endExecutionCallback, stateIdGenerator, "stam",workerConfigurationService, workerManager);
 
         simpleExecutionRunnable.setExecutionMessage(new ExecutionMessage());
         simpleExecutionRunnable.run();
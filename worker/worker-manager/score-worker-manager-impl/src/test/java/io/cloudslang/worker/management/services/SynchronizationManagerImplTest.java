@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.worker.management.services;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SynchronizationManagerImplTest {
+
+    private SynchronizationManagerImpl syncManager = new SynchronizationManagerImpl();
+
+    @Test(timeout = 10000)
+    public void testRecoveryWaitsForPut() throws InterruptedException {
+        syncManager.startPutMessages();
+        final CountDownLatch recovered = new CountDownLatch(1);
+        Thread recovery = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                syncManager.startRecovery();
+                recovered.countDown();
+                syncManager.finishRecovery();
+            }
+        });
+        recovery.start();
+
+        Assert.assertFalse(recovered.await(100, TimeUnit.MILLISECONDS));
+        syncManager.finishPutMessages();
+        Assert.assertTrue(recovered.await(5, TimeUnit.SECONDS));
+        recovery.join();
+    }
+
+    @Test(timeout = 10000)
+    public void testPutWaitsForRecovery() throws InterruptedException {
+        syncManager.startRecovery();
+        final CountDownLatch entered = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                syncManager.startPutMessages();
+                entered.countDown();
+                syncManager.finishPutMessages();
+            }
+        });
+        producer.start();
+
+        Assert.assertFalse(entered.await(100, TimeUnit.MILLISECONDS));
+        syncManager.finishRecovery();
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+        producer.join();
+    }
+
+    @Test(timeout = 10000)
+    public void testPausedPutDoesNotBlockRecovery() {
+        syncManager.startGetMessages();
+        syncManager.startPutMessages();
+        syncManager.pausePutMessages();
+
+        Thread recovery = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                syncManager.startRecovery();
+                syncManager.finishRecovery();
+            }
+        });
+        recovery.start();
+        try {
+            recovery.join();
+        } catch (InterruptedException ignore) {
+        }
+        syncManager.resumePutMessages();
+        syncManager.finishPutMessages();
+        syncManager.finishGetMessages();
+    }
+}
@@ -26,6 +26,9 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import io.cloudslang.engine.node.services.WorkerNodeService;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.fest.assertions.Assertions.assertThat;
 import static org.fest.assertions.Fail.fail;
 import static org.mockito.Mockito.*;
@@ -54,6 +57,9 @@ public class WorkerManagerTest {
 	@Autowired
 	private EngineVersionService engineVersionService;
 
+	@Autowired
+	private WorkerConfigurationService workerConfigurationService;
+
 	static final String CREDENTIAL_UUID = "uuid";
 
 	@Before
@@ -157,6 +163,7 @@ public class WorkerManagerTest {
 
 	@Test(timeout = 10000)
 	public void testKeepAliveFailTriggerRecovery() {
+		doThrow(new RuntimeException("Network Error")).when(workerNodeService).keepAlive(eq(CREDENTIAL_UUID), anyInt(), anyInt());
 		doThrow(new RuntimeException("Network Error")).when(workerNodeService).keepAlive(CREDENTIAL_UUID);
 		for (int i = 0; i < 5; i++) {
 			workerManager.workerKeepAlive();
@@ -166,6 +173,44 @@ public class WorkerManagerTest {
 		reset(workerNodeService);
 	}
 
+	@Test(timeout = 10000)
+	public void testKeepAliveFallsBackForAnOlderEngine() {
+		doThrow(new RuntimeException(new NoSuchMethodException("keepAlive"))).when(workerNodeService).keepAlive(eq(CREDENTIAL_UUID), anyInt(), anyInt());
+		when(workerNodeService.keepAlive(CREDENTIAL_UUID)).thenReturn("1");
+		when(workerRecoveryManager.getWRV()).thenReturn("1");
+		for (int i = 0; i < 3; i++) {
+			workerManager.workerKeepAlive();
+		}
+		verify(workerNodeService, times(1)).keepAlive(eq(CREDENTIAL_UUID), anyInt(), anyInt());
+		verify(workerNodeService, times(3)).keepAlive(CREDENTIAL_UUID);
+		verify(workerRecoveryManager, never()).doRecovery();
+
+		reset(workerNodeService);
+	}
+
+	@Test(timeout = 10000)
+	public void cancelledExecutionIsInterruptedImmediately() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		workerManager.addExecution(7L, new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					Thread.sleep(60000);
+				} catch (InterruptedException ex) {
+					interrupted.countDown();
+				}
+			}
+		});
+		started.await();
+
+		workerManager.onExecutionCancelled(7L);
+
+		verify(workerConfigurationService).setExecutionCancelled(7L);
+		assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+
 	@Test
 	public void shutDown() {
 		assertThat(workerManager.isUp()).isTrue();
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * (c) Copyright 2014 Hewlett-Packard Development Company, L.P.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Apache License v2.0 which accompany this distribution.
+ *
+ * The Apache License is available at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *******************************************************************************/
+
+package io.cloudslang.worker.management.services;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WorkerMemoryBudgetTest {
+
+    private WorkerMemoryBudget budget = new WorkerMemoryBudget(1000);
+
+    @Test
+    public void testReserveAndRelease() {
+        int generation = budget.reserve(600);
+        Assert.assertTrue(budget.hasRoom(400));
+        Assert.assertFalse(budget.hasRoom(401));
+        Assert.assertFalse(budget.isExhausted());
+
+        budget.reserve(400);
+        Assert.assertTrue(budget.isExhausted());
+
+        budget.release(600, generation);
+        Assert.assertEquals(400, budget.getUsed());
+        Assert.assertFalse(budget.isExhausted());
+    }
+
+    @Test
+    public void testOversizedMessageIsAdmittedWhenNothingIsHeld() {
+        Assert.assertTrue(budget.hasRoom(5000));
+    }
+
+    @Test
+    public void testReleaseOfPreviousGenerationIsIgnored() {
+        int generation = budget.reserve(800);
+        budget.doRecovery();
+        Assert.assertEquals(0, budget.getUsed());
+
+        budget.reserve(300);
+        budget.release(800, generation);
+        Assert.assertEquals(300, budget.getUsed());
+    }
+
+    @Test(timeout = 10000)
+    public void testAwaitRoomWakesUpOnRelease() throws InterruptedException {
+        final int generation = budget.reserve(1000);
+        Assert.assertFalse(budget.awaitRoom(10));
+
+        Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignore) {
+                }
+                budget.release(500, generation);
+            }
+        });
+        releaser.start();
+
+        Assert.assertTrue(budget.awaitRoom(60000));
+        releaser.join();
+    }
+}